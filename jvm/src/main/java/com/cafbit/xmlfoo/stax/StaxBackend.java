@@ -0,0 +1,74 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cafbit.xmlfoo.stax;
+
+import javax.xml.stream.XMLInputFactory;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import com.cafbit.xmlfoo.XmlBackend;
+
+/**
+ * A backend that parses with the JDK's StAX implementation (or any
+ * other javax.xml.stream provider, such as Woodstox or Aalto), through
+ * an XmlPullParser adapter.
+ *
+ *   XmlFoo xmlFoo = new XmlFoo.Builder()
+ *       .setBackend(new StaxBackend())
+ *       .build();
+ *
+ * StAX parsers hold documents to XML 1.0, which has no way to write
+ * the C0 control characters other than tab, line feed and carriage
+ * return, even as character references.  xmlfoo writes them as
+ * references such as "&#1;", which kxml and the other XmlPull parsers
+ * read back, but which StAX parsers reject: a document holding a
+ * String with such a character cannot be read with this backend, and
+ * deserializing it fails with an XmlFooException.
+ */
+public class StaxBackend extends XmlBackend {
+
+    private final XMLInputFactory factory;
+
+    public StaxBackend() {
+        this(XMLInputFactory.newInstance());
+    }
+
+    /**
+     * Use the supplied factory.  It is reconfigured to coalesce text
+     * and to process namespaces, and must not be changed afterwards,
+     * since it is shared by every parser this backend creates.
+     * Document type declarations are not processed, as with the
+     * XmlPull parsers.
+     */
+    public StaxBackend(XMLInputFactory factory) {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory cannot be null");
+        }
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        this.factory = factory;
+    }
+
+    @Override
+    public XmlPullParser newPullParser() {
+        return new StaxPullParser(factory);
+    }
+
+}
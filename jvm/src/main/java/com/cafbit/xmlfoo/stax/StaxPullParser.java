@@ -0,0 +1,433 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cafbit.xmlfoo.stax;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Presents a StAX XMLStreamReader as an XmlPullParser.
+ *
+ * Only the next()-level view of the document is supported: comments,
+ * processing instructions and the document type declaration are
+ * skipped, and adjacent text (including CDATA sections and text split
+ * by comments) is reported as a single TEXT event, exactly as
+ * XmlPullParser.next() specifies.  nextToken() therefore behaves like
+ * next().  Text is copied out of the StAX reader, since the reader
+ * must look one event past the end of a run of text.
+ */
+class StaxPullParser implements XmlPullParser {
+
+    private final XMLInputFactory factory;
+    private XMLStreamReader reader;
+
+    private int eventType;
+    private int depth;
+
+    // a StAX event that was read while looking past the end of a run
+    // of text, or -1.  the reader is still positioned on it.
+    private int pendingEvent;
+
+    // the text of the current TEXT event.
+    private char[] text = new char[128];
+    private int textLength;
+
+    StaxPullParser(XMLInputFactory factory) {
+        this.factory = factory;
+    }
+
+    //// input
+
+    public void setInput(Reader in) throws XmlPullParserException {
+        try {
+            reset(factory.createXMLStreamReader(in));
+        } catch (XMLStreamException e) {
+            throw toXmlPullParserException(e);
+        }
+    }
+
+    public void setInput(InputStream in, String inputEncoding) throws XmlPullParserException {
+        try {
+            if (inputEncoding == null) {
+                reset(factory.createXMLStreamReader(in));
+            } else {
+                reset(factory.createXMLStreamReader(in, inputEncoding));
+            }
+        } catch (XMLStreamException e) {
+            throw toXmlPullParserException(e);
+        }
+    }
+
+    private void reset(XMLStreamReader reader) {
+        this.reader = reader;
+        this.eventType = START_DOCUMENT;
+        this.depth = 0;
+        this.pendingEvent = -1;
+        this.textLength = 0;
+    }
+
+    public String getInputEncoding() {
+        return (reader == null) ? null : reader.getEncoding();
+    }
+
+    //// features and properties
+
+    public void setFeature(String name, boolean state) throws XmlPullParserException {
+        if (state != getFeature(name)) {
+            throw new XmlPullParserException("Unsupported feature: "+name);
+        }
+    }
+
+    public boolean getFeature(String name) {
+        return FEATURE_PROCESS_NAMESPACES.equals(name);
+    }
+
+    public void setProperty(String name, Object value) throws XmlPullParserException {
+        throw new XmlPullParserException("Unsupported property: "+name);
+    }
+
+    public Object getProperty(String name) {
+        return null;
+    }
+
+    public void defineEntityReplacementText(String entityName, String replacementText) throws XmlPullParserException {
+        throw new XmlPullParserException("Entity replacement text cannot be defined for a StAX parser.");
+    }
+
+    //// parsing
+
+    public int getEventType() {
+        return eventType;
+    }
+
+    public int next() throws XmlPullParserException, IOException {
+        if (reader == null) {
+            throw new XmlPullParserException("No input specified.");
+        }
+        if (eventType == END_DOCUMENT) {
+            return END_DOCUMENT;
+        }
+        if (eventType == END_TAG) {
+            depth--;
+        }
+        try {
+            while (true) {
+                int event = nextStaxEvent();
+                switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    return eventType = START_TAG;
+                case XMLStreamConstants.END_ELEMENT:
+                    return eventType = END_TAG;
+                case XMLStreamConstants.END_DOCUMENT:
+                    return eventType = END_DOCUMENT;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    readText();
+                    return eventType = TEXT;
+                default:
+                    // comments, processing instructions, etc.
+                    break;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw toXmlPullParserException(e);
+        }
+    }
+
+    public int nextToken() throws XmlPullParserException, IOException {
+        return next();
+    }
+
+    private int nextStaxEvent() throws XMLStreamException {
+        int event = pendingEvent;
+        if (event != -1) {
+            pendingEvent = -1;
+            return event;
+        }
+        return reader.next();
+    }
+
+    // collect the text of the current StAX event and every text event
+    // that follows it, stopping at the first event of another kind.
+    private void readText() throws XMLStreamException {
+        textLength = 0;
+        while (true) {
+            appendText();
+            int event;
+            do {
+                event = reader.next();
+            } while ((event == XMLStreamConstants.COMMENT) || (event == XMLStreamConstants.PROCESSING_INSTRUCTION));
+            if (! isText(event)) {
+                pendingEvent = event;
+                return;
+            }
+        }
+    }
+
+    private static boolean isText(int event) {
+        return (event == XMLStreamConstants.CHARACTERS)
+            || (event == XMLStreamConstants.CDATA)
+            || (event == XMLStreamConstants.SPACE)
+            || (event == XMLStreamConstants.ENTITY_REFERENCE);
+    }
+
+    private void appendText() {
+        int length = reader.getTextLength();
+        if (textLength + length > text.length) {
+            char[] grown = new char[Math.max(textLength + length, text.length * 2)];
+            System.arraycopy(text, 0, grown, 0, textLength);
+            text = grown;
+        }
+        System.arraycopy(reader.getTextCharacters(), reader.getTextStart(), text, textLength, length);
+        textLength += length;
+    }
+
+    public void require(int type, String namespace, String name) throws XmlPullParserException, IOException {
+        if ((type != eventType)
+                || ((namespace != null) && !namespace.equals(getNamespace()))
+                || ((name != null) && !name.equals(getName()))) {
+            throw new XmlPullParserException("expected "+TYPES[type], this, null);
+        }
+    }
+
+    public String nextText() throws XmlPullParserException, IOException {
+        if (eventType != START_TAG) {
+            throw new XmlPullParserException("parser must be on START_TAG to read next text", this, null);
+        }
+        int event = next();
+        if (event == TEXT) {
+            String result = getText();
+            if (next() != END_TAG) {
+                throw new XmlPullParserException("TEXT must be immediately followed by END_TAG", this, null);
+            }
+            return result;
+        } else if (event == END_TAG) {
+            return "";
+        } else {
+            throw new XmlPullParserException("parser must be on START_TAG or TEXT to read text", this, null);
+        }
+    }
+
+    public int nextTag() throws XmlPullParserException, IOException {
+        int event = next();
+        if ((event == TEXT) && isWhitespace()) {
+            event = next();
+        }
+        if ((event != START_TAG) && (event != END_TAG)) {
+            throw new XmlPullParserException("expected START_TAG or END_TAG", this, null);
+        }
+        return event;
+    }
+
+    //// position
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public String getPositionDescription() {
+        StringBuilder sb = new StringBuilder(TYPES[eventType]);
+        if ((eventType == START_TAG) || (eventType == END_TAG)) {
+            sb.append(' ').append(getName());
+        }
+        sb.append(" @").append(getLineNumber()).append(':').append(getColumnNumber());
+        return sb.toString();
+    }
+
+    public int getLineNumber() {
+        Location location = (reader == null) ? null : reader.getLocation();
+        return (location == null) ? -1 : location.getLineNumber();
+    }
+
+    public int getColumnNumber() {
+        Location location = (reader == null) ? null : reader.getLocation();
+        return (location == null) ? -1 : location.getColumnNumber();
+    }
+
+    //// text
+
+    public boolean isWhitespace() throws XmlPullParserException {
+        if (eventType != TEXT) {
+            throw new XmlPullParserException("no content available to check for whitespaces");
+        }
+        for (int i=0; i<textLength; i++) {
+            char c = text[i];
+            if ((c != ' ') && (c != '\t') && (c != '\n') && (c != '\r')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getText() {
+        return (eventType == TEXT) ? new String(text, 0, textLength) : null;
+    }
+
+    public char[] getTextCharacters(int[] holderForStartAndLength) {
+        if (eventType == TEXT) {
+            holderForStartAndLength[0] = 0;
+            holderForStartAndLength[1] = textLength;
+            return text;
+        }
+        holderForStartAndLength[0] = -1;
+        holderForStartAndLength[1] = -1;
+        return null;
+    }
+
+    //// elements
+
+    private boolean isTag() {
+        return (eventType == START_TAG) || (eventType == END_TAG);
+    }
+
+    public String getName() {
+        return isTag() ? reader.getLocalName() : null;
+    }
+
+    public String getNamespace() {
+        if (! isTag()) {
+            return null;
+        }
+        String namespace = reader.getNamespaceURI();
+        return (namespace == null) ? NO_NAMESPACE : namespace;
+    }
+
+    public String getPrefix() {
+        if (! isTag()) {
+            return null;
+        }
+        return emptyToNull(reader.getPrefix());
+    }
+
+    public boolean isEmptyElementTag() throws XmlPullParserException {
+        if (eventType != START_TAG) {
+            throw new XmlPullParserException("parser must be on START_TAG to check for empty element", this, null);
+        }
+        // StAX reports <a/> and <a></a> identically.
+        return false;
+    }
+
+    //// namespaces
+
+    public String getNamespace(String prefix) {
+        if (reader == null) {
+            return null;
+        }
+        return reader.getNamespaceContext().getNamespaceURI((prefix == null) ? "" : prefix);
+    }
+
+    public int getNamespaceCount(int depth) throws XmlPullParserException {
+        throw new XmlPullParserException("The namespace stack is not available from a StAX parser.");
+    }
+
+    public String getNamespacePrefix(int pos) throws XmlPullParserException {
+        throw new XmlPullParserException("The namespace stack is not available from a StAX parser.");
+    }
+
+    public String getNamespaceUri(int pos) throws XmlPullParserException {
+        throw new XmlPullParserException("The namespace stack is not available from a StAX parser.");
+    }
+
+    //// attributes
+
+    public int getAttributeCount() {
+        return (eventType == START_TAG) ? reader.getAttributeCount() : -1;
+    }
+
+    public String getAttributeName(int index) {
+        checkAttributeIndex(index);
+        return reader.getAttributeLocalName(index);
+    }
+
+    public String getAttributeNamespace(int index) {
+        checkAttributeIndex(index);
+        String namespace = reader.getAttributeNamespace(index);
+        return (namespace == null) ? NO_NAMESPACE : namespace;
+    }
+
+    public String getAttributePrefix(int index) {
+        checkAttributeIndex(index);
+        return emptyToNull(reader.getAttributePrefix(index));
+    }
+
+    public String getAttributeType(int index) {
+        checkAttributeIndex(index);
+        return reader.getAttributeType(index);
+    }
+
+    public boolean isAttributeDefault(int index) {
+        checkAttributeIndex(index);
+        return ! reader.isAttributeSpecified(index);
+    }
+
+    public String getAttributeValue(int index) {
+        checkAttributeIndex(index);
+        return reader.getAttributeValue(index);
+    }
+
+    public String getAttributeValue(String namespace, String name) {
+        if (eventType != START_TAG) {
+            throw new IndexOutOfBoundsException("only START_TAG can have attributes");
+        }
+        // compared here rather than with the StAX lookup, whose
+        // treatment of the empty namespace varies between providers.
+        int count = reader.getAttributeCount();
+        for (int i=0; i<count; i++) {
+            if (name.equals(reader.getAttributeLocalName(i))) {
+                if ((namespace == null) || namespace.equals(getAttributeNamespace(i))) {
+                    return reader.getAttributeValue(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    private void checkAttributeIndex(int index) {
+        if (eventType != START_TAG) {
+            throw new IndexOutOfBoundsException("only START_TAG can have attributes");
+        }
+        if ((index < 0) || (index >= reader.getAttributeCount())) {
+            throw new IndexOutOfBoundsException("attribute index out of range: "+index);
+        }
+    }
+
+    //// helpers
+
+    private static String emptyToNull(String s) {
+        return ((s == null) || (s.length() == 0)) ? null : s;
+    }
+
+    private XmlPullParserException toXmlPullParserException(XMLStreamException e) {
+        return new XmlPullParserException(e.getMessage(), this, e);
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cafbit.xmlfoo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+import com.cafbit.xmlfoo.annotations.Attribute;
+import com.cafbit.xmlfoo.annotations.LameCrypt;
+
+/**
+ * Checks that AESFieldCipher round-trips values, and that wrong keys
+ * and altered ciphertext are rejected, all with the same message.
+ */
+public class AESFieldCipherTest {
+
+    private static final String FAILED = "Unable to decrypt a @LameCrypt value.";
+
+    public static class Account {
+        @Attribute("code") @LameCrypt public String code;
+        @LameCrypt public String secret;
+        @LameCrypt public int pin;
+        public String name;
+    }
+
+    public static class Accounts {
+        public List<Account> accounts;
+    }
+
+    private static byte[] key(int length, int seed) {
+        byte[] key = new byte[length];
+        for (int i=0; i<length; i++) {
+            key[i] = (byte) (i*seed + 1);
+        }
+        return key;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        String[] values = { "", "a", "hello world", "exactly sixteen!", "héllo wörld ☃ 😀", "\u0000\u0001" };
+        for (int length : new int[] { 16, 24, 32 }) {
+            AESFieldCipher cipher = new AESFieldCipher(key(length, 7));
+            for (String value : values) {
+                String ciphertext = cipher.encrypt(value);
+                assertEquals(value, cipher.decrypt(ciphertext));
+                // a fresh IV every time.
+                assertFalse(ciphertext.equals(cipher.encrypt(value)));
+            }
+        }
+        AESFieldCipher separate = new AESFieldCipher(
+            new SecretKeySpec(key(16, 3), "AES"), new SecretKeySpec(key(32, 5), "HmacSHA256"));
+        assertEquals("separate keys", separate.decrypt(separate.encrypt("separate keys")));
+    }
+
+    @Test
+    public void roundTripThroughXmlFoo() throws Exception {
+        Accounts accounts = new Accounts();
+        accounts.accounts = new ArrayList<Account>();
+        for (int i=0; i<100; i++) {
+            Account account = new Account();
+            account.code = (i % 3 == 0) ? null : "c"+i;
+            account.secret = "sécret "+i;
+            account.pin = 1000 + i;
+            account.name = "name "+i;
+            accounts.accounts.add(account);
+        }
+        XmlFoo xmlFoo = new XmlFoo.Builder().setFieldCipher(new AESFieldCipher(key(32, 11))).build();
+        String xml = xmlFoo.serialize("accounts", accounts);
+        assertFalse(xml.contains("sécret"));
+        Accounts back = (Accounts)xmlFoo.deserialize(xml, Accounts.class);
+        assertEquals(100, back.accounts.size());
+        for (int i=0; i<100; i++) {
+            Account account = back.accounts.get(i);
+            assertEquals(accounts.accounts.get(i).code, account.code);
+            assertEquals("sécret "+i, account.secret);
+            assertEquals(1000 + i, account.pin);
+            assertEquals("name "+i, account.name);
+        }
+        try {
+            new XmlFoo.Builder().setFieldCipher(new AESFieldCipher(key(32, 13))).build()
+                .deserialize(xml, Accounts.class);
+            fail("read with the wrong key");
+        } catch (XmlFooException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void wrongKeyIsRejected() throws Exception {
+        AESFieldCipher cipher = new AESFieldCipher(key(16, 7));
+        AESFieldCipher other = new AESFieldCipher(key(16, 9));
+        // without a MAC, about 1 in 256 of these would decrypt.
+        for (int i=0; i<2000; i++) {
+            assertRejected(other, cipher.encrypt("value "+i));
+        }
+    }
+
+    @Test
+    public void tamperedCiphertextIsRejected() throws Exception {
+        AESFieldCipher cipher = new AESFieldCipher(key(16, 7));
+        String ciphertext = cipher.encrypt("a value two blocks long, or more");
+        byte[] bytes = Hex.decode(ciphertext);
+        // every bit of the IV, ciphertext and MAC.
+        for (int i=0; i<bytes.length*8; i++) {
+            byte[] tampered = bytes.clone();
+            tampered[i/8] ^= (byte) (1 << (i%8));
+            assertRejected(cipher, Hex.encode(tampered));
+        }
+        // truncated, extended, or not a whole number of blocks.
+        assertRejected(cipher, ciphertext.substring(0, ciphertext.length() - 2));
+        assertRejected(cipher, ciphertext.substring(0, ciphertext.length() - 64));
+        assertRejected(cipher, ciphertext.substring(32));
+        assertRejected(cipher, ciphertext + "00");
+        assertRejected(cipher, ciphertext + "00000000000000000000000000000000");
+        assertRejected(cipher, "");
+        assertRejected(cipher, "ABCD");
+        assertRejected(cipher, "not hex at all");
+    }
+
+    private static void assertRejected(FieldCipher cipher, String ciphertext) {
+        try {
+            cipher.decrypt(ciphertext);
+            fail("accepted "+ciphertext);
+        } catch (XmlFooException e) {
+            assertEquals(FAILED, e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cafbit.xmlfoo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that every DESCipher path gives bit-for-bit the same result
+ * as DES.encryptBlock(): the table-driven single block, the bitsliced
+ * batches, byte arrays and ByteBuffers, and large messages split
+ * across threads.
+ */
+public class DESCipherTest {
+
+    private static final int PAIRS = 200000;
+
+    // enough blocks per key for a message to take the parallel path.
+    private static final int BLOCKS_PER_KEY = 2 * DESCipher.PARALLEL_THRESHOLD / 8;
+
+    @BeforeClass
+    public static void splitLargeMessages() {
+        // split large messages even on a single processor.
+        DESCipher.setParallelism(4);
+    }
+
+    @AfterClass
+    public static void restoreParallelism() {
+        DESCipher.setParallelism(0);
+    }
+
+    @Test
+    public void knownAnswer() {
+        long key = 0x133457799BBCDFF1L;
+        long plaintext = 0x0123456789ABCDEFL;
+        long ciphertext = 0x85E813540F0AB405L;
+        assertEquals(ciphertext, DES.encryptBlock(plaintext, key, false));
+        assertEquals(plaintext, DES.encryptBlock(ciphertext, key, true));
+        DESCipher cipher = new DESCipher(key);
+        assertEquals(ciphertext, cipher.encryptBlock(plaintext));
+        assertEquals(plaintext, cipher.decryptBlock(ciphertext));
+        long[] blocks = new long[64];
+        for (int i=0; i<blocks.length; i++) {
+            blocks[i] = plaintext;
+        }
+        cipher.encryptBlocks(blocks, 0, blocks.length);
+        for (long block : blocks) {
+            assertEquals(ciphertext, block);
+        }
+    }
+
+    @Test
+    public void singleBlocksMatchReference() {
+        Random random = new Random(21);
+        for (int i=0; i<PAIRS; i++) {
+            long key = random.nextLong();
+            long m = random.nextLong();
+            long c = DES.encryptBlock(m, key, false);
+            DESCipher cipher = new DESCipher(key);
+            assertEquals(c, cipher.encryptBlock(m));
+            assertEquals(m, cipher.decryptBlock(c));
+        }
+    }
+
+    @Test
+    public void bulkPathsMatchReference() {
+        Random random = new Random(2100);
+        for (int pairs=0; pairs<PAIRS; pairs+=BLOCKS_PER_KEY) {
+            long key = random.nextLong();
+            DESCipher cipher = new DESCipher(key);
+            long[] plaintext = new long[BLOCKS_PER_KEY];
+            long[] expected = new long[BLOCKS_PER_KEY];
+            for (int i=0; i<plaintext.length; i++) {
+                plaintext[i] = random.nextLong();
+                expected[i] = DES.encryptBlock(plaintext[i], key, false);
+            }
+
+            // bitsliced batches, with a partial batch and a tail too
+            // short to be bitsliced.
+            long[] blocks = plaintext.clone();
+            cipher.encryptBlocks(blocks, 0, blocks.length);
+            assertArrayEquals(expected, blocks);
+            cipher.decryptBlocks(blocks, 0, blocks.length);
+            assertArrayEquals(plaintext, blocks);
+            blocks = plaintext.clone();
+            cipher.encryptBlocks(blocks, 3, 100);
+            for (int i=0; i<blocks.length; i++) {
+                assertEquals(((i >= 3) && (i < 103)) ? expected[i] : plaintext[i], blocks[i]);
+            }
+
+            // byte arrays in place: the whole message is encrypted in
+            // parallel, a small part of it inline.
+            byte[] bytes = toBytes(plaintext);
+            cipher.encrypt(bytes, 0, bytes.length);
+            assertArrayEquals(toBytes(expected), bytes);
+            cipher.decrypt(bytes, 0, bytes.length);
+            assertArrayEquals(toBytes(plaintext), bytes);
+            cipher.encrypt(bytes, 8, 8*1000);
+            assertEquals(plaintext[0], ByteBuffer.wrap(bytes).getLong(0));
+            assertEquals(expected[1], ByteBuffer.wrap(bytes).getLong(8));
+            assertEquals(expected[1000], ByteBuffer.wrap(bytes).getLong(8*1000));
+            assertEquals(plaintext[1001], ByteBuffer.wrap(bytes).getLong(8*1001));
+
+            // heap and direct buffers, whatever their byte order.
+            ByteBuffer src = ByteBuffer.wrap(toBytes(plaintext)).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer dst = ByteBuffer.allocateDirect(bytes.length);
+            cipher.encrypt(src, dst);
+            assertEquals(0, src.remaining());
+            assertEquals(0, dst.remaining());
+            dst.flip();
+            for (int i=0; i<expected.length; i++) {
+                assertEquals(expected[i], dst.getLong());
+            }
+            dst.flip();
+            cipher.decrypt(dst, dst);
+            dst.flip();
+            for (int i=0; i<plaintext.length; i++) {
+                assertEquals(plaintext[i], dst.getLong());
+            }
+
+            // the byte[] convenience methods.
+            assertArrayEquals(toBytes(expected), cipher.encrypt(toBytes(plaintext)));
+            assertArrayEquals(toBytes(plaintext), cipher.decrypt(toBytes(expected)));
+        }
+    }
+
+    private static byte[] toBytes(long[] blocks) {
+        ByteBuffer buffer = ByteBuffer.allocate(8*blocks.length);
+        for (long block : blocks) {
+            buffer.putLong(block);
+        }
+        return buffer.array();
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cafbit.xmlfoo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.cafbit.xmlfoo.annotations.Attribute;
+
+/**
+ * Checks that final fields are written but never overwritten.
+ */
+public class FieldAccessorTest {
+
+    public static class Record {
+        public final int id = 5;
+        @Attribute("code") public final String code = "c";
+        public final long[] values = new long[0];
+        public int count;
+    }
+
+    @Test
+    public void finalFieldsAreWritten() throws Exception {
+        Record record = new Record();
+        record.count = 2;
+        String xml = new XmlFoo().serialize("record", record);
+        assertTrue(xml, xml.contains("<id>5</id>"));
+        assertTrue(xml, xml.contains("code=\"c\""));
+        assertTrue(xml, xml.contains("<count>2</count>"));
+    }
+
+    @Test
+    public void finalFieldsAreNotBound() throws Exception {
+        XmlFoo xmlFoo = new XmlFoo();
+        assertEquals(3, ((Record)xmlFoo.deserialize("<record><count>3</count></record>", Record.class)).count);
+        assertRejected(xmlFoo, "<record><id>7</id></record>");
+        assertRejected(xmlFoo, "<record code=\"d\"></record>");
+        assertRejected(xmlFoo, "<record><values><element>1</element></values></record>");
+    }
+
+    private static void assertRejected(XmlFoo xmlFoo, String xml) {
+        try {
+            xmlFoo.deserialize(xml, Record.class);
+            fail("bound a final field: "+xml);
+        } catch (XmlFooException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IllegalAccessException);
+        }
+    }
+
+}
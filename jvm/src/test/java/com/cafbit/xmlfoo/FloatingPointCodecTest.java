@@ -0,0 +1,183 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cafbit.xmlfoo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Fuzzes FloatingPointCodec against the platform: formatted values
+ * must read back exactly and be no longer than Double.toString()'s,
+ * and parsed values (or the exceptions thrown) must match
+ * Double.parseDouble() and Float.parseFloat().
+ */
+public class FloatingPointCodecTest {
+
+    private static final int ROUNDS = 200000;
+
+    private static final double[] DOUBLES = {
+        0.0, -0.0, 1.0, -1.0, 0.1, 0.3, 1e-3, 9.999999999999999e-4,
+        1e7, 9999999.999999998, 1e22, 1e23, 2e-323, Double.MIN_VALUE,
+        Double.MIN_NORMAL, Double.MAX_VALUE, Math.PI, Math.E,
+        Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+        4.9e-324, 2.2250738585072014E-308, 1.7976931348623157E308,
+    };
+
+    private static final float[] FLOATS = {
+        0.0f, -0.0f, 1.0f, 0.1f, 0.3f, 1e-3f, 1e7f, 16777216f,
+        Float.MIN_VALUE, Float.MIN_NORMAL, Float.MAX_VALUE,
+        Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY,
+        1.17549435E-38f, 3.4028235E38f, 1.4E-45f,
+    };
+
+    @Test
+    public void formattedDoublesReadBack() {
+        for (double v : DOUBLES) {
+            checkFormat(v);
+        }
+        Random random = new Random(14);
+        for (int i=0; i<ROUNDS; i++) {
+            checkFormat(Double.longBitsToDouble(random.nextLong()));
+            checkFormat(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20));
+            checkFormat((double) random.nextInt());
+        }
+    }
+
+    @Test
+    public void formattedFloatsReadBack() {
+        for (float v : FLOATS) {
+            checkFormat(v);
+        }
+        Random random = new Random(15);
+        for (int i=0; i<ROUNDS; i++) {
+            checkFormat(Float.intBitsToFloat(random.nextInt()));
+            checkFormat((float) (random.nextFloat() * Math.pow(10, random.nextInt(20) - 10)));
+            checkFormat((float) random.nextInt(1 << 24));
+        }
+    }
+
+    @Test
+    public void parsedNumbersMatchPlatform() {
+        for (double v : DOUBLES) {
+            checkParse(Double.toString(v));
+        }
+        for (float v : FLOATS) {
+            checkParse(Float.toString(v));
+        }
+        String[] odd = {
+            "", "-", "+", ".", "e5", "1e", "1e+", "--1", "1..2", "1.2.3",
+            "0x1p3", "NaN", "-Infinity", " 1.5", "1.5 ", "1.5d", "1.5f",
+            "00000000000000000000001", "1234567890123456789", "12345678901234567890",
+            "9007199254740993", "2.4703282292062328e-324", "1e400", "1e-400",
+            "0.000000000000000000000000000000001", "123456789012345678901234567890e-20",
+        };
+        for (String s : odd) {
+            checkParse(s);
+        }
+        Random random = new Random(16);
+        for (int i=0; i<ROUNDS; i++) {
+            checkParse(Double.toString(Double.longBitsToDouble(random.nextLong())));
+            checkParse(Float.toString(Float.intBitsToFloat(random.nextInt())));
+            checkParse(randomNumber(random));
+        }
+    }
+
+    //// helpers
+
+    private static void checkFormat(double v) {
+        String s = FloatingPointCodec.toString(v);
+        String platform = Double.toString(v);
+        assertEquals(platform, Double.valueOf(v), Double.valueOf(s));
+        assertTrue(s+" is longer than "+platform, s.length() <= platform.length());
+        assertEquals(s+" vs "+platform, platform.indexOf('E') >= 0, s.indexOf('E') >= 0);
+    }
+
+    private static void checkFormat(float v) {
+        String s = FloatingPointCodec.toString(v);
+        String platform = Float.toString(v);
+        assertEquals(platform, Float.valueOf(v), Float.valueOf(s));
+        assertTrue(s+" is longer than "+platform, s.length() <= platform.length());
+        assertEquals(s+" vs "+platform, platform.indexOf('E') >= 0, s.indexOf('E') >= 0);
+    }
+
+    // parse s from the middle of a larger array, and compare with the
+    // platform.
+    private static void checkParse(String s) {
+        char[] chars = ("<>"+s+"</>").toCharArray();
+        Double expectedDouble;
+        try {
+            expectedDouble = Double.valueOf(Double.parseDouble(s));
+        } catch (NumberFormatException e) {
+            expectedDouble = null;
+        }
+        try {
+            double d = FloatingPointCodec.parseDouble(chars, 2, s.length());
+            assertEquals(s, expectedDouble, Double.valueOf(d));
+        } catch (NumberFormatException e) {
+            if (expectedDouble != null) {
+                fail(s+" was rejected");
+            }
+        }
+        Float expectedFloat;
+        try {
+            expectedFloat = Float.valueOf(Float.parseFloat(s));
+        } catch (NumberFormatException e) {
+            expectedFloat = null;
+        }
+        try {
+            float f = FloatingPointCodec.parseFloat(chars, 2, s.length());
+            assertEquals(s, expectedFloat, Float.valueOf(f));
+        } catch (NumberFormatException e) {
+            if (expectedFloat != null) {
+                fail(s+" was rejected");
+            }
+        }
+    }
+
+    // a decimal number of up to 25 digits, with an optional sign,
+    // point and exponent.
+    private static String randomNumber(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int sign = random.nextInt(3);
+        if (sign > 0) {
+            sb.append((sign == 1) ? '-' : '+');
+        }
+        int digits = 1 + random.nextInt(25);
+        int point = random.nextInt(digits + 2);
+        for (int i=0; i<digits; i++) {
+            if (i == point) {
+                sb.append('.');
+            }
+            sb.append((char) ('0' + random.nextInt(10)));
+        }
+        if (random.nextBoolean()) {
+            sb.append(random.nextBoolean() ? 'e' : 'E');
+            int exponent = random.nextInt(700) - 350;
+            if ((exponent >= 0) && random.nextBoolean()) {
+                sb.append('+');
+            }
+            sb.append(exponent);
+        }
+        return sb.toString();
+    }
+
+}
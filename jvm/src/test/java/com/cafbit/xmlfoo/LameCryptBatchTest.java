@@ -0,0 +1,187 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cafbit.xmlfoo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cafbit.xmlfoo.annotations.Attribute;
+import com.cafbit.xmlfoo.annotations.LameCrypt;
+
+/**
+ * Checks that the serializer encrypts the @LameCrypt values of a
+ * collection's elements in batches, that values of objects nested in
+ * those elements are encrypted on their own without spoiling the
+ * batch, and that no value is encrypted twice.
+ */
+public class LameCryptBatchTest {
+
+    private static final int COUNT = 1000;
+
+    public static class Inner {
+        @Attribute("key") @LameCrypt public String key;
+        @LameCrypt public String note;
+    }
+
+    public static class Item {
+        @Attribute("code") @LameCrypt public String code;
+        @LameCrypt public int pin;
+        @LameCrypt public Long serial;
+        public String name;
+        public Inner inner;
+    }
+
+    public static class Holder {
+        public List<Item> list;
+        public Item[] array;
+    }
+
+    // a batched DES cipher that counts the values it encrypts.
+    private static class CountingCipher extends FieldCipher {
+        private final DESFieldCipher cipher = new DESFieldCipher();
+        private final boolean batched;
+        int single = 0;
+        int inBatches = 0;
+
+        CountingCipher(boolean batched) {
+            this.batched = batched;
+        }
+
+        @Override
+        public String encrypt(String plaintext) {
+            single++;
+            return cipher.encrypt(plaintext);
+        }
+
+        @Override
+        public String[] encrypt(String[] plaintexts, int count) {
+            inBatches += count;
+            return cipher.encrypt(plaintexts, count);
+        }
+
+        @Override
+        public String decrypt(String ciphertext) throws XmlFooException {
+            return cipher.decrypt(ciphertext);
+        }
+
+        @Override
+        public boolean isBatched() {
+            return batched;
+        }
+    }
+
+    private static Item item(int i) {
+        Item item = new Item();
+        item.code = "code "+i;
+        item.pin = i;
+        item.serial = Long.valueOf(1000000L*i);
+        item.name = "item "+i;
+        item.inner = new Inner();
+        item.inner.key = "key "+i;
+        item.inner.note = "note "+i;
+        return item;
+    }
+
+    @Test
+    public void nestedObjectsDoNotSpoilTheBatch() throws Exception {
+        Holder holder = new Holder();
+        holder.list = new ArrayList<Item>();
+        holder.array = new Item[COUNT];
+        for (int i=0; i<COUNT; i++) {
+            holder.list.add(item(i));
+            holder.array[i] = item(COUNT+i);
+        }
+        CountingCipher cipher = new CountingCipher(true);
+        String xml = new XmlFoo.Builder().setFieldCipher(cipher).build().serialize("holder", holder);
+
+        // the elements' own values are all batched; the nested ones
+        // are encrypted singly, and nothing is encrypted twice.
+        assertEquals(2*COUNT*3, cipher.inBatches);
+        assertEquals(2*COUNT*2, cipher.single);
+
+        // the same document as encrypting every value on its own.
+        CountingCipher unbatched = new CountingCipher(false);
+        assertEquals(new XmlFoo.Builder().setFieldCipher(unbatched).build().serialize("holder", holder), xml);
+        assertEquals(0, unbatched.inBatches);
+
+        Holder back = (Holder)new XmlFoo.Builder().setFieldCipher(cipher).build().deserialize(xml, Holder.class);
+        for (int i=0; i<COUNT; i++) {
+            assertItem(holder.list.get(i), back.list.get(i));
+            assertItem(holder.array[i], back.array[i]);
+        }
+    }
+
+    @Test
+    public void nullsAreSkipped() throws Exception {
+        Holder holder = new Holder();
+        holder.list = new ArrayList<Item>();
+        int expected = 0;
+        for (int i=0; i<COUNT; i++) {
+            Item item = null;
+            if (i % 7 != 0) {
+                item = item(i);
+                item.inner = null;
+                expected++;
+                if (i % 3 == 0) {
+                    item.code = null;
+                } else {
+                    expected++;
+                }
+                if (i % 5 == 0) {
+                    item.serial = null;
+                } else {
+                    expected++;
+                }
+            }
+            holder.list.add(item);
+        }
+        CountingCipher cipher = new CountingCipher(true);
+        String xml = new XmlFoo.Builder().setFieldCipher(cipher).build().serialize("holder", holder);
+        assertEquals(expected, cipher.inBatches);
+        assertEquals(0, cipher.single);
+        assertEquals(new XmlFoo.Builder().setFieldCipher(new CountingCipher(false)).build().serialize("holder", holder), xml);
+
+        Holder back = (Holder)new XmlFoo.Builder().setFieldCipher(cipher).build().deserialize(xml, Holder.class);
+        assertEquals(COUNT, back.list.size());
+        for (int i=0; i<COUNT; i++) {
+            if (i % 7 == 0) {
+                assertNull(back.list.get(i));
+            } else {
+                assertItem(holder.list.get(i), back.list.get(i));
+            }
+        }
+    }
+
+    private static void assertItem(Item expected, Item actual) {
+        assertEquals(expected.code, actual.code);
+        assertEquals(expected.pin, actual.pin);
+        assertEquals(expected.serial, actual.serial);
+        assertEquals(expected.name, actual.name);
+        if (expected.inner == null) {
+            assertNull(actual.inner);
+        } else {
+            assertEquals(expected.inner.key, actual.inner.key);
+            assertEquals(expected.inner.note, actual.inner.note);
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cafbit.xmlfoo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Fuzzes ScalarConverter's integer parsing against Long.parseLong()
+ * and Integer.parseInt(): the same values, and the same inputs
+ * rejected.
+ */
+public class ScalarConverterTest {
+
+    private static final int ROUNDS = 200000;
+
+    @Test
+    public void parsedIntegersMatchPlatform() {
+        String[] odd = {
+            "", "-", "+", "0", "-0", "+0", "007", "1.0", "1e3", " 1", "1 ",
+            "9223372036854775807", "9223372036854775808",
+            "-9223372036854775808", "-9223372036854775809",
+            "2147483647", "2147483648", "-2147483648", "-2147483649",
+            "99999999999999999999", "١٢٣", "12a",
+        };
+        for (String s : odd) {
+            checkParse(s);
+        }
+        Random random = new Random(14);
+        for (int i=0; i<ROUNDS; i++) {
+            checkParse(Long.toString(random.nextLong()));
+            checkParse(Integer.toString(random.nextInt()));
+            checkParse(Long.toString(random.nextLong() >> random.nextInt(64)));
+            checkParse(randomDigits(random));
+        }
+    }
+
+    //// helpers
+
+    private static void checkParse(String s) {
+        char[] chars = ("<>"+s+"</>").toCharArray();
+        Long expectedLong;
+        try {
+            expectedLong = Long.valueOf(Long.parseLong(s));
+        } catch (NumberFormatException e) {
+            expectedLong = null;
+        }
+        try {
+            long value = ScalarConverter.parseLong(chars, 2, s.length(), Long.MIN_VALUE, Long.MAX_VALUE);
+            assertEquals(s, expectedLong, Long.valueOf(value));
+        } catch (NumberFormatException e) {
+            if (expectedLong != null) {
+                fail(s+" was rejected as a long");
+            }
+        }
+        Long expectedInt;
+        try {
+            expectedInt = Long.valueOf(Integer.parseInt(s));
+        } catch (NumberFormatException e) {
+            expectedInt = null;
+        }
+        try {
+            long value = ScalarConverter.parseLong(chars, 2, s.length(), Integer.MIN_VALUE, Integer.MAX_VALUE);
+            assertEquals(s, expectedInt, Long.valueOf(value));
+        } catch (NumberFormatException e) {
+            if (expectedInt != null) {
+                fail(s+" was rejected as an int");
+            }
+        }
+    }
+
+    // up to 21 digits, with an optional sign; many overflow.
+    private static String randomDigits(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int sign = random.nextInt(3);
+        if (sign > 0) {
+            sb.append((sign == 1) ? '-' : '+');
+        }
+        int digits = 1 + random.nextInt(21);
+        for (int i=0; i<digits; i++) {
+            sb.append((char) ('0' + random.nextInt(10)));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cafbit.xmlfoo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks that size attributes only size allocations: accurate hints
+ * round-trip, and false ones neither change the result nor force
+ * large allocations.
+ */
+public class SizeHintTest {
+
+    public static class Tree {
+        public List<Tree> kids;
+        public Tree[] array;
+        public int[] numbers;
+    }
+
+    @Test
+    public void accurateHintsRoundTrip() throws Exception {
+        Tree tree = new Tree();
+        tree.kids = new ArrayList<Tree>();
+        tree.array = new Tree[3000];
+        tree.numbers = new int[5000];
+        for (int i=0; i<3000; i++) {
+            tree.kids.add(new Tree());
+            tree.array[i] = new Tree();
+        }
+        for (int i=0; i<tree.numbers.length; i++) {
+            tree.numbers[i] = i;
+        }
+        XmlFoo xmlFoo = new XmlFoo.Builder().setSizeHints(true).build();
+        String xml = xmlFoo.serialize("tree", tree);
+        Tree back = (Tree)xmlFoo.deserialize(xml, Tree.class);
+        assertEquals(3000, back.kids.size());
+        assertEquals(3000, back.array.length);
+        assertArrayEquals(tree.numbers, back.numbers);
+    }
+
+    @Test
+    public void wrongHintsAreHarmless() throws Exception {
+        Tree tree = (Tree)new XmlFoo().deserialize(
+            "<tree><array size=\"5\"><element/><element/></array>"
+            +"<numbers size=\"1\"><element>1</element><element>2</element><element>3</element></numbers>"
+            +"<kids size=\"x\"><element/></kids></tree>", Tree.class);
+        assertEquals(2, tree.array.length);
+        assertArrayEquals(new int[] { 1, 2, 3 }, tree.numbers);
+        assertEquals(1, tree.kids.size());
+    }
+
+    @Test
+    public void nestedFalseHintsAreNotTrusted() throws Exception {
+        // a few kilobytes claiming 200 nested collections of a million
+        // elements each.
+        for (String tag : new String[] { "kids", "array", "numbers" }) {
+            StringBuilder sb = new StringBuilder("<tree>");
+            int levels = tag.equals("numbers") ? 1 : 200;
+            for (int i=0; i<levels; i++) {
+                sb.append('<').append(tag).append(" size=\"1048576\">");
+                if (i < levels-1) {
+                    sb.append("<element>");
+                }
+            }
+            for (int i=levels-1; i>=0; i--) {
+                if (i < levels-1) {
+                    sb.append("</element>");
+                }
+                sb.append("</").append(tag).append('>');
+            }
+            sb.append("</tree>");
+            for (int i=0; i<100; i++) {
+                new XmlFoo().deserialize(sb.toString(), Tree.class);
+            }
+        }
+        Tree tree = (Tree)new XmlFoo().deserialize(
+            "<tree><kids size=\"1048576\"><element><kids size=\"2000000000\"/></element></kids></tree>", Tree.class);
+        assertEquals(1, tree.kids.size());
+        assertEquals(0, tree.kids.get(0).kids.size());
+        assertNull(tree.array);
+    }
+
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cafbit.xmlfoo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+/**
+ * Compares the events reported by Utf8PullParser with those of kXML,
+ * the parser Android uses, and checks the documents the UTF-8 parser
+ * deliberately rejects.
+ */
+public class Utf8PullParserTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static class Holder {
+        public String value;
+    }
+
+    @Test
+    public void sameEventsAsKxml() throws Exception {
+        String[] documents = {
+            "<a/>",
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<a x=\"1\" y='2'>text</a>",
+            "<!DOCTYPE a [<!ELEMENT a ANY>]><a><b>one</b><b>two</b></a>",
+            "<a>x &lt; y &amp;&amp; y &gt; z &quot;&apos;</a>",
+            "<a>&#65;&#x42;&#233;&#0;&#1;</a>",
+            "<a>café € 𐐀</a>",
+            "<a>one<!-- comment -->two<?pi data?>three</a>",
+            "<a><![CDATA[<not a tag> & ]]]]><![CDATA[>]]></a>",
+            "<a>]] ] ]]</a>",
+            "<a>\r\nline\rline\n</a>",
+            "<a>   <b/>  \n  <c/>\t</a>",
+            "<a><b><c><d>deep</d></c></b></a>",
+        };
+        for (String document : documents) {
+            assertEquals(document, kxmlEvents(document), utf8Events(document));
+        }
+    }
+
+    @Test
+    public void sameEventsAsKxmlForRandomDocuments() throws Exception {
+        Random random = new Random(16);
+        for (int i=0; i<2000; i++) {
+            StringBuilder sb = new StringBuilder();
+            randomElement(random, sb, 0);
+            String document = sb.toString();
+            assertEquals(document, kxmlEvents(document), utf8Events(document));
+        }
+    }
+
+    @Test
+    public void normalizesAttributeWhitespace() throws Exception {
+        assertEquals("[start a x=[a b  c], end a]",
+            utf8Events("<a x=\"a\nb\t\r\nc\"/>").toString());
+        assertEquals("[start a x=[a\nb\tc], end a]",
+            utf8Events("<a x=\"a&#10;b&#9;c\"/>").toString());
+    }
+
+    @Test
+    public void rejectsDuplicateAttributes() throws Exception {
+        assertRejected("<a x=\"1\" x=\"2\"/>");
+        assertRejected("<a x=\"1\" y=\"2\" x=\"1\"></a>");
+    }
+
+    @Test
+    public void rejectsSecondRoot() throws Exception {
+        assertRejected("<a/><b/>");
+        assertRejected("<a></a><a></a>");
+    }
+
+    @Test
+    public void rejectsTextOutsideRoot() throws Exception {
+        assertRejected("x<a/>");
+        assertRejected("<a/>x");
+    }
+
+    @Test
+    public void rejectsUnterminatedDocuments() throws Exception {
+        assertRejected("<a>");
+        assertRejected("<a><b></b>");
+        assertRejected("<a>text");
+        assertRejected("<a x=\"1");
+        assertRejected("<a><![CDATA[text</a>");
+        assertRejected("<a><!-- comment</a>");
+        assertRejected("<a>&amp</a>");
+    }
+
+    @Test
+    public void rejectsCDataEndInText() throws Exception {
+        assertRejected("<a>]]></a>");
+        assertRejected("<a>x]]>y</a>");
+        assertRejected("<a>]]]></a>");
+        // kXML agrees.
+        try {
+            kxmlEvents("<a>x]]>y</a>");
+            fail("kXML accepted \"]]>\" in text");
+        } catch (XmlPullParserException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void rejectsCDataEndAcrossBufferRefills() throws Exception {
+        for (int length=8180; length<8200; length++) {
+            StringBuilder sb = new StringBuilder("<a>");
+            for (int i=3; i<length; i++) {
+                sb.append('x');
+            }
+            assertRejected(sb.toString()+"]]></a>");
+            assertEquals(3, utf8Events(sb.toString()+"]]&gt;</a>").size());
+        }
+    }
+
+    @Test
+    public void writerAndParserAgreeOnControlCharacters() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (char c=0; c<0x20; c++) {
+            sb.append(c);
+        }
+        Holder holder = new Holder();
+        holder.value = sb.toString();
+        XmlFoo xmlFoo = new XmlFoo();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        xmlFoo.serialize("holder", holder, out, UTF8);
+        Holder back = (Holder)xmlFoo.deserialize(
+            new ByteArrayInputStream(out.toByteArray()), UTF8, Holder.class);
+        assertEquals(holder.value, back.value);
+        assertEquals(kxmlEvents(new String(out.toByteArray(), "UTF-8")),
+            utf8Events(new String(out.toByteArray(), "UTF-8")));
+    }
+
+    //// helpers
+
+    private static void randomElement(Random random, StringBuilder sb, int depth) {
+        String name = "e"+random.nextInt(4);
+        sb.append('<').append(name);
+        int attributes = random.nextInt(3);
+        for (int i=0; i<attributes; i++) {
+            sb.append(" a").append(i).append("=\"");
+            randomText(random, sb, true);
+            sb.append('"');
+        }
+        if (random.nextInt(5) == 0) {
+            sb.append("/>");
+            return;
+        }
+        sb.append('>');
+        int children = (depth < 4) ? random.nextInt(4) : 0;
+        for (int i=0; i<children; i++) {
+            if (random.nextBoolean()) {
+                randomText(random, sb, false);
+            }
+            randomElement(random, sb, depth + 1);
+        }
+        if (random.nextBoolean()) {
+            randomText(random, sb, false);
+        }
+        sb.append("</").append(name).append('>');
+    }
+
+    private static final String[] PIECES = {
+        "text", " ", "\n", "\t", "&lt;", "&gt;", "&amp;", "&quot;", "&apos;",
+        "&#0;", "&#9;", "&#x7f;", "&#233;", "]", "]]", ">",
+        "é", "中", "😀", "123", "-1.5e10",
+    };
+
+    private static void randomText(Random random, StringBuilder sb, boolean attribute) {
+        int pieces = random.nextInt(6);
+        for (int i=0; i<pieces; i++) {
+            String piece = PIECES[random.nextInt(PIECES.length)];
+            // kXML doesn't normalize whitespace in attribute values.
+            if (attribute && (piece.equals("\n") || piece.equals("\t"))) {
+                piece = " ";
+            }
+            // keep "]]>" out of the text; the parsers must reject it.
+            if (piece.equals(">") && (sb.length() > 0) && (sb.charAt(sb.length()-1) == ']')) {
+                piece = "&gt;";
+            }
+            sb.append(piece);
+        }
+    }
+
+    private static List<String> kxmlEvents(String document) throws XmlPullParserException, IOException {
+        XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+        parser.setInput(new StringReader(document));
+        return events(parser, true);
+    }
+
+    private static List<String> utf8Events(String document) throws XmlPullParserException, IOException {
+        Utf8PullParser parser = new Utf8PullParser();
+        parser.setInput(new ByteArrayInputStream(document.getBytes(UTF8)), null);
+        return events(parser, false);
+    }
+
+    // the events up to the end of the document, with whitespace-only
+    // text dropped, as Utf8PullParser does.
+    private static List<String> events(XmlPullParser parser, boolean dropWhitespace) throws XmlPullParserException, IOException {
+        List<String> events = new ArrayList<String>();
+        int eventType;
+        while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            switch (eventType) {
+            case XmlPullParser.START_TAG:
+                StringBuilder sb = new StringBuilder("start ").append(parser.getName());
+                for (int i=0; i<parser.getAttributeCount(); i++) {
+                    sb.append(' ').append(parser.getAttributeName(i))
+                        .append("=[").append(parser.getAttributeValue(i)).append(']');
+                }
+                events.add(sb.toString());
+                break;
+            case XmlPullParser.END_TAG:
+                events.add("end "+parser.getName());
+                break;
+            case XmlPullParser.TEXT:
+                if (! (dropWhitespace && isWhitespace(parser.getText()))) {
+                    events.add("text ["+parser.getText()+"]");
+                }
+                break;
+            default:
+                events.add("event "+eventType);
+                break;
+            }
+        }
+        return events;
+    }
+
+    // whitespace as Utf8PullParser sees it, whether written literally
+    // or as character references.
+    private static boolean isWhitespace(String text) {
+        for (int i=0; i<text.length(); i++) {
+            char c = text.charAt(i);
+            if ((c != ' ') && (c != '\t') && (c != '\n')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void assertRejected(String document) throws IOException {
+        try {
+            utf8Events(document);
+            fail("accepted "+document);
+        } catch (XmlPullParserException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cafbit.xmlfoo.stax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import com.cafbit.xmlfoo.Utf8Backend;
+import com.cafbit.xmlfoo.XmlBackend;
+import com.cafbit.xmlfoo.XmlFoo;
+import com.cafbit.xmlfoo.XmlFooException;
+import com.cafbit.xmlfoo.XmlPullBackend;
+import com.cafbit.xmlfoo.annotations.Attribute;
+
+/**
+ * Checks that what xmlfoo writes reads back the same with every
+ * backend, from characters and from UTF-8 bytes, and that C0 control
+ * characters, which only the XmlPull backends accept, are rejected
+ * by StaxBackend rather than misread.
+ */
+public class BackendRoundTripTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static class Holder {
+        @Attribute("a") public String attribute;
+        public String element;
+    }
+
+    private static final String[] VALUES = {
+        "plain",
+        "  leading and trailing  ",
+        "<markup> & \"quotes\" 'apostrophes' ]]>",
+        "tab\tline feed\ncarriage return\rcrlf\r\n",
+        "é 中   \u007f \u0080   �",
+        "😀 𝄞",
+    };
+
+    private static XmlBackend[] backends() {
+        return new XmlBackend[] { new XmlPullBackend(), new Utf8Backend(), new StaxBackend() };
+    }
+
+    @Test
+    public void valuesRoundTripOnEveryBackend() throws Exception {
+        for (XmlBackend backend : backends()) {
+            for (String value : VALUES) {
+                assertRoundTrip(backend, value);
+            }
+        }
+    }
+
+    @Test
+    public void controlCharactersRoundTripOnXmlPullBackends() throws Exception {
+        for (XmlBackend backend : new XmlBackend[] { new XmlPullBackend(), new Utf8Backend() }) {
+            for (char c=0; c<0x20; c++) {
+                assertRoundTrip(backend, "control "+c+" character");
+            }
+        }
+    }
+
+    @Test
+    public void controlCharactersAreRejectedByStax() throws Exception {
+        XmlFoo xmlFoo = new XmlFoo.Builder().setBackend(new StaxBackend()).build();
+        for (char c=0; c<0x20; c++) {
+            if ((c == '\t') || (c == '\n') || (c == '\r')) {
+                continue;
+            }
+            Holder holder = new Holder();
+            holder.element = "control "+c+" character";
+            String xml = xmlFoo.serialize("holder", holder);
+            try {
+                xmlFoo.deserialize(new StringReader(xml), Holder.class);
+                fail("read U+"+Integer.toHexString(c));
+            } catch (XmlFooException e) {
+                // expected
+            }
+        }
+    }
+
+    private static void assertRoundTrip(XmlBackend backend, String value) throws Exception {
+        String name = backend.getClass().getSimpleName()+" "+escape(value);
+        XmlFoo xmlFoo = new XmlFoo.Builder().setBackend(backend).build();
+        Holder holder = new Holder();
+        holder.attribute = value;
+        holder.element = value;
+
+        String xml = xmlFoo.serialize("holder", holder);
+        Holder back = (Holder)xmlFoo.deserialize(new StringReader(xml), Holder.class);
+        assertEquals(name, value, back.attribute);
+        assertEquals(name, value, back.element);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        xmlFoo.serialize("holder", holder, out, UTF8);
+        back = (Holder)xmlFoo.deserialize(new ByteArrayInputStream(out.toByteArray()), UTF8, Holder.class);
+        assertEquals(name, value, back.attribute);
+        assertEquals(name, value, back.element);
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c < 0x20) || (c > 0x7e)) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,534 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.xmlfoo.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates XmlFooCodec classes at build time.  For every class with
+ * a field carrying one of the com.cafbit.xmlfoo.annotations
+ * annotations, this processor emits a Foo_XmlFooCodec class next to
+ * it.  The generated codec reads and writes the scalar fields
+ * (primitives, Strings and enums) with plain field access and
+ * constructs instances with "new", so XmlFoo can bind those fields
+ * without scanning annotations or using reflection.  Other fields,
+ * and final fields, which generated code cannot assign, are declined
+ * and left to the runtime's generic path.
+ *
+ * Each package that gets codecs also gets an XmlFooCodecs index, so
+ * an application can register the codecs with XmlFoo.addCodecs()
+ * instead of having XmlFoo look them up by name.
+ *
+ * The tag and slot rules here must stay in step with Node.initField()
+ * and ClassDescriptor in the runtime library.
+ */
+@SupportedAnnotationTypes("com.cafbit.xmlfoo.annotations.*")
+public class CodecProcessor extends AbstractProcessor {
+
+    private static final String ANNOTATIONS = "com.cafbit.xmlfoo.annotations.";
+    private static final String CODEC_SUFFIX = "_XmlFooCodec";
+    private static final String INDEX_NAME = "XmlFooCodecs";
+
+    // the codecs generated so far, by package, awaiting their index.
+    private final Map<String, List<String>> pendingIndexes = new LinkedHashMap<String, List<String>>();
+    private final Set<String> indexedPackages = new HashSet<String>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Set<TypeElement> types = new LinkedHashSet<TypeElement>();
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.FIELD) {
+                    types.add((TypeElement) element.getEnclosingElement());
+                }
+            }
+        }
+        boolean generated = false;
+        for (TypeElement type : types) {
+            if (isCodecCandidate(type)) {
+                try {
+                    generateCodec(type);
+                    generated = true;
+                } catch (IOException e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "cannot write xmlfoo codec: "+e.getMessage(), type);
+                }
+            }
+        }
+        // the generated codecs are compiled in the next round, so the
+        // first round that generates nothing new writes the indexes.
+        if (! generated) {
+            generateIndexes();
+        }
+        // other processors may also be interested in these annotations.
+        return false;
+    }
+
+    // a codec lives in the same package as its class, so the class
+    // and its no-arg constructor only need to be non-private.
+    private boolean isCodecCandidate(TypeElement type) {
+        if (type.getKind() != ElementKind.CLASS) {
+            return false;
+        }
+        Set<Modifier> modifiers = type.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.ABSTRACT)) {
+            return false;
+        }
+        if (type.getNestingKind() == NestingKind.MEMBER) {
+            if (! modifiers.contains(Modifier.STATIC)) {
+                return false;
+            }
+            if (! isCodecCandidateEnclosure((TypeElement) type.getEnclosingElement())) {
+                return false;
+            }
+        } else if (type.getNestingKind() != NestingKind.TOP_LEVEL) {
+            return false;
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && (! constructor.getModifiers().contains(Modifier.PRIVATE))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isCodecCandidateEnclosure(TypeElement type) {
+        if (type.getModifiers().contains(Modifier.PRIVATE)) {
+            return false;
+        }
+        if (type.getNestingKind() == NestingKind.MEMBER) {
+            return isCodecCandidateEnclosure((TypeElement) type.getEnclosingElement());
+        }
+        return type.getNestingKind() == NestingKind.TOP_LEVEL;
+    }
+
+    //// field model
+
+    private enum Kind { INT, LONG, DOUBLE, FLOAT, BOOLEAN, SHORT, BYTE, CHAR, STRING, ENUM, OTHER }
+
+    private static class FieldModel implements Comparable<FieldModel> {
+        String name;
+        String tag;
+        String typeName;
+        Kind kind;
+        boolean isAttribute;
+        boolean isSingleton;
+        boolean isLameCrypt;
+        boolean isFinal;
+
+        boolean isHandled() {
+            return (kind != Kind.OTHER) && (! isSingleton) && (! isLameCrypt) && (! isFinal);
+        }
+
+        public int compareTo(FieldModel other) {
+            return this.tag.compareTo(other.tag);
+        }
+    }
+
+    // collect the fields that Class.getFields() would report and that
+    // ClassDescriptor would keep: public, non-static, non-transient,
+    // including those inherited from superclasses.  final fields are
+    // kept, since they still take a slot.
+    private List<FieldModel> collectFields(TypeElement type) {
+        List<FieldModel> fields = new ArrayList<FieldModel>();
+        TypeElement current = type;
+        while (current != null) {
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.PUBLIC)
+                        && (! modifiers.contains(Modifier.STATIC))
+                        && (! modifiers.contains(Modifier.TRANSIENT))) {
+                    fields.add(modelField(field));
+                }
+            }
+            TypeMirror superclass = current.getSuperclass();
+            if (superclass.getKind() == TypeKind.DECLARED) {
+                current = (TypeElement) ((DeclaredType) superclass).asElement();
+            } else {
+                current = null;
+            }
+        }
+        return fields;
+    }
+
+    private FieldModel modelField(VariableElement field) {
+        FieldModel model = new FieldModel();
+        model.name = field.getSimpleName().toString();
+        model.tag = model.name.toLowerCase();
+
+        String tagValue = annotationValue(field, "Tag");
+        if (tagValue != null) {
+            model.tag = tagValue;
+        }
+        if (hasAnnotation(field, "Attribute")) {
+            model.isAttribute = true;
+            String attributeName = annotationValue(field, "Attribute");
+            if ((attributeName != null) && (attributeName.length() > 0)) {
+                model.tag = attributeName;
+            }
+        }
+        if (hasAnnotation(field, "Discriminator")) {
+            model.isAttribute = true;
+            model.tag = "class";
+        }
+        model.isSingleton = hasAnnotation(field, "Singleton");
+        model.isLameCrypt = hasAnnotation(field, "LameCrypt");
+        model.isFinal = field.getModifiers().contains(Modifier.FINAL);
+
+        TypeMirror type = field.asType();
+        model.kind = kindOf(type);
+        if (model.kind == Kind.ENUM) {
+            model.typeName = ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+        }
+        return model;
+    }
+
+    private static Kind kindOf(TypeMirror type) {
+        switch (type.getKind()) {
+        case INT:     return Kind.INT;
+        case LONG:    return Kind.LONG;
+        case DOUBLE:  return Kind.DOUBLE;
+        case FLOAT:   return Kind.FLOAT;
+        case BOOLEAN: return Kind.BOOLEAN;
+        case SHORT:   return Kind.SHORT;
+        case BYTE:    return Kind.BYTE;
+        case CHAR:    return Kind.CHAR;
+        case DECLARED:
+            TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+            if (element.getQualifiedName().contentEquals("java.lang.String")) {
+                return Kind.STRING;
+            } else if (element.getKind() == ElementKind.ENUM) {
+                return Kind.ENUM;
+            }
+            return Kind.OTHER;
+        default:
+            return Kind.OTHER;
+        }
+    }
+
+    private static AnnotationMirror findAnnotation(Element element, String simpleName) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+            if (annotationType.getQualifiedName().contentEquals(ANNOTATIONS+simpleName)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasAnnotation(Element element, String simpleName) {
+        return findAnnotation(element, simpleName) != null;
+    }
+
+    private static String annotationValue(Element element, String simpleName) {
+        AnnotationMirror mirror = findAnnotation(element, simpleName);
+        if (mirror == null) {
+            return null;
+        }
+        for (java.util.Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals("value")) {
+                return (String) entry.getValue().getValue();
+            }
+        }
+        return null;
+    }
+
+    //// code generation
+
+    private void generateCodec(TypeElement type) throws IOException {
+        List<FieldModel> attributes = new ArrayList<FieldModel>();
+        List<FieldModel> elements = new ArrayList<FieldModel>();
+        for (FieldModel field : collectFields(type)) {
+            if (field.isAttribute) {
+                attributes.add(field);
+            } else {
+                elements.add(field);
+            }
+        }
+        // the slot order must match ClassDescriptor's (stable) sort.
+        Collections.sort(attributes);
+        Collections.sort(elements);
+
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+        String className = type.getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String codecName = binaryName.substring(packageName.length() == 0 ? 0 : packageName.length()+1)+CODEC_SUFFIX;
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(
+            (packageName.length() == 0 ? "" : packageName+".")+codecName, type);
+        List<String> pending = pendingIndexes.get(packageName);
+        if (pending == null) {
+            pending = new ArrayList<String>();
+            pendingIndexes.put(packageName, pending);
+        }
+        pending.add(codecName);
+        PrintWriter out = new PrintWriter(file.openWriter());
+        try {
+            if (packageName.length() > 0) {
+                out.println("package "+packageName+";");
+                out.println();
+            }
+            out.println("import com.cafbit.xmlfoo.XmlFooCodec;");
+            out.println("import com.cafbit.xmlfoo.XmlFooDeserializer;");
+            out.println("import com.cafbit.xmlfoo.XmlFooSerializer;");
+            out.println();
+            out.println("/**");
+            out.println(" * xmlfoo codec for "+className+".");
+            out.println(" * Generated by "+CodecProcessor.class.getName()+"; do not edit.");
+            out.println(" */");
+            out.println("public final class "+codecName+" extends XmlFooCodec {");
+            out.println();
+            out.println("    public "+codecName+"() {");
+            out.println("        super("+className+".class,");
+            out.println("            "+tagArray(attributes)+",");
+            out.println("            "+tagArray(elements)+");");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public Object newInstance() {");
+            out.println("        return new "+className+"();");
+            out.println("    }");
+
+            writeMethod(out, className, "writeAttribute", "XmlFooSerializer serializer, Object object, int slot", attributes, true, true);
+            writeMethod(out, className, "writeElement", "XmlFooSerializer serializer, Object object, int slot", elements, true, false);
+            writeMethod(out, className, "readAttribute", "XmlFooDeserializer deserializer, Object object, int slot, String value", attributes, false, true);
+            writeMethod(out, className, "readElement", "XmlFooDeserializer deserializer, Object object, int slot", elements, false, false);
+
+            out.println("}");
+        } finally {
+            out.close();
+        }
+    }
+
+    private void generateIndexes() {
+        for (Map.Entry<String, List<String>> entry : pendingIndexes.entrySet()) {
+            String packageName = entry.getKey();
+            if (! indexedPackages.add(packageName)) {
+                // only reachable if a later round adds codecs to a
+                // package whose index has already been written.
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "xmlfoo codecs "+entry.getValue()+" are missing from the "+INDEX_NAME+" index of package \""+packageName+"\"");
+                continue;
+            }
+            try {
+                generateIndex(packageName, entry.getValue());
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "cannot write xmlfoo codec index: "+e.getMessage());
+            }
+        }
+        pendingIndexes.clear();
+    }
+
+    private void generateIndex(String packageName, List<String> codecNames) throws IOException {
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(
+            (packageName.length() == 0 ? "" : packageName+".")+INDEX_NAME);
+        PrintWriter out = new PrintWriter(file.openWriter());
+        try {
+            if (packageName.length() > 0) {
+                out.println("package "+packageName+";");
+                out.println();
+            }
+            out.println("import com.cafbit.xmlfoo.XmlFooCodec;");
+            out.println();
+            out.println("/**");
+            out.println(" * The xmlfoo codecs generated for this package, for XmlFoo.addCodecs().");
+            out.println(" * Generated by "+CodecProcessor.class.getName()+"; do not edit.");
+            out.println(" */");
+            out.println("public final class "+INDEX_NAME+" {");
+            out.println();
+            out.println("    private "+INDEX_NAME+"() {");
+            out.println("    }");
+            out.println();
+            out.println("    public static XmlFooCodec[] codecs() {");
+            out.println("        return new XmlFooCodec[] {");
+            for (String codecName : codecNames) {
+                out.println("            new "+codecName+"(),");
+            }
+            out.println("        };");
+            out.println("    }");
+            out.println("}");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String tagArray(List<FieldModel> fields) {
+        StringBuilder sb = new StringBuilder("new String[] {");
+        for (int i=0; i<fields.size(); i++) {
+            sb.append(i == 0 ? " " : ", ");
+            sb.append(quote(fields.get(i).tag));
+        }
+        sb.append(fields.isEmpty() ? "}" : " }");
+        return sb.toString();
+    }
+
+    private static void writeMethod(PrintWriter out, String className, String method, String parameters, List<FieldModel> fields, boolean write, boolean attribute) {
+        out.println();
+        out.println("    @Override");
+        out.println("    public boolean "+method+"("+parameters+") throws Exception {");
+        boolean any = false;
+        for (FieldModel field : fields) {
+            any |= field.isHandled();
+        }
+        if (any) {
+            out.println("        "+className+" o = ("+className+") object;");
+            out.println("        switch (slot) {");
+            for (int slot=0; slot<fields.size(); slot++) {
+                FieldModel field = fields.get(slot);
+                if (! field.isHandled()) {
+                    continue;
+                }
+                out.println("        case "+slot+":");
+                if (write) {
+                    String value = attribute ? formatExpression(field, "o."+field.name) : elementExpression(field, "o."+field.name);
+                    out.println("            serializer."+method+"("+quote(field.tag)+", "+value+");");
+                } else {
+                    String value = attribute ? parseExpression(field, "value") : readExpression(field);
+                    out.println("            o."+field.name+" = "+value+";");
+                }
+                out.println("            return true;");
+            }
+            out.println("        }");
+        }
+        out.println("        return false;");
+        out.println("    }");
+    }
+
+    // an expression producing the text for a field value, or null.
+    // the text must match FieldAccessor.getText() in the runtime.
+    private static String formatExpression(FieldModel field, String value) {
+        switch (field.kind) {
+        case INT:     return "Integer.toString("+value+")";
+        case LONG:    return "Long.toString("+value+")";
+        case DOUBLE:  return "formatDouble("+value+")";
+        case FLOAT:   return "formatFloat("+value+")";
+        case BOOLEAN: return "("+value+" ? \"true\" : \"false\")";
+        case SHORT:   return "Short.toString("+value+")";
+        case BYTE:    return "Byte.toString("+value+")";
+        case CHAR:    return "String.valueOf("+value+")";
+        case STRING:  return value;
+        case ENUM:    return "(("+value+" == null) ? null : "+value+".name())";
+        default:
+            throw new IllegalStateException(field.kind.toString());
+        }
+    }
+
+    // the argument to XmlFooSerializer.writeElement(): numbers are
+    // passed as they are, for the serializer's numeric overloads.
+    private static String elementExpression(FieldModel field, String value) {
+        switch (field.kind) {
+        case INT:
+        case LONG:
+        case DOUBLE:
+        case FLOAT:
+        case SHORT:
+        case BYTE:
+            return value;
+        default:
+            return formatExpression(field, value);
+        }
+    }
+
+    // an expression reading an element into the field type, with the
+    // deserializer's typed reads for primitives.
+    private static String readExpression(FieldModel field) {
+        switch (field.kind) {
+        case INT:     return "deserializer.readInt()";
+        case LONG:    return "deserializer.readLong()";
+        case DOUBLE:  return "deserializer.readDouble()";
+        case FLOAT:   return "deserializer.readFloat()";
+        case BOOLEAN: return "deserializer.readBoolean()";
+        case SHORT:   return "deserializer.readShort()";
+        case BYTE:    return "deserializer.readByte()";
+        case CHAR:    return "deserializer.readChar()";
+        default:
+            return parseExpression(field, "deserializer.readText()");
+        }
+    }
+
+    // an expression converting attribute text (possibly null) to the
+    // field type, as FieldAccessor.setText() does in the runtime.
+    private static String parseExpression(FieldModel field, String text) {
+        switch (field.kind) {
+        case INT:     return "Integer.parseInt(requireText("+text+"))";
+        case LONG:    return "Long.parseLong(requireText("+text+"))";
+        case DOUBLE:  return "Double.parseDouble(requireText("+text+"))";
+        case FLOAT:   return "Float.parseFloat(requireText("+text+"))";
+        case BOOLEAN: return "parseBoolean(requireText("+text+"))";
+        case SHORT:   return "Short.parseShort(requireText("+text+"))";
+        case BYTE:    return "Byte.parseByte(requireText("+text+"))";
+        case CHAR:    return "parseChar(requireText("+text+"))";
+        case STRING:  return text;
+        case ENUM:    return "parseEnum("+field.typeName+".class, "+text+")";
+        default:
+            throw new IllegalStateException(field.kind.toString());
+        }
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                sb.append('\\').append(c);
+            } else if ((c < 0x20) || (c > 0x7e)) {
+                sb.append(String.format("\\u%04x", (int)c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
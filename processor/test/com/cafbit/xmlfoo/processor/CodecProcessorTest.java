@@ -0,0 +1,299 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cafbit.xmlfoo.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
+
+import com.cafbit.xmlfoo.XmlFoo;
+import com.cafbit.xmlfoo.XmlFooCodec;
+import com.cafbit.xmlfoo.XmlFooException;
+
+/**
+ * Compiles annotated fixtures with the processor, then checks that
+ * the generated codecs compile and round-trip their classes through
+ * XmlFoo the same way the runtime's generic path does.
+ */
+public class CodecProcessorTest {
+
+    private static final String[][] FIXTURES = {
+        { "fixture/Color.java",
+            "package fixture;\n"
+            +"public enum Color { RED, GREEN, BLUE }\n" },
+        { "fixture/Item.java",
+            "package fixture;\n"
+            +"import java.util.List;\n"
+            +"import com.cafbit.xmlfoo.annotations.Attribute;\n"
+            +"import com.cafbit.xmlfoo.annotations.Tag;\n"
+            +"public class Item {\n"
+            +"    @Attribute(\"id\") public int id;\n"
+            +"    @Attribute(\"name\") public String name;\n"
+            +"    @Attribute(\"c\") public Color color;\n"
+            +"    @Tag(\"n\") public long count;\n"
+            +"    public double ratio;\n"
+            +"    public float weight;\n"
+            +"    public boolean active;\n"
+            +"    public short level;\n"
+            +"    public byte flags;\n"
+            +"    public char grade;\n"
+            +"    public String note;\n"
+            +"    public Color shade;\n"
+            +"    public List<Item> children;\n"
+            +"    public static int ignoredStatic;\n"
+            +"    public transient int ignoredTransient;\n"
+            +"}\n" },
+        // final fields cannot be assigned by generated code.
+        { "fixture/Record.java",
+            "package fixture;\n"
+            +"import com.cafbit.xmlfoo.annotations.Attribute;\n"
+            +"public class Record {\n"
+            +"    @Attribute(\"id\") public final int id;\n"
+            +"    @Attribute(\"name\") public String name;\n"
+            +"    public final String code;\n"
+            +"    public int count;\n"
+            +"    public Record() {\n"
+            +"        this(0, null);\n"
+            +"    }\n"
+            +"    public Record(int id, String code) {\n"
+            +"        this.id = id;\n"
+            +"        this.code = code;\n"
+            +"    }\n"
+            +"}\n" },
+    };
+
+    private static File dir;
+    private static URLClassLoader loader;
+
+    @BeforeClass
+    public static void compileFixtures() throws Exception {
+        dir = File.createTempFile("xmlfoo-processor", "");
+        dir.delete();
+        File sources = new File(dir, "src");
+        File generated = new File(dir, "gen");
+        File classes = new File(dir, "classes");
+        generated.mkdirs();
+        classes.mkdirs();
+        List<File> files = new ArrayList<File>();
+        for (String[] fixture : FIXTURES) {
+            File file = new File(sources, fixture[0]);
+            file.getParentFile().mkdirs();
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                writer.write(fixture[1]);
+            } finally {
+                writer.close();
+            }
+            files.add(file);
+        }
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull("no system Java compiler; run the tests on a JDK", compiler);
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        try {
+            List<String> options = Arrays.asList(
+                "-classpath", classpathOf(XmlFoo.class)+File.pathSeparator+classpathOf(XmlPullParser.class),
+                "-d", classes.getPath(),
+                "-s", generated.getPath(),
+                "-encoding", "UTF-8");
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null,
+                fileManager.getJavaFileObjectsFromFiles(files));
+            task.setProcessors(Arrays.asList(new CodecProcessor()));
+            boolean success = task.call();
+            StringBuilder sb = new StringBuilder();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                sb.append(diagnostic).append('\n');
+            }
+            assertTrue("fixtures did not compile:\n"+sb, success);
+        } finally {
+            fileManager.close();
+        }
+        loader = new URLClassLoader(new URL[] { classes.toURI().toURL() }, CodecProcessorTest.class.getClassLoader());
+    }
+
+    @AfterClass
+    public static void deleteFixtures() throws IOException {
+        if (loader != null) {
+            loader.close();
+        }
+        delete(dir);
+    }
+
+    private static String classpathOf(Class<?> cls) throws Exception {
+        return new File(cls.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static XmlFooCodec[] codecs() throws Exception {
+        return (XmlFooCodec[]) loader.loadClass("fixture.XmlFooCodecs").getMethod("codecs").invoke(null);
+    }
+
+    private static XmlFooCodec codecFor(Class<?> cls) throws Exception {
+        for (XmlFooCodec codec : codecs()) {
+            if (codec.getType() == cls) {
+                return codec;
+            }
+        }
+        fail("no codec for "+cls.getName());
+        return null;
+    }
+
+    @Test
+    public void indexListsEveryCodec() throws Exception {
+        XmlFooCodec[] codecs = codecs();
+        assertEquals(2, codecs.length);
+        for (XmlFooCodec codec : codecs) {
+            assertEquals(codec.getType().getName()+"_XmlFooCodec", codec.getClass().getName());
+        }
+    }
+
+    @Test
+    public void generatedCodecRoundTrips() throws Exception {
+        Class<?> itemClass = loader.loadClass("fixture.Item");
+        @SuppressWarnings("unchecked")
+        Class<? extends Enum> colorClass = (Class<? extends Enum>) loader.loadClass("fixture.Color");
+        Object item = itemClass.newInstance();
+        set(item, "id", 42);
+        set(item, "name", "a <name> & \"more\"");
+        set(item, "color", Enum.valueOf(colorClass, "GREEN"));
+        set(item, "count", Long.MIN_VALUE);
+        set(item, "ratio", 0.1);
+        set(item, "weight", -2.5f);
+        set(item, "active", true);
+        set(item, "level", (short) -7);
+        set(item, "flags", (byte) 0x7f);
+        set(item, "grade", 'Q');
+        set(item, "note", "héllo ☃");
+        set(item, "shade", Enum.valueOf(colorClass, "BLUE"));
+        List<Object> children = new ArrayList<Object>();
+        Object child = itemClass.newInstance();
+        set(child, "id", 7);
+        children.add(child);
+        set(item, "children", children);
+
+        XmlFoo generic = new XmlFoo();
+        XmlFoo generated = new XmlFoo.Builder().addCodecs(codecs()).build();
+        String xml = generated.serialize("item", item);
+        // the generated codec writes what the runtime would.
+        assertEquals(generic.serialize("item", item), xml);
+        assertTrue(xml, xml.contains("id=\"42\""));
+        assertTrue(xml, xml.contains("<n>"));
+
+        Object back = generated.deserialize(xml, itemClass);
+        for (String name : new String[] { "id", "name", "color", "count", "ratio", "weight",
+                "active", "level", "flags", "grade", "note", "shade" }) {
+            assertEquals(name, get(item, name), get(back, name));
+        }
+        List<?> backChildren = (List<?>) get(back, "children");
+        assertEquals(1, backChildren.size());
+        assertEquals(7, get(backChildren.get(0), "id"));
+    }
+
+    @Test
+    public void generatedCodecBindsHandledFields() throws Exception {
+        Class<?> itemClass = loader.loadClass("fixture.Item");
+        XmlFooCodec codec = codecFor(itemClass);
+        Object item = codec.newInstance();
+        assertEquals(itemClass, item.getClass());
+        for (int slot=0; slot<codec.getAttributeCount(); slot++) {
+            if (codec.getAttributeTag(slot).equals("id")) {
+                assertTrue(codec.readAttribute(null, item, slot, "99"));
+            }
+        }
+        assertEquals(99, get(item, "id"));
+    }
+
+    @Test
+    public void finalFieldsAreDeclined() throws Exception {
+        Class<?> recordClass = loader.loadClass("fixture.Record");
+        XmlFooCodec codec = codecFor(recordClass);
+        Object record = recordClass.getConstructor(int.class, String.class).newInstance(5, "x");
+        set(record, "name", "five");
+        set(record, "count", 3);
+
+        // finals still take their slots, but the codec leaves them to
+        // the runtime.
+        assertEquals(2, codec.getAttributeCount());
+        assertEquals(2, codec.getElementCount());
+        for (int slot=0; slot<codec.getAttributeCount(); slot++) {
+            String tag = codec.getAttributeTag(slot);
+            assertEquals(tag, ! tag.equals("id"), codec.readAttribute(null, record, slot, "6"));
+        }
+        assertEquals(5, get(record, "id"));
+
+        XmlFoo xmlFoo = new XmlFoo.Builder().addCodecs(codecs()).build();
+        String xml = xmlFoo.serialize("record", record);
+        assertEquals(new XmlFoo().serialize("record", record), xml);
+        assertTrue(xml, xml.contains("id=\"5\""));
+        assertTrue(xml, xml.contains("<code>x</code>"));
+        // as on the generic path, final fields cannot be read back.
+        try {
+            xmlFoo.deserialize(xml, recordClass);
+            fail("bound a final field");
+        } catch (XmlFooException e) {
+            // expected
+        }
+        Object back = xmlFoo.deserialize("<record name=\"six\"><count>6</count></record>", recordClass);
+        assertEquals("six", get(back, "name"));
+        assertEquals(6, get(back, "count"));
+        assertFalse(xml.contains("six"));
+    }
+
+    private static void set(Object object, String name, Object value) throws Exception {
+        object.getClass().getField(name).set(object, value);
+    }
+
+    private static Object get(Object object, String name) throws Exception {
+        return object.getClass().getField(name).get(object);
+    }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.xmlfoo;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts fields with AES, through the platform's javax.crypto
+ * provider, and authenticates them with HMAC-SHA256.  A value's
+ * UTF-8 bytes are encrypted in CBC mode with PKCS#5 padding under a
+ * fresh random IV, an HMAC of the IV and ciphertext is appended
+ * (encrypt-then-MAC), and the whole is written as upper case hex.
+ * Since the IV differs every time, equal values do not give equal
+ * ciphertexts.
+ *
+ * The HMAC is checked, in constant time, before anything is
+ * decrypted, so a value that has been altered in any way, or was
+ * written with another key, is rejected rather than decrypted to
+ * garbage.  Every kind of failure gives the same exception message,
+ * so that a reader cannot learn which check failed.
+ *
+ * Given a single key, separate AES and HMAC keys are derived from it
+ * with HMAC-SHA256; alternatively both can be supplied.  Documents
+ * written with this cipher can only be read with the same key, and
+ * DESFieldCipher can't read them at all.
+ */
+public class AESFieldCipher extends FieldCipher {
+
+    private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int BLOCK_SIZE = 16;
+    private static final int MAC_SIZE = 32;
+
+    // labels for deriving the AES and HMAC keys from a single key.
+    private static final String ENCRYPTION_LABEL = "xmlfoo AESFieldCipher encryption";
+    private static final String AUTHENTICATION_LABEL = "xmlfoo AESFieldCipher authentication";
+
+    private static final String DECRYPT_FAILED = "Unable to decrypt a @LameCrypt value.";
+
+    private final SecretKey key;
+    private final SecretKey macKey;
+    private final SecureRandom random = new SecureRandom();
+
+    // javax.crypto ciphers and MACs are not thread-safe, and are
+    // expensive to look up, so each thread keeps its own.
+    private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>();
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>();
+
+    /**
+     * Use the supplied key, which must be 16, 24 or 32 bytes long.
+     * The AES and HMAC keys are derived from it.
+     */
+    public AESFieldCipher(byte[] key) {
+        this(toSecretKey(key));
+    }
+
+    /**
+     * Use the supplied AES key, which must be encodable, to derive the
+     * AES and HMAC keys.
+     */
+    public AESFieldCipher(SecretKey key) {
+        this(deriveKey(key, ENCRYPTION_LABEL, "AES"), deriveKey(key, AUTHENTICATION_LABEL, MAC_ALGORITHM));
+    }
+
+    /**
+     * Use separate keys for AES and for HMAC-SHA256.
+     */
+    public AESFieldCipher(SecretKey key, SecretKey macKey) {
+        if ((key == null) || (macKey == null)) {
+            throw new IllegalArgumentException("key cannot be null");
+        }
+        this.key = key;
+        this.macKey = macKey;
+        // fail now, rather than on the first field, if the platform
+        // can't use these keys.
+        try {
+            cipher().init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(new byte[BLOCK_SIZE]));
+            mac();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("AES and HmacSHA256 are not available with this key", e);
+        }
+    }
+
+    private static SecretKey toSecretKey(byte[] key) {
+        if ((key == null) || ((key.length != 16) && (key.length != 24) && (key.length != 32))) {
+            throw new IllegalArgumentException("an AES key must be 16, 24 or 32 bytes");
+        }
+        return new SecretKeySpec(key, "AES");
+    }
+
+    // derive a key of the same length as the supplied one, as the
+    // HMAC-SHA256 of a label under it.
+    private static SecretKey deriveKey(SecretKey key, String label, String algorithm) {
+        if (key == null) {
+            throw new IllegalArgumentException("key cannot be null");
+        }
+        byte[] encoded = key.getEncoded();
+        if ((encoded == null) || (encoded.length == 0) || (encoded.length > MAC_SIZE)) {
+            throw new IllegalArgumentException("cannot derive keys from this key; supply an AES key and an HMAC key instead");
+        }
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(encoded, MAC_ALGORITHM));
+            byte[] derived = mac.doFinal(label.getBytes("UTF-8"));
+            return new SecretKeySpec(derived, 0, encoded.length, algorithm);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("HmacSHA256 is not available", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private Cipher cipher() throws GeneralSecurityException {
+        Cipher cipher = ciphers.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(TRANSFORMATION);
+            ciphers.set(cipher);
+        }
+        return cipher;
+    }
+
+    private Mac mac() throws GeneralSecurityException {
+        Mac mac = macs.get();
+        if (mac == null) {
+            mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(macKey);
+            macs.set(mac);
+        }
+        return mac;
+    }
+
+    @Override
+    public String encrypt(String plaintext) throws XmlFooException {
+        try {
+            byte[] iv = new byte[BLOCK_SIZE];
+            random.nextBytes(iv);
+            Cipher cipher = cipher();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+            byte[] input = plaintext.getBytes("UTF-8");
+            int length = BLOCK_SIZE + cipher.getOutputSize(input.length);
+            byte[] bytes = new byte[length + MAC_SIZE];
+            System.arraycopy(iv, 0, bytes, 0, BLOCK_SIZE);
+            length = BLOCK_SIZE + cipher.doFinal(input, 0, input.length, bytes, BLOCK_SIZE);
+            Mac mac = mac();
+            mac.update(bytes, 0, length);
+            mac.doFinal(bytes, length);
+            if (length + MAC_SIZE < bytes.length) {
+                byte[] trimmed = new byte[length + MAC_SIZE];
+                System.arraycopy(bytes, 0, trimmed, 0, trimmed.length);
+                bytes = trimmed;
+            }
+            return Hex.encode(bytes);
+        } catch (GeneralSecurityException e) {
+            throw new XmlFooException("Unable to encrypt a @LameCrypt value.", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new XmlFooException(e);
+        }
+    }
+
+    @Override
+    public String decrypt(String ciphertext) throws XmlFooException {
+        byte[] bytes = Hex.decode(ciphertext);
+        // at least an IV, one block of padded ciphertext and the MAC.
+        int length = bytes.length - MAC_SIZE;
+        if ((length < 2*BLOCK_SIZE) || ((length % BLOCK_SIZE) != 0)) {
+            throw new XmlFooException(DECRYPT_FAILED);
+        }
+        try {
+            Mac mac = mac();
+            mac.update(bytes, 0, length);
+            if (! equalsConstantTime(mac.doFinal(), bytes, length)) {
+                throw new XmlFooException(DECRYPT_FAILED);
+            }
+            Cipher cipher = cipher();
+            cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(bytes, 0, BLOCK_SIZE));
+            byte[] plaintext = cipher.doFinal(bytes, BLOCK_SIZE, length - BLOCK_SIZE);
+            return new String(plaintext, "UTF-8");
+        } catch (GeneralSecurityException e) {
+            // with the MAC verified, only a platform failure gets here;
+            // still, say nothing that distinguishes it.
+            throw new XmlFooException(DECRYPT_FAILED);
+        } catch (UnsupportedEncodingException e) {
+            throw new XmlFooException(e);
+        }
+    }
+
+    // compare the expected MAC with the one at bytes[offset], taking
+    // the same time wherever they differ.  (MessageDigest.isEqual()
+    // only became constant-time in later platform versions.)
+    private static boolean equalsConstantTime(byte[] expected, byte[] bytes, int offset) {
+        int difference = 0;
+        for (int i=0; i<expected.length; i++) {
+            difference |= expected[i] ^ bytes[offset + i];
+        }
+        return difference == 0;
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.xmlfoo;
+
+import java.util.Arrays;
+
+/**
+ * Table-driven base64 (RFC 4648, with padding and without line
+ * breaks) for byte[] and ByteBuffer fields.
+ *
+ * The encoder works on a range of bytes at a time, writing directly
+ * into a caller's byte buffer, so Utf8XmlWriter can encode a large
+ * array in buffer-sized chunks.  The decoder is incremental: it
+ * accepts text in as many pieces as the parser delivers it and
+ * tolerates whitespace anywhere.
+ */
+class Base64 {
+
+    private static final byte[] ALPHABET = new byte[64];
+
+    // decoded value of each ASCII character, or one of these.
+    private static final byte INVALID = -1;
+    private static final byte WHITESPACE = -2;
+    private static final byte PAD = -3;
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        Arrays.fill(VALUES, INVALID);
+        for (int i=0; i<64; i++) {
+            ALPHABET[i] = (byte)alphabet.charAt(i);
+            VALUES[alphabet.charAt(i)] = (byte)i;
+        }
+        VALUES[' '] = VALUES['\t'] = VALUES['\n'] = VALUES['\r'] = WHITESPACE;
+        VALUES['='] = PAD;
+    }
+
+    /**
+     * Return the number of characters needed to encode a number of
+     * bytes.
+     */
+    public static int encodedLength(int length) {
+        return ((length + 2) / 3) * 4;
+    }
+
+    /**
+     * Encode src[srcStart..srcEnd) into dst at dstPosition, and return
+     * the new position in dst.  The input is padded as a final block
+     * if its length is not a multiple of three, so when encoding in
+     * chunks, every chunk but the last must be a multiple of three
+     * bytes long.
+     */
+    public static int encode(byte[] src, int srcStart, int srcEnd, byte[] dst, int dstPosition) {
+        int i = srcStart;
+        int p = dstPosition;
+        int wholeEnd = srcEnd - ((srcEnd - srcStart) % 3);
+        while (i < wholeEnd) {
+            int bits = ((src[i] & 0xFF) << 16) | ((src[i+1] & 0xFF) << 8) | (src[i+2] & 0xFF);
+            i += 3;
+            dst[p++] = ALPHABET[bits >>> 18];
+            dst[p++] = ALPHABET[(bits >>> 12) & 0x3F];
+            dst[p++] = ALPHABET[(bits >>> 6) & 0x3F];
+            dst[p++] = ALPHABET[bits & 0x3F];
+        }
+        int remaining = srcEnd - i;
+        if (remaining == 1) {
+            int bits = (src[i] & 0xFF) << 16;
+            dst[p++] = ALPHABET[bits >>> 18];
+            dst[p++] = ALPHABET[(bits >>> 12) & 0x3F];
+            dst[p++] = '=';
+            dst[p++] = '=';
+        } else if (remaining == 2) {
+            int bits = ((src[i] & 0xFF) << 16) | ((src[i+1] & 0xFF) << 8);
+            dst[p++] = ALPHABET[bits >>> 18];
+            dst[p++] = ALPHABET[(bits >>> 12) & 0x3F];
+            dst[p++] = ALPHABET[(bits >>> 6) & 0x3F];
+            dst[p++] = '=';
+        }
+        return p;
+    }
+
+    public static String encodeToString(byte[] src, int offset, int length) {
+        byte[] encoded = new byte[encodedLength(length)];
+        encode(src, offset, offset + length, encoded, 0);
+        char[] chars = new char[encoded.length];
+        for (int i=0; i<chars.length; i++) {
+            chars[i] = (char)encoded[i];
+        }
+        return new String(chars);
+    }
+
+    public static byte[] decode(String text) throws XmlFooException {
+        Decoder decoder = new Decoder();
+        char[] chars = text.toCharArray();
+        decoder.decode(chars, 0, chars.length);
+        return decoder.finish();
+    }
+
+    /**
+     * An incremental decoder.  Feed it text with decode(), then
+     * collect the bytes with finish().
+     */
+    public static class Decoder {
+
+        private byte[] out = new byte[64];
+        private int length = 0;
+
+        // bits of a partial 4-character quantum.
+        private int quantum = 0;
+        private int count = 0;
+        private boolean padded = false;
+
+        public void decode(char[] chars, int start, int len) throws XmlFooException {
+            ensureCapacity(length + (len / 4) * 3 + 3);
+            byte[] out = this.out;
+            int length = this.length;
+            int quantum = this.quantum;
+            int count = this.count;
+
+            int end = start + len;
+            for (int i=start; i<end; i++) {
+                char c = chars[i];
+                int value = (c < 128) ? VALUES[c] : INVALID;
+                if (value >= 0) {
+                    if (padded) {
+                        throw new XmlFooException("base64 data continues after padding.");
+                    }
+                    quantum = (quantum << 6) | value;
+                    if (++count == 4) {
+                        out[length++] = (byte)(quantum >> 16);
+                        out[length++] = (byte)(quantum >> 8);
+                        out[length++] = (byte)quantum;
+                        quantum = 0;
+                        count = 0;
+                    }
+                } else if (value == PAD) {
+                    padded = true;
+                } else if (value != WHITESPACE) {
+                    throw new XmlFooException("Invalid character in base64 data: \""+c+"\"");
+                }
+            }
+
+            this.length = length;
+            this.quantum = quantum;
+            this.count = count;
+        }
+
+        public byte[] finish() throws XmlFooException {
+            ensureCapacity(length + 2);
+            switch (count) {
+            case 0:
+                break;
+            case 2:
+                out[length++] = (byte)(quantum >> 4);
+                break;
+            case 3:
+                out[length++] = (byte)(quantum >> 10);
+                out[length++] = (byte)(quantum >> 2);
+                break;
+            default:
+                throw new XmlFooException("Truncated base64 data.");
+            }
+            if (out.length == length) {
+                return out;
+            }
+            byte[] result = new byte[length];
+            System.arraycopy(out, 0, result, 0, length);
+            return result;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > out.length) {
+                byte[] grown = new byte[Math.max(capacity, out.length*2)];
+                System.arraycopy(out, 0, grown, 0, length);
+                out = grown;
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cafbit.xmlfoo;
+
+/**
+ * DES on 64 blocks at once, in bitsliced form.
+ *
+ * The blocks are transposed so that slice j holds bit j of every
+ * block, one block per bit of the long ("lane").  DES then becomes
+ * a fixed sequence of logical operations on whole longs, which
+ * process all 64 blocks in parallel:
+ *
+ *   - IP, FP, E and P only choose which slice feeds which input, so
+ *     they cost nothing beyond indexing.
+ *   - The key is the same in every lane, so each subkey bit is
+ *     expanded to all zeros or all ones and simply XORed in.
+ *   - Each S-box is a boolean circuit over six slices, producing
+ *     four.  The circuits below are derived mechanically from the
+ *     tables in DES: the middle four input bits select one of 16
+ *     minterms, and the outer two bits select one of four rows,
+ *     each of which ORs together the 8 minterms for which that output
+ *     bit is set.  (This is larger than hand-minimized circuits, but
+ *     it is easy to check against the tables, and still much cheaper
+ *     per block than table lookups.)
+ *
+ * See DESCipher.encryptBlocks(), which transposes the blocks and
+ * supplies the key.  Results are identical to DES.encryptBlock().
+ */
+final class BitslicedDES {
+
+    public static final int LANES = 64;
+
+    private BitslicedDES() {
+    }
+
+    // DES tables as 0-based slice indexes.
+    private static final int[] IP = zeroBased(DES.IP);
+    private static final int[] FP = zeroBased(DES.FP);
+    private static final int[] E = zeroBased(DES.E);
+    private static final int[] P = zeroBased(DES.P);
+
+    private static int[] zeroBased(byte[] table) {
+        int[] indexes = new int[table.length];
+        for (int i=0; i<table.length; i++) {
+            indexes[i] = table[i] - 1;
+        }
+        return indexes;
+    }
+
+    /**
+     * Expand 16 48-bit subkeys (see DES.createSubkeys()) into the
+     * masks XORed into each round: 48 per round, each all zeros or
+     * all ones.
+     */
+    public static long[] expandSubkeys(long[] subkeys) {
+        long[] masks = new long[16*48];
+        for (int round=0; round<16; round++) {
+            for (int bit=0; bit<48; bit++) {
+                masks[round*48 + bit] = -((subkeys[round] >>> (47 - bit)) & 1L);
+            }
+        }
+        return masks;
+    }
+
+    /**
+     * Transpose a 64x64 bit matrix in place: bit (63-c) of a[r]
+     * becomes bit (63-r) of a[c].  This converts 64 blocks into 64
+     * slices, and back again.
+     */
+    public static void transpose(long[] a) {
+        long m = 0x00000000FFFFFFFFL;
+        for (int j=32; j!=0; j>>=1, m^=(m<<j)) {
+            for (int k=0; k<64; k=((k|j)+1)&~j) {
+                long t = (a[k] ^ (a[k|j] >>> j)) & m;
+                a[k] ^= t;
+                a[k|j] ^= (t << j);
+            }
+        }
+    }
+
+    /**
+     * Encrypt or decrypt the 64 slices in place, with masks from
+     * expandSubkeys().
+     */
+    public static void crypt(long[] slices, long[] masks, boolean decrypt) {
+        long[] l = new long[32];
+        long[] r = new long[32];
+        for (int i=0; i<32; i++) {
+            l[i] = slices[IP[i]];
+            r[i] = slices[IP[32+i]];
+        }
+        long[] x = new long[48];
+        long[] f = new long[32];
+        for (int i=0; i<16; i++) {
+            int key = (decrypt ? (15-i) : i) * 48;
+            for (int bit=0; bit<48; bit++) {
+                x[bit] = r[E[bit]] ^ masks[key+bit];
+            }
+            s1(x[0], x[1], x[2], x[3], x[4], x[5], f, 0);
+            s2(x[6], x[7], x[8], x[9], x[10], x[11], f, 4);
+            s3(x[12], x[13], x[14], x[15], x[16], x[17], f, 8);
+            s4(x[18], x[19], x[20], x[21], x[22], x[23], f, 12);
+            s5(x[24], x[25], x[26], x[27], x[28], x[29], f, 16);
+            s6(x[30], x[31], x[32], x[33], x[34], x[35], f, 20);
+            s7(x[36], x[37], x[38], x[39], x[40], x[41], f, 24);
+            s8(x[42], x[43], x[44], x[45], x[46], x[47], f, 28);
+            // the new right half is the old left half XOR f(r), and the
+            // old right half becomes the left half.
+            for (int bit=0; bit<32; bit++) {
+                l[bit] ^= f[P[bit]];
+            }
+            long[] swap = l;
+            l = r;
+            r = swap;
+        }
+        // the halves are swapped before the final permutation.
+        for (int i=0; i<64; i++) {
+            int j = FP[i];
+            slices[i] = (j < 32) ? r[j] : l[j-32];
+        }
+    }
+
+    //// S-boxes
+
+    // each takes the six slices of one S-box input (first bit first)
+    // and writes its four output slices to out[o..o+3].
+
+    private static void s1(long a1, long a2, long a3, long a4, long a5, long a6, long[] out, int o) {
+        long n1 = ~a1, n2 = ~a2, n3 = ~a3, n4 = ~a4, n5 = ~a5, n6 = ~a6;
+        long r0 = n1 & n6, r1 = n1 & a6, r2 = a1 & n6, r3 = a1 & a6;
+        long p0 = n2 & n3, p1 = n2 & a3, p2 = a2 & n3, p3 = a2 & a3;
+        long q0 = n4 & n5, q1 = n4 & a5, q2 = a4 & n5, q3 = a4 & a5;
+        long c0 = p0 & q0, c1 = p0 & q1, c2 = p0 & q2, c3 = p0 & q3;
+        long c4 = p1 & q0, c5 = p1 & q1, c6 = p1 & q2, c7 = p1 & q3;
+        long c8 = p2 & q0, c9 = p2 & q1, c10 = p2 & q2, c11 = p2 & q3;
+        long c12 = p3 & q0, c13 = p3 & q1, c14 = p3 & q2, c15 = p3 & q3;
+        out[o+0] = (r0 & (c0 | c2 | c5 | c6 | c7 | c9 | c11 | c13))
+            | (r1 & (c1 | c4 | c6 | c8 | c10 | c11 | c12 | c15))
+            | (r2 & (c2 | c3 | c4 | c7 | c8 | c9 | c10 | c13))
+            | (r3 & (c0 | c1 | c2 | c5 | c9 | c11 | c12 | c15));
+        out[o+1] = (r0 & (c0 | c1 | c2 | c5 | c10 | c11 | c12 | c15))
+            | (r1 & (c1 | c2 | c3 | c4 | c6 | c9 | c10 | c13))
+            | (r2 & (c0 | c2 | c4 | c5 | c8 | c9 | c11 | c14))
+            | (r3 & (c0 | c1 | c4 | c7 | c8 | c11 | c14 | c15));
+        out[o+2] = (r0 & (c0 | c4 | c5 | c6 | c8 | c9 | c10 | c15))
+            | (r1 & (c1 | c2 | c4 | c5 | c8 | c9 | c11 | c14))
+            | (r2 & (c2 | c5 | c6 | c7 | c8 | c11 | c12 | c13))
+            | (r3 & (c0 | c3 | c7 | c9 | c10 | c11 | c12 | c14));
+        out[o+3] = (r0 & (c2 | c3 | c5 | c6 | c8 | c12 | c13 | c15))
+            | (r1 & (c1 | c2 | c6 | c7 | c11 | c12 | c13 | c14))
+            | (r2 & (c1 | c4 | c7 | c8 | c10 | c11 | c12 | c14))
+            | (r3 & (c0 | c5 | c6 | c7 | c8 | c9 | c10 | c15));
+    }
+
+    private static void s2(long a1, long a2, long a3, long a4, long a5, long a6, long[] out, int o) {
+        long n1 = ~a1, n2 = ~a2, n3 = ~a3, n4 = ~a4, n5 = ~a5, n6 = ~a6;
+        long r0 = n1 & n6, r1 = n1 & a6, r2 = a1 & n6, r3 = a1 & a6;
+        long p0 = n2 & n3, p1 = n2 & a3, p2 = a2 & n3, p3 = a2 & a3;
+        long q0 = n4 & n5, q1 = n4 & a5, q2 = a4 & n5, q3 = a4 & a5;
+        long c0 = p0 & q0, c1 = p0 & q1, c2 = p0 & q2, c3 = p0 & q3;
+        long c4 = p1 & q0, c5 = p1 & q1, c6 = p1 & q2, c7 = p1 & q3;
+        long c8 = p2 & q0, c9 = p2 & q1, c10 = p2 & q2, c11 = p2 & q3;
+        long c12 = p3 & q0, c13 = p3 & q1, c14 = p3 & q2, c15 = p3 & q3;
+        out[o+0] = (r0 & (c0 | c2 | c3 | c5 | c8 | c11 | c12 | c15))
+            | (r1 & (c1 | c4 | c6 | c7 | c8 | c11 | c13 | c14))
+            | (r2 & (c1 | c3 | c4 | c6 | c9 | c10 | c12 | c15))
+            | (r3 & (c0 | c1 | c2 | c5 | c8 | c11 | c14 | c15));
+        out[o+1] = (r0 & (c0 | c3 | c4 | c7 | c9 | c11 | c12 | c14))
+            | (r1 & (c1 | c2 | c3 | c4 | c7 | c8 | c12 | c15))
+            | (r2 & (c1 | c2 | c5 | c6 | c8 | c10 | c11 | c15))
+            | (r3 & (c0 | c5 | c6 | c9 | c10 | c11 | c13 | c14));
+        out[o+2] = (r0 & (c0 | c3 | c4 | c5 | c6 | c9 | c10 | c15))
+            | (r1 & (c0 | c3 | c4 | c5 | c7 | c11 | c12 | c14))
+            | (r2 & (c1 | c2 | c3 | c4 | c11 | c13 | c14 | c15))
+            | (r3 & (c2 | c4 | c5 | c7 | c8 | c9 | c10 | c14));
+        out[o+3] = (r0 & (c0 | c1 | c5 | c6 | c8 | c9 | c11 | c14))
+            | (r1 & (c0 | c1 | c3 | c4 | c10 | c13 | c14 | c15))
+            | (r2 & (c2 | c3 | c6 | c7 | c8 | c12 | c13 | c15))
+            | (r3 & (c0 | c3 | c4 | c5 | c8 | c10 | c13 | c15));
+    }
+
+    private static void s3(long a1, long a2, long a3, long a4, long a5, long a6, long[] out, int o) {
+        long n1 = ~a1, n2 = ~a2, n3 = ~a3, n4 = ~a4, n5 = ~a5, n6 = ~a6;
+        long r0 = n1 & n6, r1 = n1 & a6, r2 = a1 & n6, r3 = a1 & a6;
+        long p0 = n2 & n3, p1 = n2 & a3, p2 = a2 & n3, p3 = a2 & a3;
+        long q0 = n4 & n5, q1 = n4 & a5, q2 = a4 & n5, q3 = a4 & a5;
+        long c0 = p0 & q0, c1 = p0 & q1, c2 = p0 & q2, c3 = p0 & q3;
+        long c4 = p1 & q0, c5 = p1 & q1, c6 = p1 & q2, c7 = p1 & q3;
+        long c8 = p2 & q0, c9 = p2 & q1, c10 = p2 & q2, c11 = p2 & q3;
+        long c12 = p3 & q0, c13 = p3 & q1, c14 = p3 & q2, c15 = p3 & q3;
+        out[o+0] = (r0 & (c0 | c2 | c3 | c6 | c9 | c10 | c12 | c15))
+            | (r1 & (c0 | c3 | c7 | c9 | c11 | c12 | c13 | c14))
+            | (r2 & (c0 | c3 | c4 | c5 | c8 | c11 | c13 | c14))
+            | (r3 & (c1 | c2 | c5 | c6 | c9 | c10 | c12 | c15));
+        out[o+1] = (r0 & (c3 | c4 | c6 | c7 | c9 | c10 | c11 | c13))
+            | (r1 & (c0 | c1 | c5 | c6 | c10 | c11 | c12 | c14))
+            | (r2 & (c0 | c1 | c2 | c5 | c11 | c12 | c14 | c15))
+            | (r3 & (c2 | c4 | c7 | c8 | c9 | c10 | c13 | c15));
+        out[o+2] = (r0 & (c0 | c3 | c4 | c5 | c6 | c11 | c12 | c14))
+            | (r1 & (c1 | c4 | c6 | c7 | c8 | c11 | c13 | c14))
+            | (r2 & (c1 | c5 | c6 | c8 | c10 | c13 | c14 | c15))
+            | (r3 & (c1 | c4 | c7 | c9 | c10 | c11 | c12 | c14));
+        out[o+3] = (r0 & (c2 | c5 | c6 | c7 | c8 | c9 | c11 | c12))
+            | (r1 & (c0 | c1 | c3 | c4 | c10 | c13 | c14 | c15))
+            | (r2 & (c0 | c3 | c5 | c6 | c8 | c9 | c12 | c15))
+            | (r3 & (c0 | c2 | c5 | c7 | c9 | c11 | c12 | c13));
+    }
+
+    private static void s4(long a1, long a2, long a3, long a4, long a5, long a6, long[] out, int o) {
+        long n1 = ~a1, n2 = ~a2, n3 = ~a3, n4 = ~a4, n5 = ~a5, n6 = ~a6;
+        long r0 = n1 & n6, r1 = n1 & a6, r2 = a1 & n6, r3 = a1 & a6;
+        long p0 = n2 & n3, p1 = n2 & a3, p2 = a2 & n3, p3 = a2 & a3;
+        long q0 = n4 & n5, q1 = n4 & a5, q2 = a4 & n5, q3 = a4 & a5;
+        long c0 = p0 & q0, c1 = p0 & q1, c2 = p0 & q2, c3 = p0 & q3;
+        long c4 = p1 & q0, c5 = p1 & q1, c6 = p1 & q2, c7 = p1 & q3;
+        long c8 = p2 & q0, c9 = p2 & q1, c10 = p2 & q2, c11 = p2 & q3;
+        long c12 = p3 & q0, c13 = p3 & q1, c14 = p3 & q2, c15 = p3 & q3;
+        out[o+0] = (r0 & (c1 | c2 | c6 | c7 | c10 | c12 | c13 | c15))
+            | (r1 & (c0 | c1 | c2 | c5 | c11 | c13 | c14 | c15))
+            | (r2 & (c0 | c2 | c4 | c5 | c7 | c8 | c11 | c14))
+            | (r3 & (c1 | c4 | c6 | c7 | c8 | c11 | c12 | c15));
+        out[o+1] = (r0 & (c0 | c1 | c2 | c5 | c11 | c13 | c14 | c15))
+            | (r1 & (c0 | c3 | c4 | c5 | c8 | c9 | c11 | c14))
+            | (r2 & (c1 | c4 | c6 | c7 | c8 | c11 | c12 | c15))
+            | (r3 & (c1 | c3 | c6 | c9 | c10 | c12 | c13 | c15));
+        out[o+2] = (r0 & (c0 | c2 | c3 | c5 | c7 | c9 | c12 | c15))
+            | (r1 & (c2 | c4 | c5 | c7 | c9 | c10 | c13 | c14))
+            | (r2 & (c0 | c1 | c5 | c6 | c8 | c10 | c11 | c13))
+            | (r3 & (c0 | c1 | c3 | c4 | c11 | c13 | c14 | c15));
+        out[o+3] = (r0 & (c0 | c1 | c3 | c6 | c8 | c11 | c12 | c15))
+            | (r1 & (c0 | c2 | c3 | c5 | c7 | c9 | c12 | c15))
+            | (r2 & (c2 | c5 | c6 | c7 | c8 | c9 | c10 | c12))
+            | (r3 & (c0 | c1 | c5 | c6 | c8 | c10 | c11 | c13));
+    }
+
+    private static void s5(long a1, long a2, long a3, long a4, long a5, long a6, long[] out, int o) {
+        long n1 = ~a1, n2 = ~a2, n3 = ~a3, n4 = ~a4, n5 = ~a5, n6 = ~a6;
+        long r0 = n1 & n6, r1 = n1 & a6, r2 = a1 & n6, r3 = a1 & a6;
+        long p0 = n2 & n3, p1 = n2 & a3, p2 = a2 & n3, p3 = a2 & a3;
+        long q0 = n4 & n5, q1 = n4 & a5, q2 = a4 & n5, q3 = a4 & a5;
+        long c0 = p0 & q0, c1 = p0 & q1, c2 = p0 & q2, c3 = p0 & q3;
+        long c4 = p1 & q0, c5 = p1 & q1, c6 = p1 & q2, c7 = p1 & q3;
+        long c8 = p2 & q0, c9 = p2 & q1, c10 = p2 & q2, c11 = p2 & q3;
+        long c12 = p3 & q0, c13 = p3 & q1, c14 = p3 & q2, c15 = p3 & q3;
+        out[o+0] = (r0 & (c1 | c5 | c6 | c8 | c11 | c12 | c14 | c15))
+            | (r1 & (c0 | c1 | c3 | c6 | c10 | c11 | c13 | c14))
+            | (r2 & (c3 | c4 | c5 | c7 | c8 | c9 | c10 | c15))
+            | (r3 & (c0 | c1 | c2 | c5 | c7 | c9 | c11 | c12));
+        out[o+1] = (r0 & (c1 | c2 | c4 | c7 | c9 | c11 | c12 | c14))
+            | (r1 & (c0 | c3 | c4 | c5 | c6 | c8 | c10 | c15))
+            | (r2 & (c0 | c5 | c6 | c8 | c10 | c11 | c12 | c15))
+            | (r3 & (c2 | c3 | c5 | c7 | c8 | c9 | c13 | c14));
+        out[o+2] = (r0 & (c0 | c4 | c5 | c6 | c7 | c10 | c11 | c14))
+            | (r1 & (c0 | c1 | c2 | c5 | c10 | c11 | c12 | c15))
+            | (r2 & (c1 | c3 | c4 | c6 | c8 | c12 | c13 | c15))
+            | (r3 & (c0 | c3 | c5 | c6 | c8 | c9 | c12 | c15));
+        out[o+3] = (r0 & (c3 | c4 | c6 | c9 | c10 | c11 | c12 | c15))
+            | (r1 & (c1 | c5 | c6 | c7 | c8 | c10 | c12 | c13))
+            | (r2 & (c2 | c3 | c5 | c6 | c8 | c9 | c11 | c13))
+            | (r3 & (c0 | c3 | c4 | c7 | c9 | c11 | c14 | c15));
+    }
+
+    private static void s6(long a1, long a2, long a3, long a4, long a5, long a6, long[] out, int o) {
+        long n1 = ~a1, n2 = ~a2, n3 = ~a3, n4 = ~a4, n5 = ~a5, n6 = ~a6;
+        long r0 = n1 & n6, r1 = n1 & a6, r2 = a1 & n6, r3 = a1 & a6;
+        long p0 = n2 & n3, p1 = n2 & a3, p2 = a2 & n3, p3 = a2 & a3;
+        long q0 = n4 & n5, q1 = n4 & a5, q2 = a4 & n5, q3 = a4 & a5;
+        long c0 = p0 & q0, c1 = p0 & q1, c2 = p0 & q2, c3 = p0 & q3;
+        long c4 = p1 & q0, c5 = p1 & q1, c6 = p1 & q2, c7 = p1 & q3;
+        long c8 = p2 & q0, c9 = p2 & q1, c10 = p2 & q2, c11 = p2 & q3;
+        long c12 = p3 & q0, c13 = p3 & q1, c14 = p3 & q2, c15 = p3 & q3;
+        out[o+0] = (r0 & (c0 | c2 | c3 | c4 | c7 | c9 | c12 | c15))
+            | (r1 & (c0 | c1 | c5 | c6 | c10 | c11 | c13 | c15))
+            | (r2 & (c0 | c1 | c2 | c5 | c6 | c11 | c13 | c14))
+            | (r3 & (c3 | c4 | c6 | c7 | c8 | c9 | c14 | c15));
+        out[o+1] = (r0 & (c0 | c3 | c6 | c9 | c11 | c12 | c13 | c14))
+            | (r1 & (c1 | c2 | c4 | c5 | c7 | c8 | c10 | c11))
+            | (r2 & (c1 | c2 | c3 | c6 | c8 | c10 | c13 | c15))
+            | (r3 & (c0 | c3 | c5 | c6 | c9 | c11 | c12 | c15));
+        out[o+2] = (r0 & (c2 | c3 | c5 | c6 | c10 | c12 | c13 | c15))
+            | (r1 & (c0 | c1 | c3 | c4 | c8 | c11 | c13 | c14))
+            | (r2 & (c1 | c2 | c4 | c7 | c8 | c11 | c14 | c15))
+            | (r3 & (c1 | c2 | c6 | c7 | c8 | c9 | c11 | c12));
+        out[o+3] = (r0 & (c1 | c3 | c4 | c9 | c10 | c13 | c14 | c15))
+            | (r1 & (c1 | c4 | c6 | c7 | c9 | c10 | c13 | c14))
+            | (r2 & (c0 | c2 | c3 | c7 | c8 | c12 | c13 | c14))
+            | (r3 & (c1 | c4 | c5 | c6 | c8 | c10 | c11 | c15));
+    }
+
+    private static void s7(long a1, long a2, long a3, long a4, long a5, long a6, long[] out, int o) {
+        long n1 = ~a1, n2 = ~a2, n3 = ~a3, n4 = ~a4, n5 = ~a5, n6 = ~a6;
+        long r0 = n1 & n6, r1 = n1 & a6, r2 = a1 & n6, r3 = a1 & a6;
+        long p0 = n2 & n3, p1 = n2 & a3, p2 = a2 & n3, p3 = a2 & a3;
+        long q0 = n4 & n5, q1 = n4 & a5, q2 = a4 & n5, q3 = a4 & a5;
+        long c0 = p0 & q0, c1 = p0 & q1, c2 = p0 & q2, c3 = p0 & q3;
+        long c4 = p1 & q0, c5 = p1 & q1, c6 = p1 & q2, c7 = p1 & q3;
+        long c8 = p2 & q0, c9 = p2 & q1, c10 = p2 & q2, c11 = p2 & q3;
+        long c12 = p3 & q0, c13 = p3 & q1, c14 = p3 & q2, c15 = p3 & q3;
+        out[o+0] = (r0 & (c1 | c3 | c4 | c6 | c7 | c9 | c10 | c13))
+            | (r1 & (c0 | c2 | c5 | c7 | c8 | c11 | c13 | c14))
+            | (r2 & (c2 | c3 | c4 | c7 | c8 | c9 | c11 | c14))
+            | (r3 & (c1 | c2 | c3 | c6 | c8 | c11 | c12 | c15));
+        out[o+1] = (r0 & (c0 | c3 | c4 | c7 | c9 | c11 | c12 | c14))
+            | (r1 & (c0 | c3 | c4 | c8 | c10 | c11 | c13 | c15))
+            | (r2 & (c1 | c3 | c4 | c6 | c7 | c9 | c10 | c13))
+            | (r3 & (c0 | c2 | c5 | c7 | c9 | c11 | c12 | c15));
+        out[o+2] = (r0 & (c1 | c2 | c3 | c4 | c8 | c11 | c13 | c14))
+            | (r1 & (c2 | c3 | c7 | c8 | c9 | c12 | c13 | c15))
+            | (r2 & (c2 | c5 | c6 | c7 | c8 | c9 | c10 | c15))
+            | (r3 & (c0 | c1 | c6 | c7 | c11 | c12 | c13 | c14));
+        out[o+3] = (r0 & (c1 | c4 | c7 | c8 | c10 | c11 | c12 | c15))
+            | (r1 & (c0 | c2 | c3 | c5 | c6 | c9 | c10 | c13))
+            | (r2 & (c0 | c2 | c3 | c5 | c6 | c9 | c13 | c14))
+            | (r3 & (c1 | c2 | c4 | c7 | c8 | c9 | c11 | c14));
+    }
+
+    private static void s8(long a1, long a2, long a3, long a4, long a5, long a6, long[] out, int o) {
+        long n1 = ~a1, n2 = ~a2, n3 = ~a3, n4 = ~a4, n5 = ~a5, n6 = ~a6;
+        long r0 = n1 & n6, r1 = n1 & a6, r2 = a1 & n6, r3 = a1 & a6;
+        long p0 = n2 & n3, p1 = n2 & a3, p2 = a2 & n3, p3 = a2 & a3;
+        long q0 = n4 & n5, q1 = n4 & a5, q2 = a4 & n5, q3 = a4 & a5;
+        long c0 = p0 & q0, c1 = p0 & q1, c2 = p0 & q2, c3 = p0 & q3;
+        long c4 = p1 & q0, c5 = p1 & q1, c6 = p1 & q2, c7 = p1 & q3;
+        long c8 = p2 & q0, c9 = p2 & q1, c10 = p2 & q2, c11 = p2 & q3;
+        long c12 = p3 & q0, c13 = p3 & q1, c14 = p3 & q2, c15 = p3 & q3;
+        out[o+0] = (r0 & (c0 | c2 | c5 | c6 | c8 | c9 | c11 | c14))
+            | (r1 & (c1 | c2 | c3 | c4 | c8 | c11 | c13 | c14))
+            | (r2 & (c1 | c4 | c5 | c6 | c10 | c11 | c12 | c15))
+            | (r3 & (c2 | c5 | c6 | c7 | c8 | c9 | c10 | c15));
+        out[o+1] = (r0 & (c0 | c3 | c4 | c5 | c11 | c12 | c14 | c15))
+            | (r1 & (c1 | c2 | c6 | c7 | c8 | c9 | c10 | c13))
+            | (r2 & (c0 | c2 | c5 | c6 | c9 | c11 | c12 | c14))
+            | (r3 & (c2 | c3 | c4 | c7 | c8 | c9 | c13 | c14));
+        out[o+2] = (r0 & (c1 | c4 | c5 | c6 | c8 | c10 | c11 | c15))
+            | (r1 & (c1 | c4 | c5 | c6 | c10 | c11 | c13 | c15))
+            | (r2 & (c0 | c1 | c6 | c7 | c9 | c10 | c12 | c13))
+            | (r3 & (c0 | c2 | c3 | c5 | c8 | c12 | c14 | c15));
+        out[o+3] = (r0 & (c0 | c5 | c6 | c7 | c9 | c10 | c12 | c15))
+            | (r1 & (c0 | c1 | c2 | c5 | c6 | c9 | c11 | c14))
+            | (r2 & (c0 | c1 | c3 | c4 | c11 | c12 | c13 | c14))
+            | (r3 & (c1 | c3 | c7 | c8 | c10 | c12 | c13 | c15));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.xmlfoo;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The binding metadata for a single class: one Node per serializable
+ * field, split into attributes and elements and sorted by tag, plus
+ * tag tables that resolve a name to its slot (its index in these
+ * arrays) for the deserializer.
+ *
+ * Descriptors are immutable once constructed, so a single instance
+ * is built per class (see XmlFoo.getClassDescriptor()) and shared
+ * by every serializer and deserializer.
+ */
+class ClassDescriptor {
+
+    public final Class<?> type;
+
+    // nodes sorted by tag, in the order they are serialized.
+    public final Node[] attributeNodes;
+    public final Node[] elementNodes;
+
+    // the @LameCrypt nodes that may be encrypted, in the order they
+    // are serialized: attributes, then elements.
+    public final Node[] lameCryptNodes;
+
+    // case-insensitive tag to slot lookups for the deserializer.
+    private final TagTable attributeTable;
+    private final TagTable elementTable;
+
+    public ClassDescriptor(Class<?> type) throws XmlFooException {
+        this.type = type;
+
+        List<Node> attributes = new ArrayList<Node>();
+        List<Node> elements = new ArrayList<Node>();
+        for (Field field : type.getFields()) {
+            int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                continue;
+            }
+            Node node = new Node(field);
+            if (node.isAttribute) {
+                attributes.add(node);
+            } else {
+                elements.add(node);
+            }
+        }
+        Collections.sort(attributes);
+        Collections.sort(elements);
+        this.attributeNodes = attributes.toArray(new Node[attributes.size()]);
+        this.elementNodes = elements.toArray(new Node[elements.size()]);
+
+        List<Node> lameCrypt = new ArrayList<Node>();
+        for (Node node : attributes) {
+            if (node.isLameCrypt && !node.isSingleton && !node.isBinary) {
+                lameCrypt.add(node);
+            }
+        }
+        for (Node node : elements) {
+            if (node.isLameCrypt && !node.isSingleton && !node.isBinary) {
+                lameCrypt.add(node);
+            }
+        }
+        this.lameCryptNodes = lameCrypt.toArray(new Node[lameCrypt.size()]);
+
+        this.attributeTable = new TagTable(tags(attributeNodes));
+        this.elementTable = new TagTable(tags(elementNodes));
+    }
+
+    static String[] tags(Node[] nodes) {
+        String[] tags = new String[nodes.length];
+        for (int i=0; i<nodes.length; i++) {
+            tags[i] = nodes[i].tag;
+        }
+        return tags;
+    }
+
+    // return the slot for the supplied XML name, or -1.
+    public int getAttributeSlot(String name) {
+        return attributeTable.get(name);
+    }
+
+    public int getElementSlot(String name) {
+        return elementTable.get(name);
+    }
+}
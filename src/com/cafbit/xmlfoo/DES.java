@@ -59,7 +59,7 @@ public class DES {
      * Input Permutation.  The message block is permuted by this
      * permutation at the beginning of the algorithm.
      */
-    private static final byte[] IP = { 
+    static final byte[] IP = { 
         58, 50, 42, 34, 26, 18, 10, 2,
         60, 52, 44, 36, 28, 20, 12, 4,
         62, 54, 46, 38, 30, 22, 14, 6,
@@ -74,7 +74,7 @@ public class DES {
      * Final Permutation.  The final result is permuted by this
      * permutation to generate the final ciphertext block.
      */
-    private static final byte[] FP = {
+    static final byte[] FP = {
         40, 8, 48, 16, 56, 24, 64, 32,
         39, 7, 47, 15, 55, 23, 63, 31,
         38, 6, 46, 14, 54, 22, 62, 30,
@@ -92,7 +92,7 @@ public class DES {
      * this permutation to its 32-bit input half-block to create an
      * "expanded" 48-bit value.
      */
-    private static final byte[] E = {
+    static final byte[] E = {
         32, 1,  2,  3,  4,  5,
         4,  5,  6,  7,  8,  9,
         8,  9,  10, 11, 12, 13,
@@ -114,7 +114,7 @@ public class DES {
      *  "The S-boxes provide the core of the security of DES - without
      *  them, the cipher would be linear, and trivially breakable."
      */
-    private static final byte[][] S = { {
+    static final byte[][] S = { {
         14, 4,  13, 1,  2,  15, 11, 8,  3,  10, 6,  12, 5,  9,  0,  7,
         0,  15, 7,  4,  14, 2,  13, 1,  10, 6,  12, 11, 9,  5,  3,  8,
         4,  1,  14, 8,  13, 6,  2,  11, 15, 12, 9,  7,  3,  10, 5,  0,
@@ -162,7 +162,7 @@ public class DES {
      * order to spread the output bits across 6 different S-boxes in
      * the next round.
      */
-    private static final byte[] P = {
+    static final byte[] P = {
         16, 7,  20, 21,
         29, 12, 28, 17,
         1,  15, 23, 26,
@@ -181,7 +181,7 @@ public class DES {
      * 56-bit algorithm, even though you provide 64 bits of key
      * material.)
      */
-    private static final byte[] PC1 = {
+    static final byte[] PC1 = {
         57, 49, 41, 33, 25, 17, 9,
         1,  58, 50, 42, 34, 26, 18,
         10, 2,  59, 51, 43, 35, 27,
@@ -197,7 +197,7 @@ public class DES {
      * permutation to transform its running 56-bit keystuff value into
      * the final set of 16 48-bit subkeys.
      */
-    private static final byte[] PC2 = {
+    static final byte[] PC2 = {
         14, 17, 11, 24, 1,  5,
         3,  28, 15, 6,  21, 10,
         23, 19, 12, 4,  26, 8,
@@ -239,7 +239,7 @@ public class DES {
      * supplied by Wikipedia, start counting with the left-most bit as
      * "1".) 
      */
-    private static long permute(byte[] table, int srcWidth, long src) {
+    static long permute(byte[] table, int srcWidth, long src) {
         long dst = 0;
         for (int i=0; i<table.length; i++) {
             int srcPos = srcWidth - table[i];
@@ -253,7 +253,7 @@ public class DES {
      * specified box number.  (Box numbers start at 1, to be consistent
      * with the literature.)
      */
-    private static byte S(int boxNumber, byte src) {
+    static byte S(int boxNumber, byte src) {
         // The first and last bits determine which 16-value row to
         // reference, so we transform the 6-bit input into an
         // absolute index based on the following bit shuffle:
@@ -269,7 +269,7 @@ public class DES {
      * starting at offset, the missing bytes are regarded as zero
      * padding.
      */
-    private static long getLongFromBytes(byte[] ba, int offset) {
+    static long getLongFromBytes(byte[] ba, int offset) {
         long l = 0;
         for (int i=0; i<8; i++) {
             byte value;
@@ -289,7 +289,7 @@ public class DES {
      * offset.  If the destination byte array does not have eight bytes
      * starting at offset, the remaining bytes are silently discarded. 
      */
-    private static void getBytesFromLong(byte[] ba, int offset, long l) {
+    static void getBytesFromLong(byte[] ba, int offset, long l) {
         for (int i=7; i>=0; i--) {
             if ((offset+i) < ba.length) {
                 ba[offset+i] = (byte) (l & 0xFF);
@@ -330,7 +330,7 @@ public class DES {
      * Generate 16 48-bit subkeys based on the provided 64-bit key
      * value.
      */
-    private static long[] createSubkeys(/* 64 bits */ long key) {
+    static long[] createSubkeys(/* 64 bits */ long key) {
         long subkeys[] = new long[16];
         
         // perform the PC1 permutation
@@ -433,21 +433,13 @@ public class DES {
      * This method uses the Electronic Code Book (ECB) mode of
      * operation -- each 64-bit block is encrypted individually with
      * the same key.
+     * 
+     * The blocks are encrypted by a DESCipher, which computes the
+     * same result as encryptBlock() much faster.  To encrypt in place,
+     * or between ByteBuffers, use a DESCipher directly.
      */
     public static byte[] encrypt(byte[] message, byte[] key) {
-        // pad the ciphertext array to the next multiple of 8.
-        int extraBytes = 0;
-        if (message.length%8 != 0) {
-            extraBytes = 8-(message.length%8);
-        }
-        byte[] ciphertext = new byte[message.length+extraBytes];
-
-        // encrypt each 8-byte (64-bit) block of the message.
-        for (int i=0; i<message.length; i+=8) {
-            encryptBlock(message, i, ciphertext, i, key, false);
-        }
-        
-        return ciphertext;
+        return new DESCipher(key).encrypt(message);
     }
 
     /**
@@ -460,14 +452,7 @@ public class DES {
      * the same key.
      */
     public static byte[] decrypt(byte[] message, byte[] key) {
-        byte[] ciphertext = new byte[message.length];
-
-        // encrypt each 8-byte (64-bit) block of the message.
-        for (int i=0; i<message.length; i+=8) {
-            encryptBlock(message, i, ciphertext, i, key, true);
-        }
-        
-        return ciphertext;
+        return new DESCipher(key).decrypt(message);
     }
     
     /**
@@ -537,34 +522,6 @@ public class DES {
     // for providing confidence in this DES implementation.
     //
     //////////////////////////////////////////////////////////////////////
-    private static int charToNibble(char c) {
-        if (c>='0' && c<='9') {
-            return (c-'0');
-        } else if (c>='a' && c<='f') {
-            return (10+c-'a');
-        } else if (c>='A' && c<='F') {
-            return (10+c-'A');
-        } else {
-            return 0;
-        }
-    }
-    private static byte[] parseBytes(String s) {
-        s = s.replace(" ", "");
-        byte[] ba = new byte[s.length()/2];
-        if (s.length()%2 > 0) { s = s+'0'; }
-        for (int i=0; i<s.length(); i+=2) {
-            ba[i/2] = (byte) (charToNibble(s.charAt(i))<<4 | charToNibble(s.charAt(i+1)));
-        }
-        return ba;
-    }
-    private static String hex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (int i=0; i<bytes.length; i++) {
-            sb.append(String.format("%02X",bytes[i]));
-        }
-        return sb.toString();
-    }
-    
     private static final byte DEFAULT_LAME_CRYPT_KEY[] = {
         (byte)0x2f, (byte)0x96, (byte)0xe3, (byte)0x89,
         (byte)0x72, (byte)0x75, (byte)0x9e, (byte)0xec,
@@ -572,33 +529,32 @@ public class DES {
         (byte)0xd5, (byte)0x5c, (byte)0x22, (byte)0x1f
     };
 
-    public static String lameEncrypt(String plaintext, byte[] key) {
+    // the default key's subkeys are only derived once.
+    static final DESCipher DEFAULT_LAME_CRYPT_CIPHER = new DESCipher(DEFAULT_LAME_CRYPT_KEY);
+    private static final DESFieldCipher DEFAULT_FIELD_CIPHER = new DESFieldCipher(DEFAULT_LAME_CRYPT_CIPHER);
+    
+    private static DESFieldCipher lameCryptCipher(byte[] key) {
         if (key == null) {
-            key = DEFAULT_LAME_CRYPT_KEY;
+            return DEFAULT_FIELD_CIPHER;
         }
-        return DES.hex(DES.encrypt(plaintext.getBytes(), key));
+        return new DESFieldCipher(new DESCipher(key));
+    }
+
+    public static String lameEncrypt(String plaintext, byte[] key) {
+        return lameCryptCipher(key).encrypt(plaintext);
+    }
+    
+    /**
+     * Encrypt the first count plaintexts, giving the same results as
+     * calling lameEncrypt() on each.  The blocks of all of the values
+     * are encrypted together, so large batches go through the
+     * bitsliced path (see DESCipher.encryptBlocks()).
+     */
+    public static String[] lameEncrypt(String[] plaintexts, int count, byte[] key) {
+        return lameCryptCipher(key).encrypt(plaintexts, count);
     }
     
     public static String lameDecrypt(String ciphertext, byte[] key) {
-        if (key == null) {
-            key = DEFAULT_LAME_CRYPT_KEY;
-        }
-        byte[] plain = DES.decrypt(parseBytes(ciphertext), key);
-        
-        // remove trailing zero bytes
-        byte[] trimmed = null;
-        for (int i=(plain.length-1); i>=0; i--) {
-            if ((trimmed == null) && (plain[i] != 0)) {
-                trimmed = new byte[i+1];
-            }
-            if (trimmed != null) {
-                trimmed[i] = plain[i];
-            }
-        }
-        if (trimmed == null) {
-            return "";
-        } else {
-            return new String(trimmed);
-        }
+        return lameCryptCipher(key).decrypt(ciphertext);
     }
 }
@@ -0,0 +1,426 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.xmlfoo;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * DES with a fixed key, for encrypting many blocks.
+ *
+ * DES.encryptBlock() derives the 16 subkeys for every block and does
+ * each permutation one bit at a time.  A DESCipher derives its
+ * subkeys once, when it is constructed, and encrypts with tables
+ * built once per process from the same definitions in DES:
+ *
+ *   - IP and FP are applied a byte at a time: for each of the eight
+ *     input byte positions, a 256-entry table holds the permuted bits
+ *     of every possible byte value, and the results are ORed
+ *     together.
+ *   - The S-boxes are combined with the P permutation into eight
+ *     64-entry "SP" tables, so the Feistel function is eight lookups
+ *     on 6-bit slices of the expanded half-block.  The E expansion is
+ *     never materialized; each slice is taken directly from the
+ *     half-block.
+ *
+ * For many blocks at once, encryptBlocks() and decryptBlocks() run 64
+ * blocks at a time through BitslicedDES.
+ *
+ * Messages can also be encrypted in place, in a byte array or between
+ * ByteBuffers (including direct and memory-mapped buffers), without
+ * allocating an output array.  The blocks are read and written as
+ * whole 64-bit words.  Messages of PARALLEL_THRESHOLD bytes or more
+ * are split into contiguous runs of blocks, which are encrypted at
+ * the same time on a shared pool of daemon threads; since ECB blocks
+ * are independent, the result is the same.
+ *
+ * Results are bit-for-bit the same as DES.encryptBlock().  Instances
+ * are immutable and may be shared between threads.
+ */
+public final class DESCipher {
+
+    // IP_TABLE[i*256 + b] is IP applied to byte value b at byte
+    // position i (0 is the most significant), and likewise for FP.
+    // (the tables are flat so each lookup is a single array access.)
+    private static final long[] IP_TABLE = byteTable(DES.IP);
+    private static final long[] FP_TABLE = byteTable(DES.FP);
+
+    // SP_TABLE[i*64 + x] is P applied to the output of S-box i+1 for
+    // the 6-bit input x, placed in that box's nibble.
+    private static final int[] SP_TABLE = new int[8*64];
+    static {
+        for (int box=0; box<8; box++) {
+            for (int x=0; x<64; x++) {
+                int s = DES.S(box+1, (byte)x);
+                SP_TABLE[box*64 + x] = (int) DES.permute(DES.P, 32, (s << (28 - 4*box)) & 0xFFFFFFFFL);
+            }
+        }
+    }
+
+    private static long[] byteTable(byte[] permutation) {
+        long[] table = new long[8*256];
+        for (int i=0; i<8; i++) {
+            for (int b=0; b<256; b++) {
+                table[i*256 + b] = DES.permute(permutation, 64, ((long)b) << (56 - 8*i));
+            }
+        }
+        return table;
+    }
+
+    // below this many blocks, the table-driven path is faster than
+    // transposing a mostly empty batch.
+    private static final int MIN_BITSLICED_BLOCKS = 32;
+
+    // messages are read from buffers this many blocks at a time.
+    private static final int CHUNK_BLOCKS = 1024;
+
+    // messages of at least this many bytes are encrypted in parallel,
+    // in parts of at least PARALLEL_PART_SIZE bytes.
+    static final int PARALLEL_THRESHOLD = 256*1024;
+    private static final int PARALLEL_PART_SIZE = 64*1024;
+
+    // shared by every cipher, and created on first use.
+    private static ExecutorService executor = null;
+    private static int parallelism = 0;
+
+    // the 16 subkeys, each split into the eight 6-bit slices that are
+    // mixed into the S-box inputs: round r, box i is at [r*8 + i].
+    private final byte[] subkeys = new byte[16*8];
+
+    private final long[] schedule;
+    // the subkeys as BitslicedDES masks, built on first use.  (two
+    // threads may race to build them; the results are identical.)
+    private volatile long[] bitslicedMasks;
+
+    /**
+     * Create a cipher with the supplied 64-bit key.
+     */
+    public DESCipher(long key) {
+        schedule = DES.createSubkeys(key);
+        for (int round=0; round<16; round++) {
+            for (int box=0; box<8; box++) {
+                subkeys[round*8 + box] = (byte) ((schedule[round] >>> (42 - 6*box)) & 0x3F);
+            }
+        }
+    }
+
+    /**
+     * Create a cipher with a key taken from the first eight bytes of
+     * the supplied array (missing bytes are zero), as DES.encrypt()
+     * does.
+     */
+    public DESCipher(byte[] key) {
+        this(DES.getLongFromBytes(key, 0));
+    }
+
+    public long encryptBlock(long m) {
+        return cryptBlock(m, false);
+    }
+
+    public long decryptBlock(long c) {
+        return cryptBlock(c, true);
+    }
+
+    private long cryptBlock(long m, boolean decrypt) {
+        long ip = permute(IP_TABLE, m);
+        int l = (int) (ip>>>32);
+        int r = (int) ip;
+        for (int i=0; i<16; i++) {
+            int previous_l = l;
+            l = r;
+            r = previous_l ^ feistel(r, decrypt ? (15-i) : i);
+        }
+        // the halves are swapped before the final permutation.
+        return permute(FP_TABLE, (r&0xFFFFFFFFL)<<32 | (l&0xFFFFFFFFL));
+    }
+
+    private static long permute(long[] table, long src) {
+        return table[(int) (src>>>56)]
+            | table[256 + ((int) (src>>>48) & 0xFF)]
+            | table[512 + ((int) (src>>>40) & 0xFF)]
+            | table[768 + ((int) (src>>>32) & 0xFF)]
+            | table[1024 + ((int) (src>>>24) & 0xFF)]
+            | table[1280 + ((int) (src>>>16) & 0xFF)]
+            | table[1536 + ((int) (src>>>8) & 0xFF)]
+            | table[1792 + ((int) src & 0xFF)];
+    }
+
+    private int feistel(int r, int round) {
+        // E expands the half-block into eight overlapping 6-bit
+        // slices: bits 32,1..5 feed S-box 1, bits 4..9 S-box 2, and
+        // so on around to bits 28..32,1 for S-box 8 (counting from
+        // the left, as in DES).  wrapping the half-block in bit 32
+        // and bit 1 gives a 34-bit string in which slice i starts
+        // 4*i bits from the top.
+        long w = ((r & 1L) << 33) | ((r & 0xFFFFFFFFL) << 1) | ((r >>> 31) & 1L);
+        byte[] k = subkeys;
+        int base = round*8;
+        int[] sp = SP_TABLE;
+        return sp[((int) (w>>>28) & 0x3F) ^ k[base]]
+            | sp[64 + (((int) (w>>>24) & 0x3F) ^ k[base+1])]
+            | sp[128 + (((int) (w>>>20) & 0x3F) ^ k[base+2])]
+            | sp[192 + (((int) (w>>>16) & 0x3F) ^ k[base+3])]
+            | sp[256 + (((int) (w>>>12) & 0x3F) ^ k[base+4])]
+            | sp[320 + (((int) (w>>>8) & 0x3F) ^ k[base+5])]
+            | sp[384 + (((int) (w>>>4) & 0x3F) ^ k[base+6])]
+            | sp[448 + (((int) w & 0x3F) ^ k[base+7])];
+    }
+
+    /**
+     * Encrypt count independent blocks of blocks[], starting at
+     * offset, in place.  This gives the same result as calling
+     * encryptBlock() on each, but batches of 64 are encrypted
+     * together in bitsliced form.
+     */
+    public void encryptBlocks(long[] blocks, int offset, int count) {
+        cryptBlocks(blocks, offset, count, false);
+    }
+
+    public void decryptBlocks(long[] blocks, int offset, int count) {
+        cryptBlocks(blocks, offset, count, true);
+    }
+
+    private void cryptBlocks(long[] blocks, int offset, int count, boolean decrypt) {
+        if ((offset < 0) || (count < 0) || (offset + count > blocks.length)) {
+            throw new IndexOutOfBoundsException();
+        }
+        int end = offset + count;
+        if (count >= MIN_BITSLICED_BLOCKS) {
+            long[] masks = bitslicedMasks;
+            if (masks == null) {
+                masks = bitslicedMasks = BitslicedDES.expandSubkeys(schedule);
+            }
+            long[] slices = new long[BitslicedDES.LANES];
+            while (end - offset >= MIN_BITSLICED_BLOCKS) {
+                // unused lanes of a final partial batch are left zero,
+                // and their results discarded.
+                int n = Math.min(end - offset, BitslicedDES.LANES);
+                System.arraycopy(blocks, offset, slices, 0, n);
+                for (int i=n; i<BitslicedDES.LANES; i++) {
+                    slices[i] = 0;
+                }
+                BitslicedDES.transpose(slices);
+                BitslicedDES.crypt(slices, masks, decrypt);
+                BitslicedDES.transpose(slices);
+                System.arraycopy(slices, 0, blocks, offset, n);
+                offset += n;
+            }
+        }
+        for (; offset<end; offset++) {
+            blocks[offset] = cryptBlock(blocks[offset], decrypt);
+        }
+    }
+
+    /**
+     * Encrypt the supplied message in ECB mode, padding it with zeros
+     * to a multiple of 8 bytes.  See DES.encrypt().
+     */
+    public byte[] encrypt(byte[] message) {
+        int extraBytes = 0;
+        if (message.length%8 != 0) {
+            extraBytes = 8-(message.length%8);
+        }
+        byte[] ciphertext = new byte[message.length+extraBytes];
+        System.arraycopy(message, 0, ciphertext, 0, message.length);
+        encrypt(ciphertext, 0, ciphertext.length);
+        return ciphertext;
+    }
+
+    /**
+     * Decrypt the supplied ciphertext in ECB mode.  A trailing partial
+     * block is treated as in DES.decrypt().
+     */
+    public byte[] decrypt(byte[] ciphertext) {
+        int length = ciphertext.length - (ciphertext.length%8);
+        byte[] message = new byte[ciphertext.length];
+        System.arraycopy(ciphertext, 0, message, 0, length);
+        decrypt(message, 0, length);
+        if (length < ciphertext.length) {
+            DES.getBytesFromLong(message, length, decryptBlock(DES.getLongFromBytes(ciphertext, length)));
+        }
+        return message;
+    }
+
+    /**
+     * Encrypt length bytes of buffer, starting at offset, in place in
+     * ECB mode.  The length must be a multiple of 8.
+     */
+    public void encrypt(byte[] buffer, int offset, int length) {
+        crypt(buffer, offset, length, false);
+    }
+
+    public void decrypt(byte[] buffer, int offset, int length) {
+        crypt(buffer, offset, length, true);
+    }
+
+    /**
+     * Encrypt the remaining bytes of src into dst in ECB mode, and
+     * advance the position of each past them.  The number of bytes
+     * must be a multiple of 8, and dst must have room for them.  To
+     * encrypt in place, pass the same buffer as src and dst; otherwise
+     * the two must not share any storage.  The byte order of the
+     * buffers does not matter.
+     */
+    public void encrypt(ByteBuffer src, ByteBuffer dst) {
+        crypt(src, dst, false);
+    }
+
+    public void decrypt(ByteBuffer src, ByteBuffer dst) {
+        crypt(src, dst, true);
+    }
+
+    private void crypt(byte[] buffer, int offset, int length, boolean decrypt) {
+        if ((offset < 0) || (length < 0) || (offset + length > buffer.length)) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (length%8 != 0) {
+            throw new IllegalArgumentException("length must be a multiple of 8");
+        }
+        ByteBuffer bb = ByteBuffer.wrap(buffer);
+        cryptWords(bb, offset, bb, offset, length/8, decrypt);
+    }
+
+    private void crypt(ByteBuffer src, ByteBuffer dst, boolean decrypt) {
+        int length = src.remaining();
+        if (length%8 != 0) {
+            throw new IllegalArgumentException("length must be a multiple of 8");
+        }
+        if (dst.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        if (dst.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        // work on duplicates, so the callers' byte order and marks
+        // are left alone.
+        ByteBuffer in = src.duplicate().order(ByteOrder.BIG_ENDIAN);
+        ByteBuffer out = (dst == src) ? in : dst.duplicate().order(ByteOrder.BIG_ENDIAN);
+        cryptWords(in, src.position(), out, dst.position(), length/8, decrypt);
+        src.position(src.position() + length);
+        if (dst != src) {
+            dst.position(dst.position() + length);
+        }
+    }
+
+    // encrypt count blocks read at srcIndex into dstIndex, splitting
+    // large messages across the executor's threads.  the calling
+    // thread encrypts the first part itself.
+    private void cryptWords(ByteBuffer src, int srcIndex, ByteBuffer dst, int dstIndex, int count, final boolean decrypt) {
+        int parts = 1;
+        if (count >= PARALLEL_THRESHOLD/8) {
+            parts = Math.min(parallelism(), count / (PARALLEL_PART_SIZE/8));
+        }
+        if (parts <= 1) {
+            cryptWordsInline(src, srcIndex, dst, dstIndex, count, decrypt);
+            return;
+        }
+        int partBlocks = (count + parts - 1) / parts;
+        ExecutorService executor = executor();
+        Future<?>[] futures = new Future<?>[parts-1];
+        for (int part=1; part<parts; part++) {
+            final int start = part * partBlocks;
+            final int n = Math.min(partBlocks, count - start);
+            final ByteBuffer in = src.duplicate().order(ByteOrder.BIG_ENDIAN);
+            final ByteBuffer out = (dst == src) ? in : dst.duplicate().order(ByteOrder.BIG_ENDIAN);
+            final int inIndex = srcIndex + 8*start;
+            final int outIndex = dstIndex + 8*start;
+            futures[part-1] = executor.submit(new Runnable() {
+                public void run() {
+                    cryptWordsInline(in, inIndex, out, outIndex, n, decrypt);
+                }
+            });
+        }
+        cryptWordsInline(src, srcIndex, dst, dstIndex, partBlocks, decrypt);
+        // the other parts must finish before returning, even if this
+        // thread is interrupted.
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException)cause;
+                    }
+                    throw (Error)cause;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void cryptWordsInline(ByteBuffer src, int srcIndex, ByteBuffer dst, int dstIndex, int count, boolean decrypt) {
+        long[] blocks = new long[Math.min(count, CHUNK_BLOCKS)];
+        while (count > 0) {
+            int n = Math.min(count, blocks.length);
+            for (int i=0; i<n; i++) {
+                blocks[i] = src.getLong(srcIndex + 8*i);
+            }
+            cryptBlocks(blocks, 0, n, decrypt);
+            for (int i=0; i<n; i++) {
+                dst.putLong(dstIndex + 8*i, blocks[i]);
+            }
+            srcIndex += 8*n;
+            dstIndex += 8*n;
+            count -= n;
+        }
+    }
+
+    private static synchronized int parallelism() {
+        if (parallelism == 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        return parallelism;
+    }
+
+    // split large messages into this many parts, whatever the number
+    // of processors, so tests can exercise the parallel path on any
+    // machine.
+    static synchronized void setParallelism(int parts) {
+        parallelism = parts;
+    }
+
+    private static synchronized ExecutorService executor() {
+        if (executor == null) {
+            // daemon threads, so an idle pool never keeps the process
+            // alive.  the caller does one part itself, so one thread
+            // fewer than the number of processors is enough.
+            executor = Executors.newFixedThreadPool(Math.max(1, parallelism() - 1), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "xmlfoo-des");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.xmlfoo;
+
+import java.io.IOException;
+
+/**
+ * Encrypts fields with DES in ECB mode, as xmlfoo always has.  A
+ * value's bytes (in the platform's default charset) are padded with
+ * zeros to a multiple of 8 bytes, and written as upper case hex;
+ * decryption strips the trailing zeros again.  The no-argument
+ * constructor uses the key built into xmlfoo, so documents written by
+ * earlier versions can still be read.
+ *
+ * Anyone with a copy of xmlfoo has the built-in key, and DES is weak
+ * in any case, so this only obscures values.  Use AESFieldCipher with
+ * a secret key to protect them.
+ *
+ * Collections of objects are encrypted in batches, which lets
+ * DESCipher encrypt their blocks 64 at a time.  The serializer's
+ * ciphertext is written as hex straight into its output buffer, and
+ * the deserializer's is decrypted straight from the parser's
+ * characters into a per-thread buffer, so reading a value allocates
+ * only its String.
+ */
+public class DESFieldCipher extends FieldCipher {
+
+    // whether the platform charset encodes ASCII as itself, in which
+    // case ASCII values are packed into blocks without encoding them.
+    private static final boolean ASCII_CHARSET = isAsciiCharset();
+
+    // decrypted values up to this size are decoded into a per-thread
+    // buffer; longer ones get a buffer of their own.
+    private static final int BUFFER_SIZE = 1024;
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private final DESCipher cipher;
+
+    /**
+     * Use the built-in key.
+     */
+    public DESFieldCipher() {
+        this(DES.DEFAULT_LAME_CRYPT_CIPHER);
+    }
+
+    /**
+     * Use the first eight bytes of the supplied key.
+     */
+    public DESFieldCipher(byte[] key) {
+        this(new DESCipher(checkKey(key)));
+    }
+
+    DESFieldCipher(DESCipher cipher) {
+        this.cipher = cipher;
+    }
+
+    private static byte[] checkKey(byte[] key) {
+        if ((key == null) || (key.length < 8)) {
+            throw new IllegalArgumentException("a DES key must be 8 bytes");
+        }
+        return key;
+    }
+
+    private static boolean isAsciiCharset() {
+        char[] chars = new char[128];
+        for (int i=0; i<128; i++) {
+            chars[i] = (char)i;
+        }
+        byte[] bytes = new String(chars).getBytes();
+        if (bytes.length != 128) {
+            return false;
+        }
+        for (int i=0; i<128; i++) {
+            if (bytes[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // return the bytes to encrypt, or null if the value's chars can
+    // be used as they are.
+    private static byte[] encode(String plaintext) {
+        if (ASCII_CHARSET) {
+            int i = 0;
+            while ((i < plaintext.length()) && (plaintext.charAt(i) < 0x80)) {
+                i++;
+            }
+            if (i == plaintext.length()) {
+                return null;
+            }
+        }
+        return plaintext.getBytes();
+    }
+
+    // the block at offset of a value, zero padded: from its bytes, or
+    // from its chars if bytes is null.
+    private static long block(String plaintext, byte[] bytes, int offset) {
+        if (bytes != null) {
+            return DES.getLongFromBytes(bytes, offset);
+        }
+        int end = Math.min(offset + 8, plaintext.length());
+        long block = 0;
+        for (int i=offset; i<end; i++) {
+            block = (block << 8) | plaintext.charAt(i);
+        }
+        return block << (8 * (offset + 8 - end));
+    }
+
+    @Override
+    public String encrypt(String plaintext) {
+        byte[] bytes = encode(plaintext);
+        int length = (bytes == null) ? plaintext.length() : bytes.length;
+        char[] chars = new char[(length + 7) / 8 * 16];
+        int position = 0;
+        for (int i=0; i<length; i+=8) {
+            position = Hex.encode(cipher.encryptBlock(block(plaintext, bytes, i)), chars, position);
+        }
+        return new String(chars);
+    }
+
+    @Override
+    void writeText(Utf8XmlWriter xw, String plaintext) throws IOException {
+        xw.beginText();
+        writeBlocks(xw, plaintext);
+    }
+
+    @Override
+    void writeAttribute(Utf8XmlWriter xw, byte[] attributeNameBytes, String plaintext) throws IOException {
+        xw.beginAttribute(attributeNameBytes);
+        writeBlocks(xw, plaintext);
+        xw.endAttribute();
+    }
+
+    private void writeBlocks(Utf8XmlWriter xw, String plaintext) throws IOException {
+        byte[] bytes = encode(plaintext);
+        int length = (bytes == null) ? plaintext.length() : bytes.length;
+        for (int i=0; i<length; i+=8) {
+            xw.hexWord(cipher.encryptBlock(block(plaintext, bytes, i)));
+        }
+    }
+
+    /**
+     * Encrypt the first count plaintexts, giving the same results as
+     * calling encrypt() on each.  The blocks of all of the values are
+     * encrypted together, so large batches go through the bitsliced
+     * path (see DESCipher.encryptBlocks()).
+     */
+    @Override
+    public String[] encrypt(String[] plaintexts, int count) {
+        int[] ends = new int[count];
+        long[] blocks = encryptBlocks(plaintexts, count, ends);
+        String[] ciphertexts = new String[count];
+        int start = 0;
+        for (int i=0; i<count; i++) {
+            char[] chars = new char[16 * (ends[i] - start)];
+            int position = 0;
+            for (int block=start; block<ends[i]; block++) {
+                position = Hex.encode(blocks[block], chars, position);
+            }
+            ciphertexts[i] = new String(chars);
+            start = ends[i];
+        }
+        return ciphertexts;
+    }
+
+    @Override
+    public boolean isBatched() {
+        return true;
+    }
+
+    @Override
+    Ciphertexts encryptBatch(String[] plaintexts, int count) {
+        int[] ends = new int[count];
+        return new BlockCiphertexts(encryptBlocks(plaintexts, count, ends), ends);
+    }
+
+    // encrypt the blocks of every value together.  value i's blocks
+    // end at ends[i].
+    private long[] encryptBlocks(String[] plaintexts, int count, int[] ends) {
+        byte[][] encoded = new byte[count][];
+        int blockCount = 0;
+        for (int i=0; i<count; i++) {
+            encoded[i] = encode(plaintexts[i]);
+            int length = (encoded[i] == null) ? plaintexts[i].length() : encoded[i].length;
+            blockCount += (length + 7) / 8;
+            ends[i] = blockCount;
+        }
+        long[] blocks = new long[blockCount];
+        int block = 0;
+        for (int i=0; i<count; i++) {
+            for (int offset=0; block<ends[i]; offset+=8) {
+                blocks[block++] = block(plaintexts[i], encoded[i], offset);
+            }
+        }
+        cipher.encryptBlocks(blocks, 0, blockCount);
+        return blocks;
+    }
+
+    private static class BlockCiphertexts extends Ciphertexts {
+        private final long[] blocks;
+        private final int[] ends;
+
+        BlockCiphertexts(long[] blocks, int[] ends) {
+            this.blocks = blocks;
+            this.ends = ends;
+        }
+
+        void writeText(Utf8XmlWriter xw, int index) throws IOException {
+            xw.beginText();
+            writeBlocks(xw, index);
+        }
+
+        void writeAttribute(Utf8XmlWriter xw, byte[] attributeNameBytes, int index) throws IOException {
+            xw.beginAttribute(attributeNameBytes);
+            writeBlocks(xw, index);
+            xw.endAttribute();
+        }
+
+        private void writeBlocks(Utf8XmlWriter xw, int index) throws IOException {
+            for (int block=(index == 0) ? 0 : ends[index-1]; block<ends[index]; block++) {
+                xw.hexWord(blocks[block]);
+            }
+        }
+    }
+
+    @Override
+    public String decrypt(String ciphertext) {
+        char[] chars = ciphertext.toCharArray();
+        return decrypt(chars, 0, chars.length);
+    }
+
+    // hex digits are decrypted a block at a time as they are read.
+    // spaces are skipped, and a trailing partial block is dropped, as
+    // it always has been.
+    @Override
+    String decrypt(char[] chars, int start, int length) {
+        byte[] buffer = BUFFERS.get();
+        if (length/2 > buffer.length) {
+            buffer = new byte[length/2];
+        }
+        int position = 0;
+        long block = 0;
+        int digits = 0;
+        for (int i=start, end=start+length; i<end; i++) {
+            int nibble = Hex.value(chars[i]);
+            if (nibble < 0) {
+                continue;
+            }
+            block = (block << 4) | nibble;
+            if (++digits == 16) {
+                long plain = cipher.decryptBlock(block);
+                for (int j=7; j>=0; j--) {
+                    buffer[position+j] = (byte)plain;
+                    plain >>>= 8;
+                }
+                position += 8;
+                block = 0;
+                digits = 0;
+            }
+        }
+        // remove trailing zero bytes
+        while ((position > 0) && (buffer[position-1] == 0)) {
+            position--;
+        }
+        if (position == 0) {
+            return "";
+        }
+        return new String(buffer, 0, position);
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.xmlfoo;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Reads and writes a single field.  An accessor is built once per
+ * field and cached on its Node.  Primitive fields get a specialized
+ * accessor whose getText()/setText() go through the typed
+ * Field.getInt()/setInt() (etc.) methods, so their values are never
+ * boxed on the way to or from the XML text.
+ */
+abstract class FieldAccessor {
+
+    protected final Field field;
+
+    protected FieldAccessor(Field field) {
+        this.field = field;
+        // skip the access check on every get and set.  final fields
+        // are left alone, since making them accessible would also
+        // make them writable: binding to one must keep failing with
+        // IllegalAccessException rather than overwrite it (or, for a
+        // compile-time constant, silently drop the value).
+        if (! Modifier.isFinal(field.getModifiers())) {
+            try {
+                field.setAccessible(true);
+            } catch (SecurityException e) {
+                // the field is public anyway; we just pay for the check.
+            }
+        }
+    }
+
+    public static FieldAccessor create(Field field) {
+        Class<?> type = field.getType();
+        if (! type.isPrimitive()) {
+            return new ObjectAccessor(field);
+        } else if (type.equals(int.class)) {
+            return new IntAccessor(field);
+        } else if (type.equals(long.class)) {
+            return new LongAccessor(field);
+        } else if (type.equals(double.class)) {
+            return new DoubleAccessor(field);
+        } else if (type.equals(float.class)) {
+            return new FloatAccessor(field);
+        } else if (type.equals(boolean.class)) {
+            return new BooleanAccessor(field);
+        } else if (type.equals(short.class)) {
+            return new ShortAccessor(field);
+        } else if (type.equals(byte.class)) {
+            return new ByteAccessor(field);
+        } else {
+            return new CharAccessor(field);
+        }
+    }
+
+    public Object get(Object object) throws IllegalAccessException {
+        return field.get(object);
+    }
+
+    public void set(Object object, Object value) throws IllegalAccessException {
+        field.set(object, value);
+    }
+
+    /**
+     * Return the text form of a primitive field's value.
+     */
+    public abstract String getText(Object object) throws IllegalAccessException;
+
+    /**
+     * Write a primitive field's value as text.  Numeric fields write
+     * their digits straight into the writer's buffer.
+     */
+    public void writeText(Utf8XmlWriter xw, Object object) throws IllegalAccessException, IOException {
+        xw.text(getText(object));
+    }
+
+    /**
+     * Parse the supplied text and store it into a primitive field.
+     */
+    public abstract void setText(Object object, String text) throws IllegalAccessException, XmlFooException;
+
+    //// implementations
+
+    private static class ObjectAccessor extends FieldAccessor {
+        ObjectAccessor(Field field) { super(field); }
+        public String getText(Object object) throws IllegalAccessException {
+            throw new IllegalStateException("not a primitive field: "+field);
+        }
+        public void setText(Object object, String text) {
+            throw new IllegalStateException("not a primitive field: "+field);
+        }
+    }
+
+    private static class IntAccessor extends FieldAccessor {
+        IntAccessor(Field field) { super(field); }
+        public void writeText(Utf8XmlWriter xw, Object object) throws IllegalAccessException, IOException {
+            xw.text(field.getInt(object));
+        }
+        public String getText(Object object) throws IllegalAccessException {
+            return Integer.toString(field.getInt(object));
+        }
+        public void setText(Object object, String text) throws IllegalAccessException {
+            field.setInt(object, Integer.parseInt(text));
+        }
+    }
+
+    private static class LongAccessor extends FieldAccessor {
+        LongAccessor(Field field) { super(field); }
+        public void writeText(Utf8XmlWriter xw, Object object) throws IllegalAccessException, IOException {
+            xw.text(field.getLong(object));
+        }
+        public String getText(Object object) throws IllegalAccessException {
+            return Long.toString(field.getLong(object));
+        }
+        public void setText(Object object, String text) throws IllegalAccessException {
+            field.setLong(object, Long.parseLong(text));
+        }
+    }
+
+    private static class DoubleAccessor extends FieldAccessor {
+        DoubleAccessor(Field field) { super(field); }
+        public void writeText(Utf8XmlWriter xw, Object object) throws IllegalAccessException, IOException {
+            xw.text(field.getDouble(object));
+        }
+        public String getText(Object object) throws IllegalAccessException {
+            return FloatingPointCodec.toString(field.getDouble(object));
+        }
+        public void setText(Object object, String text) throws IllegalAccessException {
+            field.setDouble(object, Double.parseDouble(text));
+        }
+    }
+
+    private static class FloatAccessor extends FieldAccessor {
+        FloatAccessor(Field field) { super(field); }
+        public void writeText(Utf8XmlWriter xw, Object object) throws IllegalAccessException, IOException {
+            xw.text(field.getFloat(object));
+        }
+        public String getText(Object object) throws IllegalAccessException {
+            return FloatingPointCodec.toString(field.getFloat(object));
+        }
+        public void setText(Object object, String text) throws IllegalAccessException {
+            field.setFloat(object, Float.parseFloat(text));
+        }
+    }
+
+    private static class BooleanAccessor extends FieldAccessor {
+        BooleanAccessor(Field field) { super(field); }
+        public String getText(Object object) throws IllegalAccessException {
+            return field.getBoolean(object) ? "true" : "false";
+        }
+        public void setText(Object object, String text) throws IllegalAccessException {
+            field.setBoolean(object, XmlFooDeserializer.parseBoolean(text));
+        }
+    }
+
+    private static class ShortAccessor extends FieldAccessor {
+        ShortAccessor(Field field) { super(field); }
+        public void writeText(Utf8XmlWriter xw, Object object) throws IllegalAccessException, IOException {
+            xw.text(field.getShort(object));
+        }
+        public String getText(Object object) throws IllegalAccessException {
+            return Short.toString(field.getShort(object));
+        }
+        public void setText(Object object, String text) throws IllegalAccessException {
+            field.setShort(object, Short.parseShort(text));
+        }
+    }
+
+    private static class ByteAccessor extends FieldAccessor {
+        ByteAccessor(Field field) { super(field); }
+        public void writeText(Utf8XmlWriter xw, Object object) throws IllegalAccessException, IOException {
+            xw.text(field.getByte(object));
+        }
+        public String getText(Object object) throws IllegalAccessException {
+            return Byte.toString(field.getByte(object));
+        }
+        public void setText(Object object, String text) throws IllegalAccessException {
+            field.setByte(object, Byte.parseByte(text));
+        }
+    }
+
+    private static class CharAccessor extends FieldAccessor {
+        CharAccessor(Field field) { super(field); }
+        public String getText(Object object) throws IllegalAccessException {
+            return String.valueOf(field.getChar(object));
+        }
+        public void setText(Object object, String text) throws IllegalAccessException, XmlFooException {
+            if (text.length() == 0) {
+                throw new XmlFooException("Attempt to assign null to a primitive field.");
+            }
+            field.setChar(object, text.charAt(0));
+        }
+    }
+}
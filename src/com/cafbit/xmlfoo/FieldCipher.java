@@ -0,0 +1,112 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.xmlfoo;
+
+import java.io.IOException;
+
+/**
+ * Encrypts and decrypts the values of @LameCrypt fields.  The
+ * serializer writes encrypt(text) in place of the text of every
+ * @LameCrypt field, and the deserializer passes what it reads back
+ * through decrypt().  Ciphertext is written as XML character data,
+ * so it should be plain ASCII (hex, base64, etc.).
+ *
+ * The default, DESFieldCipher, reads and writes the same documents as
+ * earlier versions of xmlfoo.  AESFieldCipher encrypts with AES
+ * through javax.crypto, which uses the CPU's AES instructions where
+ * the platform supports them.  Either can be given its own key.
+ *
+ * A cipher is shared by every serializer and deserializer of an
+ * XmlFoo, so its methods must be safe to call from multiple threads.
+ */
+public abstract class FieldCipher {
+
+    /**
+     * Return the ciphertext of a field's text.
+     */
+    public abstract String encrypt(String plaintext) throws XmlFooException;
+
+    /**
+     * Return the text of a field from its ciphertext.
+     */
+    public abstract String decrypt(String ciphertext) throws XmlFooException;
+
+    /**
+     * Encrypt the first count plaintexts, returning their ciphertexts
+     * in the same order.  The default encrypts them one at a time.
+     */
+    public String[] encrypt(String[] plaintexts, int count) throws XmlFooException {
+        String[] ciphertexts = new String[count];
+        for (int i=0; i<count; i++) {
+            ciphertexts[i] = encrypt(plaintexts[i]);
+        }
+        return ciphertexts;
+    }
+
+    /**
+     * Return true if encrypting values in batches with
+     * encrypt(String[], int) is cheaper than one at a time.  If so,
+     * the serializer gathers the @LameCrypt values of a collection's
+     * elements ahead of writing them.  The default is false.
+     */
+    public boolean isBatched() {
+        return false;
+    }
+
+    //// fused paths
+
+    // the serializer and deserializer go through these, so that
+    // ciphers in this package can write ciphertext straight into the
+    // writer's buffer and decrypt straight from the parser's
+    // characters.  other ciphers get these String-based versions.
+
+    void writeText(Utf8XmlWriter xw, String plaintext) throws IOException, XmlFooException {
+        xw.text(encrypt(plaintext));
+    }
+
+    void writeAttribute(Utf8XmlWriter xw, byte[] attributeNameBytes, String plaintext) throws IOException, XmlFooException {
+        xw.attribute(attributeNameBytes, encrypt(plaintext));
+    }
+
+    String decrypt(char[] chars, int start, int length) throws XmlFooException {
+        return decrypt(new String(chars, start, length));
+    }
+
+    // encrypt a batch of values for the serializer (see isBatched()).
+    Ciphertexts encryptBatch(String[] plaintexts, int count) throws XmlFooException {
+        final String[] ciphertexts = encrypt(plaintexts, count);
+        return new Ciphertexts() {
+            void writeText(Utf8XmlWriter xw, int index) throws IOException {
+                xw.text(ciphertexts[index]);
+            }
+            void writeAttribute(Utf8XmlWriter xw, byte[] attributeNameBytes, int index) throws IOException {
+                xw.attribute(attributeNameBytes, ciphertexts[index]);
+            }
+        };
+    }
+
+    /**
+     * The ciphertexts of a batch of values, which the serializer
+     * writes out by index.
+     */
+    abstract static class Ciphertexts {
+        abstract void writeText(Utf8XmlWriter xw, int index) throws IOException;
+        abstract void writeAttribute(Utf8XmlWriter xw, byte[] attributeNameBytes, int index) throws IOException;
+    }
+
+}
@@ -0,0 +1,683 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.xmlfoo;
+
+import java.math.BigInteger;
+
+/**
+ * Formats and parses float and double values without going through
+ * Double.toString() and Double.parseDouble().
+ *
+ * Formatting uses Giulietti's Schubfach algorithm, which finds the
+ * shortest decimal that rounds back to the same value (and, of the
+ * shortest, the closest).  Digits are written straight into a byte
+ * buffer.  The layout follows Double.toString(): plain notation with
+ * at least one fractional digit ("3.14159", "100.0") for magnitudes in
+ * [10^-3, 10^7), and "d.dddE[-]n" otherwise.
+ *
+ * Parsing reads the characters directly.  Up to 19 significant digits
+ * are accumulated into a long, and the result is computed exactly by
+ * Clinger's fast path when the value and power of ten are both small,
+ * or otherwise by the Eisel-Lemire algorithm.  Anything else (more
+ * digits, subnormal results, ambiguous halfway cases, NaN, Infinity,
+ * hexadecimal, or malformed text) falls back to the platform parser,
+ * so results and exceptions always match Double.parseDouble().
+ *
+ * Both algorithms work from the same table of 128-bit truncated
+ * mantissas of powers of ten, which is computed once when the class
+ * is loaded.
+ */
+class FloatingPointCodec {
+
+    // the longest formatted double, "-2.2250738585072014E-308".
+    public static final int MAX_LENGTH = 24;
+
+    //// powers of ten
+
+    // 10^e for e in [POW10_MIN, POW10_MAX], as the top 128 bits of the
+    // exact value, rounded down.
+    private static final int POW10_MIN = -348;
+    private static final int POW10_MAX = 347;
+    private static final long[] POW10_HI = new long[POW10_MAX - POW10_MIN + 1];
+    private static final long[] POW10_LO = new long[POW10_MAX - POW10_MIN + 1];
+
+    // Schubfach's g = floor(beta) + 1, where 10^-k = beta * 2^r and
+    // 2^125 <= beta < 2^126, split into two 63-bit halves.
+    private static final int K_MIN = -324;
+    private static final int K_MAX = 292;
+    private static final long[] G1 = new long[K_MAX - K_MIN + 1];
+    private static final long[] G0 = new long[K_MAX - K_MIN + 1];
+
+    private static final long MASK_63 = (1L << 63) - 1;
+    private static final long MASK_32 = (1L << 32) - 1;
+    private static final int MASK_28 = (1 << 28) - 1;
+
+    static {
+        BigInteger mask64 = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        BigInteger mask63 = BigInteger.valueOf(MASK_63);
+        for (int e=POW10_MIN; e<=POW10_MAX; e++) {
+            BigInteger mantissa;
+            if (e >= 0) {
+                BigInteger p = BigInteger.TEN.pow(e);
+                int shift = p.bitLength() - 128;
+                mantissa = (shift >= 0) ? p.shiftRight(shift) : p.shiftLeft(-shift);
+            } else {
+                // 10^-n is never a power of two, so the quotient is
+                // strictly between 2^127 and 2^128.
+                BigInteger p = BigInteger.TEN.pow(-e);
+                mantissa = BigInteger.ONE.shiftLeft(p.bitLength() + 127).divide(p);
+            }
+            POW10_HI[e - POW10_MIN] = mantissa.shiftRight(64).longValue();
+            POW10_LO[e - POW10_MIN] = mantissa.and(mask64).longValue();
+            int k = -e;
+            if ((k >= K_MIN) && (k <= K_MAX)) {
+                BigInteger g = mantissa.shiftRight(2).add(BigInteger.ONE);
+                G1[k - K_MIN] = g.shiftRight(63).longValue();
+                G0[k - K_MIN] = g.and(mask63).longValue();
+            }
+        }
+    }
+
+    private static final long[] LONG_POW10 = new long[18];
+    private static final double[] DOUBLE_POW10 = new double[23];
+    private static final float[] FLOAT_POW10 = new float[11];
+    static {
+        long p = 1;
+        for (int i=0; i<LONG_POW10.length; i++) {
+            LONG_POW10[i] = p;
+            p *= 10;
+        }
+        for (int i=0; i<DOUBLE_POW10.length; i++) {
+            DOUBLE_POW10[i] = Double.parseDouble("1e"+i);
+        }
+        for (int i=0; i<FLOAT_POW10.length; i++) {
+            FLOAT_POW10[i] = Float.parseFloat("1e"+i);
+        }
+    }
+
+    //// arithmetic helpers
+
+    // the high 64 bits of the signed 128-bit product.
+    private static long multiplyHigh(long x, long y) {
+        long x1 = x >> 32;
+        long x2 = x & 0xFFFFFFFFL;
+        long y1 = y >> 32;
+        long y2 = y & 0xFFFFFFFFL;
+        long z2 = x2 * y2;
+        long t = x1 * y2 + (z2 >>> 32);
+        long z1 = (t & 0xFFFFFFFFL) + x2 * y1;
+        long z0 = t >> 32;
+        return x1 * y1 + z0 + (z1 >> 32);
+    }
+
+    // the high 64 bits of the unsigned 128-bit product.
+    private static long unsignedMultiplyHigh(long x, long y) {
+        return multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+    }
+
+    private static boolean unsignedLess(long x, long y) {
+        return (x ^ Long.MIN_VALUE) < (y ^ Long.MIN_VALUE);
+    }
+
+    // floor(log10(2^e))
+    private static int flog10pow2(int e) {
+        return (int) (e * 661971961083L >> 41);
+    }
+
+    // floor(log10(3/4 * 2^e))
+    private static int flog10threeQuartersPow2(int e) {
+        return (int) (e * 661971961083L + -274743187321L >> 41);
+    }
+
+    // floor(log2(10^e))
+    private static int flog2pow10(int e) {
+        return (int) (e * 913124641741L >> 38);
+    }
+
+    //// formatting
+
+    public static String toString(double v) {
+        byte[] bytes = new byte[MAX_LENGTH];
+        return toString(bytes, formatDouble(v, bytes, 0));
+    }
+
+    public static String toString(float v) {
+        byte[] bytes = new byte[MAX_LENGTH];
+        return toString(bytes, formatFloat(v, bytes, 0));
+    }
+
+    private static String toString(byte[] bytes, int length) {
+        char[] chars = new char[length];
+        for (int i=0; i<length; i++) {
+            chars[i] = (char)bytes[i];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Write a double as ASCII at buf[pos], and return the new position.
+     * There must be room for MAX_LENGTH bytes.
+     */
+    public static int formatDouble(double v, byte[] buf, int pos) {
+        long bits = Double.doubleToRawLongBits(v);
+        long t = bits & ((1L << 52) - 1);
+        int bq = (int) (bits >>> 52) & 0x7FF;
+        if (bq < 0x7FF) {
+            if (bits < 0) {
+                buf[pos++] = '-';
+            }
+            if (bq != 0) {
+                // normal value; mq = -q
+                int mq = 1075 - bq;
+                long c = (1L << 52) | t;
+                // integers up to 2^53 need no search.
+                if ((0 < mq) && (mq < 53)) {
+                    long f = c >> mq;
+                    if ((f << mq) == c) {
+                        return toChars(f, 0, buf, pos);
+                    }
+                }
+                return doubleToDecimal(-mq, c, 0, buf, pos);
+            }
+            if (t != 0) {
+                // subnormal value
+                return (t < 3)
+                    ? doubleToDecimal(-1074, 10 * t, -1, buf, pos)
+                    : doubleToDecimal(-1074, t, 0, buf, pos);
+            }
+            return putAscii("0.0", buf, pos);
+        }
+        if (t != 0) {
+            return putAscii("NaN", buf, pos);
+        }
+        return putAscii((bits > 0) ? "Infinity" : "-Infinity", buf, pos);
+    }
+
+    private static int doubleToDecimal(int q, long c, int dk, byte[] buf, int pos) {
+        int out = (int) c & 0x1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if ((c != (1L << 52)) || (q == -1074)) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            // the lower neighbor is closer at a binade boundary.
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 2;
+
+        long g1 = G1[k - K_MIN];
+        long g0 = G0[k - K_MIN];
+
+        long vb = roundOdd(g1, g0, cb << h);
+        long vbl = roundOdd(g1, g0, cbl << h);
+        long vbr = roundOdd(g1, g0, cbr << h);
+
+        long s = vb >> 2;
+        if (s >= 100) {
+            // try a shorter decimal, one digit less than s.
+            long sp10 = 10 * multiplyHigh(s, 115292150460684698L << 4);
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                return toChars(upin ? sp10 : tp10, k, buf, pos);
+            }
+        }
+
+        long t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win) {
+            return toChars(uin ? s : t, k + dk, buf, pos);
+        }
+        // both are in the rounding interval; pick the closer one.
+        long cmp = vb - (s + t << 1);
+        return toChars(((cmp < 0) || ((cmp == 0) && ((s & 0x1) == 0))) ? s : t, k + dk, buf, pos);
+    }
+
+    private static long roundOdd(long g1, long g0, long cp) {
+        long x1 = multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | (z & MASK_63) + MASK_63 >>> 63;
+    }
+
+    /**
+     * Write a float as ASCII at buf[pos], and return the new position.
+     * There must be room for MAX_LENGTH bytes.
+     */
+    public static int formatFloat(float v, byte[] buf, int pos) {
+        int bits = Float.floatToRawIntBits(v);
+        int t = bits & ((1 << 23) - 1);
+        int bq = (bits >>> 23) & 0xFF;
+        if (bq < 0xFF) {
+            if (bits < 0) {
+                buf[pos++] = '-';
+            }
+            if (bq != 0) {
+                int mq = 150 - bq;
+                int c = (1 << 23) | t;
+                if ((0 < mq) && (mq < 24)) {
+                    int f = c >> mq;
+                    if ((f << mq) == c) {
+                        return toChars(f, 0, buf, pos);
+                    }
+                }
+                return floatToDecimal(-mq, c, 0, buf, pos);
+            }
+            if (t != 0) {
+                return (t < 8)
+                    ? floatToDecimal(-149, 10 * t, -1, buf, pos)
+                    : floatToDecimal(-149, t, 0, buf, pos);
+            }
+            return putAscii("0.0", buf, pos);
+        }
+        if (t != 0) {
+            return putAscii("NaN", buf, pos);
+        }
+        return putAscii((bits > 0) ? "Infinity" : "-Infinity", buf, pos);
+    }
+
+    private static int floatToDecimal(int q, int c, int dk, byte[] buf, int pos) {
+        int out = c & 0x1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if ((c != (1 << 23)) || (q == -149)) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 33;
+
+        long g = G1[k - K_MIN] + 1;
+
+        int vb = roundOdd(g, cb << h);
+        int vbl = roundOdd(g, cbl << h);
+        int vbr = roundOdd(g, cbr << h);
+
+        int s = vb >> 2;
+        if (s >= 100) {
+            int sp10 = 10 * (int) (s * 1717986919L >>> 34);
+            int tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                return toChars(upin ? sp10 : tp10, k, buf, pos);
+            }
+        }
+
+        int t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win) {
+            return toChars(uin ? s : t, k + dk, buf, pos);
+        }
+        int cmp = vb - (s + t << 1);
+        return toChars(((cmp < 0) || ((cmp == 0) && ((s & 0x1) == 0))) ? s : t, k + dk, buf, pos);
+    }
+
+    private static int roundOdd(long g, long cp) {
+        long x1 = multiplyHigh(g, cp);
+        long vbp = x1 >>> 31;
+        return (int) (vbp | (x1 & MASK_32) + MASK_32 >>> 32);
+    }
+
+    // write the decimal f * 10^e, where f has at most 17 digits.
+    private static int toChars(long f, int e, byte[] buf, int pos) {
+        int len = flog10pow2(64 - Long.numberOfLeadingZeros(f));
+        if (f >= LONG_POW10[len]) {
+            len += 1;
+        }
+        // scale f to exactly 17 digits: h, then 8 in m, then 8 in l.
+        f *= LONG_POW10[17 - len];
+        e += len;
+
+        long hm = multiplyHigh(f, 193428131138340668L) >>> 20;
+        int l = (int) (f - 100000000L * hm);
+        int h = (int) (hm * 1441151881L >>> 57);
+        int m = (int) (hm - 100000000 * h);
+
+        if ((0 < e) && (e <= 7)) {
+            return plainChars(h, m, l, e, buf, pos);
+        } else if ((-3 < e) && (e <= 0)) {
+            return fractionChars(h, m, l, e, buf, pos);
+        } else {
+            return scientificChars(h, m, l, e, buf, pos);
+        }
+    }
+
+    // ddd.ddd
+    private static int plainChars(int h, int m, int l, int e, byte[] buf, int pos) {
+        buf[pos++] = (byte) ('0' + h);
+        int y = y(m);
+        int i;
+        for (i=1; i<e; i++) {
+            int t = 10 * y;
+            buf[pos++] = (byte) ('0' + (t >>> 28));
+            y = t & MASK_28;
+        }
+        buf[pos++] = '.';
+        for (; i<=8; i++) {
+            int t = 10 * y;
+            buf[pos++] = (byte) ('0' + (t >>> 28));
+            y = t & MASK_28;
+        }
+        return lowDigits(l, buf, pos);
+    }
+
+    // 0.00ddd
+    private static int fractionChars(int h, int m, int l, int e, byte[] buf, int pos) {
+        buf[pos++] = '0';
+        buf[pos++] = '.';
+        for (; e<0; e++) {
+            buf[pos++] = '0';
+        }
+        buf[pos++] = (byte) ('0' + h);
+        pos = eightDigits(m, buf, pos);
+        return lowDigits(l, buf, pos);
+    }
+
+    // d.dddE[-]n
+    private static int scientificChars(int h, int m, int l, int e, byte[] buf, int pos) {
+        buf[pos++] = (byte) ('0' + h);
+        buf[pos++] = '.';
+        pos = eightDigits(m, buf, pos);
+        pos = lowDigits(l, buf, pos);
+        e -= 1;
+        buf[pos++] = 'E';
+        if (e < 0) {
+            buf[pos++] = '-';
+            e = -e;
+        }
+        if (e >= 100) {
+            int d = e * 1311 >>> 17;
+            buf[pos++] = (byte) ('0' + d);
+            e -= 100 * d;
+            d = e * 103 >>> 10;
+            buf[pos++] = (byte) ('0' + d);
+            buf[pos++] = (byte) ('0' + e - 10 * d);
+        } else if (e >= 10) {
+            int d = e * 103 >>> 10;
+            buf[pos++] = (byte) ('0' + d);
+            buf[pos++] = (byte) ('0' + e - 10 * d);
+        } else {
+            buf[pos++] = (byte) ('0' + e);
+        }
+        return pos;
+    }
+
+    private static int lowDigits(int l, byte[] buf, int pos) {
+        if (l != 0) {
+            pos = eightDigits(l, buf, pos);
+        }
+        // drop trailing zeroes, but keep one digit after the point.
+        while (buf[pos - 1] == '0') {
+            pos--;
+        }
+        if (buf[pos - 1] == '.') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int eightDigits(int m, byte[] buf, int pos) {
+        int y = y(m);
+        for (int i=0; i<8; i++) {
+            int t = 10 * y;
+            buf[pos++] = (byte) ('0' + (t >>> 28));
+            y = t & MASK_28;
+        }
+        return pos;
+    }
+
+    // a fixed-point form of m / 10^8 with 28 fractional bits, from
+    // which digits are peeled off by multiplying by 10.
+    private static int y(int a) {
+        return (int) (multiplyHigh((long) (a + 1) << 28, 193428131138340668L) >>> 20) - 1;
+    }
+
+    private static int putAscii(String s, byte[] buf, int pos) {
+        for (int i=0; i<s.length(); i++) {
+            buf[pos++] = (byte) s.charAt(i);
+        }
+        return pos;
+    }
+
+    //// parsing
+
+    public static double parseDouble(char[] chars, int start, int length) {
+        long[] scanned = new long[3];
+        if (scan(chars, start, length, scanned)) {
+            boolean negative = scanned[0] != 0;
+            long mantissa = scanned[1];
+            int exponent = (int) scanned[2];
+            if (mantissa == 0) {
+                return negative ? -0.0 : 0.0;
+            }
+            // Clinger's fast path: both operands are exact doubles.
+            if ((exponent >= -22) && (exponent <= 22) && (mantissa >= 0) && (mantissa <= (1L << 53))) {
+                double d = (double) mantissa;
+                d = (exponent < 0) ? d / DOUBLE_POW10[-exponent] : d * DOUBLE_POW10[exponent];
+                return negative ? -d : d;
+            }
+            long bits = eiselLemire64(mantissa, exponent);
+            if (bits != -1) {
+                double d = Double.longBitsToDouble(bits);
+                return negative ? -d : d;
+            }
+        }
+        return Double.parseDouble(new String(chars, start, length));
+    }
+
+    public static float parseFloat(char[] chars, int start, int length) {
+        long[] scanned = new long[3];
+        if (scan(chars, start, length, scanned)) {
+            boolean negative = scanned[0] != 0;
+            long mantissa = scanned[1];
+            int exponent = (int) scanned[2];
+            if (mantissa == 0) {
+                return negative ? -0.0f : 0.0f;
+            }
+            if ((exponent >= -10) && (exponent <= 10) && (mantissa >= 0) && (mantissa <= (1L << 24))) {
+                float f = (float) mantissa;
+                f = (exponent < 0) ? f / FLOAT_POW10[-exponent] : f * FLOAT_POW10[exponent];
+                return negative ? -f : f;
+            }
+            long bits = eiselLemire32(mantissa, exponent);
+            if (bits != -1) {
+                float f = Float.intBitsToFloat((int) bits);
+                return negative ? -f : f;
+            }
+        }
+        return Float.parseFloat(new String(chars, start, length));
+    }
+
+    // scan "[+-]digits[.digits][(e|E)[+-]digits]" into
+    // {negative, mantissa, exponent}.  fails on anything else, and on
+    // more than 19 significant digits.  nineteen digits may overflow
+    // into the sign bit, so the mantissa is treated as unsigned.
+    private static boolean scan(char[] chars, int start, int length, long[] result) {
+        int i = start;
+        int end = start + length;
+        boolean negative = false;
+        if ((i < end) && ((chars[i] == '-') || (chars[i] == '+'))) {
+            negative = (chars[i] == '-');
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+        for (; (i < end) && (chars[i] >= '0') && (chars[i] <= '9'); i++) {
+            any = true;
+            if (digits == 19) {
+                return false;
+            }
+            mantissa = mantissa * 10 + (chars[i] - '0');
+            if (mantissa != 0) {
+                digits++;
+            }
+        }
+        if ((i < end) && (chars[i] == '.')) {
+            for (i++; (i < end) && (chars[i] >= '0') && (chars[i] <= '9'); i++) {
+                any = true;
+                if (digits == 19) {
+                    return false;
+                }
+                mantissa = mantissa * 10 + (chars[i] - '0');
+                exponent--;
+                if (mantissa != 0) {
+                    digits++;
+                }
+            }
+        }
+        if (! any) {
+            return false;
+        }
+        if ((i < end) && ((chars[i] == 'e') || (chars[i] == 'E'))) {
+            i++;
+            boolean negativeExponent = false;
+            if ((i < end) && ((chars[i] == '-') || (chars[i] == '+'))) {
+                negativeExponent = (chars[i] == '-');
+                i++;
+            }
+            if ((i == end) || (chars[i] < '0') || (chars[i] > '9')) {
+                return false;
+            }
+            int e = 0;
+            for (; (i < end) && (chars[i] >= '0') && (chars[i] <= '9'); i++) {
+                if (e < 100000) {
+                    e = e * 10 + (chars[i] - '0');
+                }
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (i != end) {
+            return false;
+        }
+        result[0] = negative ? 1 : 0;
+        result[1] = mantissa;
+        result[2] = exponent;
+        return true;
+    }
+
+    // return the bits of mantissa * 10^exponent as a positive double,
+    // or -1 if the result cannot be determined this way.
+    private static long eiselLemire64(long mantissa, int exponent) {
+        if ((exponent < POW10_MIN) || (exponent > POW10_MAX)) {
+            return -1;
+        }
+        int clz = Long.numberOfLeadingZeros(mantissa);
+        mantissa <<= clz;
+        long exponent2 = ((217706L * exponent) >> 16) + 64 + 1023 - clz;
+
+        int index = exponent - POW10_MIN;
+        long xHi = unsignedMultiplyHigh(mantissa, POW10_HI[index]);
+        long xLo = mantissa * POW10_HI[index];
+        if (((xHi & 0x1FF) == 0x1FF) && unsignedLess(xLo + mantissa, mantissa)) {
+            // the truncated product may be off; widen it with the
+            // low half of the power of ten.
+            long yHi = unsignedMultiplyHigh(mantissa, POW10_LO[index]);
+            long yLo = mantissa * POW10_LO[index];
+            long mergedHi = xHi;
+            long mergedLo = xLo + yHi;
+            if (unsignedLess(mergedLo, xLo)) {
+                mergedHi++;
+            }
+            if (((mergedHi & 0x1FF) == 0x1FF) && (mergedLo + 1 == 0) && unsignedLess(yLo + mantissa, mantissa)) {
+                return -1;
+            }
+            xHi = mergedHi;
+            xLo = mergedLo;
+        }
+
+        long msb = xHi >>> 63;
+        long result = xHi >>> (msb + 9);
+        exponent2 -= 1 ^ msb;
+        if ((xLo == 0) && ((xHi & 0x1FF) == 0) && ((result & 3) == 1)) {
+            // exactly halfway between two doubles.
+            return -1;
+        }
+        result += result & 1;
+        result >>>= 1;
+        if ((result >>> 53) > 0) {
+            result >>>= 1;
+            exponent2 += 1;
+        }
+        if ((exponent2 <= 0) || (exponent2 >= 0x7FF)) {
+            // subnormal, or out of range.
+            return -1;
+        }
+        return (exponent2 << 52) | (result & ((1L << 52) - 1));
+    }
+
+    // as above, for a float; the bits are returned in the low 32 bits.
+    private static long eiselLemire32(long mantissa, int exponent) {
+        if ((exponent < POW10_MIN) || (exponent > POW10_MAX)) {
+            return -1;
+        }
+        int clz = Long.numberOfLeadingZeros(mantissa);
+        mantissa <<= clz;
+        long exponent2 = ((217706L * exponent) >> 16) + 64 + 127 - clz;
+
+        int index = exponent - POW10_MIN;
+        long xHi = unsignedMultiplyHigh(mantissa, POW10_HI[index]);
+        long xLo = mantissa * POW10_HI[index];
+        if (((xHi & 0x3FFFFFFFFFL) == 0x3FFFFFFFFFL) && unsignedLess(xLo + mantissa, mantissa)) {
+            long yHi = unsignedMultiplyHigh(mantissa, POW10_LO[index]);
+            long yLo = mantissa * POW10_LO[index];
+            long mergedHi = xHi;
+            long mergedLo = xLo + yHi;
+            if (unsignedLess(mergedLo, xLo)) {
+                mergedHi++;
+            }
+            if (((mergedHi & 0x3FFFFFFFFFL) == 0x3FFFFFFFFFL) && (mergedLo + 1 == 0) && unsignedLess(yLo + mantissa, mantissa)) {
+                return -1;
+            }
+            xHi = mergedHi;
+            xLo = mergedLo;
+        }
+
+        long msb = xHi >>> 63;
+        long result = xHi >>> (msb + 38);
+        exponent2 -= 1 ^ msb;
+        if ((xLo == 0) && ((xHi & 0x3FFFFFFFFFL) == 0) && ((result & 3) == 1)) {
+            return -1;
+        }
+        result += result & 1;
+        result >>>= 1;
+        if ((result >>> 24) > 0) {
+            result >>>= 1;
+            exponent2 += 1;
+        }
+        if ((exponent2 <= 0) || (exponent2 >= 0xFF)) {
+            return -1;
+        }
+        return (exponent2 << 23) | (result & ((1L << 23) - 1));
+    }
+}
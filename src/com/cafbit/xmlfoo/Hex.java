@@ -0,0 +1,113 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.xmlfoo;
+
+/**
+ * Table-driven hex for encrypted field values, which are written as
+ * upper case digits.
+ *
+ * The encoder works a 64-bit cipher block at a time, writing directly
+ * into a caller's char or byte buffer, so Utf8XmlWriter can write a
+ * ciphertext without building its String.  The decoder is as lenient
+ * as the one it replaces: digits are accepted in either case, spaces
+ * are skipped, and any other character counts as zero.
+ */
+class Hex {
+
+    private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final byte[] DIGIT_BYTES = new byte[16];
+
+    // value of each ASCII character as a hex digit, or one of these.
+    // non-digits other than spaces decode as zero.
+    private static final byte SPACE = -1;
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        for (int i=0; i<16; i++) {
+            DIGIT_BYTES[i] = (byte)DIGITS[i];
+            VALUES[DIGITS[i]] = (byte)i;
+            VALUES[Character.toLowerCase(DIGITS[i])] = (byte)i;
+        }
+        VALUES[' '] = SPACE;
+    }
+
+    /**
+     * Write the 16 digits of a 64-bit word into dst at dstPosition,
+     * most significant first, and return the position after them.
+     */
+    public static int encode(long word, byte[] dst, int dstPosition) {
+        for (int shift=60; shift>=0; shift-=4) {
+            dst[dstPosition++] = DIGIT_BYTES[(int)(word >>> shift) & 0xF];
+        }
+        return dstPosition;
+    }
+
+    public static int encode(long word, char[] dst, int dstPosition) {
+        for (int shift=60; shift>=0; shift-=4) {
+            dst[dstPosition++] = DIGITS[(int)(word >>> shift) & 0xF];
+        }
+        return dstPosition;
+    }
+
+    public static String encode(byte[] bytes) {
+        char[] chars = new char[2*bytes.length];
+        for (int i=0; i<bytes.length; i++) {
+            chars[2*i] = DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[2*i + 1] = DIGITS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Return the value of a hex digit, or -1 for a space, which is to
+     * be skipped.
+     */
+    public static int value(char c) {
+        return (c < 128) ? VALUES[c] : 0;
+    }
+
+    /**
+     * Decode hex text into bytes.  A final digit without a partner is
+     * ignored.
+     */
+    public static byte[] decode(String s) {
+        int digits = 0;
+        for (int i=0; i<s.length(); i++) {
+            if (value(s.charAt(i)) != SPACE) {
+                digits++;
+            }
+        }
+        byte[] bytes = new byte[digits/2];
+        int high = -1;
+        int position = 0;
+        for (int i=0; (i<s.length()) && (position<bytes.length); i++) {
+            int nibble = value(s.charAt(i));
+            if (nibble == SPACE) {
+                continue;
+            }
+            if (high < 0) {
+                high = nibble;
+            } else {
+                bytes[position++] = (byte)((high << 4) | nibble);
+                high = -1;
+            }
+        }
+        return bytes;
+    }
+
+}
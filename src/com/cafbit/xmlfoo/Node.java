@@ -23,6 +23,7 @@ package com.cafbit.xmlfoo;
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 
 import com.cafbit.xmlfoo.annotations.Attribute;
@@ -39,6 +40,9 @@ class Node implements Comparable<Node> {
     private Field field = null;
     private Node parentNode = null;
     public  Node childNode = null;
+    public  FieldAccessor accessor = null;
+    public  PrimitiveArrayHandler primitiveArrayHandler = null;
+    public  ScalarConverter converter = null;
     private Type parameterType = null;
     private String elementTag = null;
 
@@ -50,6 +54,15 @@ class Node implements Comparable<Node> {
     public boolean isPrimitiveOrBoxed = false;
     public boolean isSingleton = false;
     public boolean isLameCrypt = false;
+    // byte[] and ByteBuffer, carried as base64 text.
+    public boolean isBinary = false;
+    
+    // pre-encoded tag bytes for Utf8XmlWriter.  These are built on
+    // first use, since an element node's tag may be overridden after
+    // it is constructed.
+    private volatile byte[] startTagBytes = null;
+    private volatile byte[] endTagBytes = null;
+    private volatile byte[] attributeNameBytes = null;
     
     public enum Context {
         ROOT,
@@ -116,6 +129,7 @@ class Node implements Comparable<Node> {
         // extract field type
         
         this.field = field;
+        this.accessor = FieldAccessor.create(field);
         this.type = field.getType();
         this.genericType = field.getGenericType();
 
@@ -168,8 +182,12 @@ class Node implements Comparable<Node> {
         }
         
         // categorize this node's type
-        if (isScalarType(type)) {
+        if (type.equals(byte[].class) || type.equals(ByteBuffer.class)) {
+            this.isBinary = true;
+            this.category = Category.SCALAR;
+        } else if (isScalarType(type)) {
             this.category = Category.SCALAR;
+            this.converter = ScalarConverter.create(type);
         } else if (Collection.class.isAssignableFrom(type)) {
             this.category = Category.COLLECTION;
             if ((parameterType == null) && (genericType instanceof ParameterizedType)) {
@@ -196,6 +214,9 @@ class Node implements Comparable<Node> {
             this.category = Category.COLLECTION;
             // create a sub-node for the array type
             this.childNode = new Node(this, type.getComponentType());
+            if (type.getComponentType().isPrimitive()) {
+                this.primitiveArrayHandler = PrimitiveArrayHandler.create(type.getComponentType());
+            }
             if (elementTag != null) {
                 childNode.tag = elementTag;
             }
@@ -215,6 +236,13 @@ class Node implements Comparable<Node> {
         }
     }
 
+    public Object getField(Object object) throws IllegalArgumentException, IllegalAccessException, XmlFooException {
+        if (field == null) {
+            throw new XmlFooException("Attempt to get field value on a non-field node \""+this+"\".");
+        }
+        return accessor.get(object);
+    }
+
     public void setField(Object object, Object value) throws IllegalArgumentException, IllegalAccessException, XmlFooException {
         if (field == null) {
             throw new XmlFooException("Attempt to set field value on a non-field node \""+this+"\".");
@@ -222,7 +250,31 @@ class Node implements Comparable<Node> {
         if ((value == null) && field.getType().isPrimitive()) {
             throw new XmlFooException("Attempt to assign null to a primitive field.");
         }
-        field.set(object, value);
+        accessor.set(object, value);
+    }
+    
+    public byte[] getStartTagBytes() {
+        byte[] bytes = startTagBytes;
+        if (bytes == null) {
+            bytes = startTagBytes = Utf8XmlWriter.encodeStartTag(tag);
+        }
+        return bytes;
+    }
+    
+    public byte[] getEndTagBytes() {
+        byte[] bytes = endTagBytes;
+        if (bytes == null) {
+            bytes = endTagBytes = Utf8XmlWriter.encodeEndTag(tag);
+        }
+        return bytes;
+    }
+    
+    public byte[] getAttributeNameBytes() {
+        byte[] bytes = attributeNameBytes;
+        if (bytes == null) {
+            bytes = attributeNameBytes = Utf8XmlWriter.encodeAttributeName(tag);
+        }
+        return bytes;
     }
     
     private static boolean isScalarType(Class<?> type) {
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.xmlfoo;
+
+import java.lang.reflect.Array;
+
+/**
+ * Serializes and deserializes arrays of a primitive type (int[],
+ * double[], etc.).  Values are written straight from the array, and
+ * parsed from the parser's character buffer into a growable array of
+ * the component type which is trimmed to size at the end, so no
+ * element is ever boxed or turned into a String.  When the document
+ * carries a size hint, it sizes the array as far as the deserializer
+ * trusts it (see XmlFooDeserializer.reserveCapacity()), and an
+ * accurate hint needs no trimming.  A handler is built once per
+ * array node and cached on it.
+ *
+ * Each array element is an XML element, exactly as for an Object[]:
+ *
+ *   <samples>
+ *       <element>12</element>
+ *       <element>-7</element>
+ *   </samples>
+ *
+ * byte[] is the exception: it is written as a single base64 text
+ * node instead (see Base64).
+ */
+abstract class PrimitiveArrayHandler {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    public static PrimitiveArrayHandler create(Class<?> componentType) {
+        if (componentType.equals(int.class)) {
+            return new IntArrayHandler();
+        } else if (componentType.equals(long.class)) {
+            return new LongArrayHandler();
+        } else if (componentType.equals(double.class)) {
+            return new DoubleArrayHandler();
+        } else if (componentType.equals(float.class)) {
+            return new FloatArrayHandler();
+        } else if (componentType.equals(boolean.class)) {
+            return new BooleanArrayHandler();
+        } else if (componentType.equals(short.class)) {
+            return new ShortArrayHandler();
+        } else {
+            return new CharArrayHandler();
+        }
+    }
+
+    /**
+     * Write each array value as an element described by elementNode.
+     */
+    public abstract void write(Utf8XmlWriter xw, Node elementNode, Object array) throws Exception;
+
+    /**
+     * Read the elements of an array, leaving the parser at the
+     * array's end tag.  sizeHint is the expected element count, or -1
+     * if it is not known.
+     */
+    public abstract Object read(XmlFooDeserializer deserializer, Node elementNode, int sizeHint) throws Exception;
+
+    private static int initialCapacity(XmlFooDeserializer deserializer, int sizeHint) {
+        return (sizeHint >= 0) ? deserializer.reserveCapacity(sizeHint) : INITIAL_CAPACITY;
+    }
+
+    // hand back the capacity reserved by initialCapacity().
+    private static void release(XmlFooDeserializer deserializer, int sizeHint, int capacity) {
+        if (sizeHint >= 0) {
+            deserializer.releaseCapacity(capacity);
+        }
+    }
+
+    // grown arrays are double the length of the original, or the
+    // hinted length if that is enough.
+    private static Object grow(Object array, int length, int sizeHint) {
+        Object grown = Array.newInstance(array.getClass().getComponentType(), XmlFooDeserializer.grownCapacity(length, sizeHint));
+        System.arraycopy(array, 0, grown, 0, length);
+        return grown;
+    }
+
+    private static Object trim(Object array, int length) {
+        if (Array.getLength(array) == length) {
+            return array;
+        }
+        Object trimmed = Array.newInstance(array.getClass().getComponentType(), length);
+        System.arraycopy(array, 0, trimmed, 0, length);
+        return trimmed;
+    }
+
+    //// implementations
+
+    private static class IntArrayHandler extends PrimitiveArrayHandler {
+        public void write(Utf8XmlWriter xw, Node elementNode, Object array) throws Exception {
+            byte[] startTag = elementNode.getStartTagBytes();
+            byte[] endTag = elementNode.getEndTagBytes();
+            for (int value : (int[])array) {
+                xw.startTag(startTag);
+                xw.text(value);
+                xw.endTag(endTag);
+            }
+        }
+        public Object read(XmlFooDeserializer deserializer, Node elementNode, int sizeHint) throws Exception {
+            int capacity = initialCapacity(deserializer, sizeHint);
+            int[] values = new int[capacity];
+            int length = 0;
+            while (deserializer.nextCollectionElement()) {
+                if (length == values.length) {
+                    values = (int[])grow(values, length, sizeHint);
+                }
+                values[length++] = (int)deserializer.readLong(elementNode, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            }
+            release(deserializer, sizeHint, capacity);
+            return trim(values, length);
+        }
+    }
+
+    private static class LongArrayHandler extends PrimitiveArrayHandler {
+        public void write(Utf8XmlWriter xw, Node elementNode, Object array) throws Exception {
+            byte[] startTag = elementNode.getStartTagBytes();
+            byte[] endTag = elementNode.getEndTagBytes();
+            for (long value : (long[])array) {
+                xw.startTag(startTag);
+                xw.text(value);
+                xw.endTag(endTag);
+            }
+        }
+        public Object read(XmlFooDeserializer deserializer, Node elementNode, int sizeHint) throws Exception {
+            int capacity = initialCapacity(deserializer, sizeHint);
+            long[] values = new long[capacity];
+            int length = 0;
+            while (deserializer.nextCollectionElement()) {
+                if (length == values.length) {
+                    values = (long[])grow(values, length, sizeHint);
+                }
+                values[length++] = deserializer.readLong(elementNode, Long.MIN_VALUE, Long.MAX_VALUE);
+            }
+            release(deserializer, sizeHint, capacity);
+            return trim(values, length);
+        }
+    }
+
+    private static class DoubleArrayHandler extends PrimitiveArrayHandler {
+        public void write(Utf8XmlWriter xw, Node elementNode, Object array) throws Exception {
+            byte[] startTag = elementNode.getStartTagBytes();
+            byte[] endTag = elementNode.getEndTagBytes();
+            for (double value : (double[])array) {
+                xw.startTag(startTag);
+                xw.text(value);
+                xw.endTag(endTag);
+            }
+        }
+        public Object read(XmlFooDeserializer deserializer, Node elementNode, int sizeHint) throws Exception {
+            int capacity = initialCapacity(deserializer, sizeHint);
+            double[] values = new double[capacity];
+            int length = 0;
+            while (deserializer.nextCollectionElement()) {
+                if (length == values.length) {
+                    values = (double[])grow(values, length, sizeHint);
+                }
+                values[length++] = deserializer.readDouble(elementNode);
+            }
+            release(deserializer, sizeHint, capacity);
+            return trim(values, length);
+        }
+    }
+
+    private static class FloatArrayHandler extends PrimitiveArrayHandler {
+        public void write(Utf8XmlWriter xw, Node elementNode, Object array) throws Exception {
+            byte[] startTag = elementNode.getStartTagBytes();
+            byte[] endTag = elementNode.getEndTagBytes();
+            for (float value : (float[])array) {
+                xw.startTag(startTag);
+                xw.text(value);
+                xw.endTag(endTag);
+            }
+        }
+        public Object read(XmlFooDeserializer deserializer, Node elementNode, int sizeHint) throws Exception {
+            int capacity = initialCapacity(deserializer, sizeHint);
+            float[] values = new float[capacity];
+            int length = 0;
+            while (deserializer.nextCollectionElement()) {
+                if (length == values.length) {
+                    values = (float[])grow(values, length, sizeHint);
+                }
+                values[length++] = deserializer.readFloat(elementNode);
+            }
+            release(deserializer, sizeHint, capacity);
+            return trim(values, length);
+        }
+    }
+
+    private static class BooleanArrayHandler extends PrimitiveArrayHandler {
+        public void write(Utf8XmlWriter xw, Node elementNode, Object array) throws Exception {
+            byte[] startTag = elementNode.getStartTagBytes();
+            byte[] endTag = elementNode.getEndTagBytes();
+            for (boolean value : (boolean[])array) {
+                xw.startTag(startTag);
+                xw.text(value ? "true" : "false");
+                xw.endTag(endTag);
+            }
+        }
+        public Object read(XmlFooDeserializer deserializer, Node elementNode, int sizeHint) throws Exception {
+            int capacity = initialCapacity(deserializer, sizeHint);
+            boolean[] values = new boolean[capacity];
+            int length = 0;
+            while (deserializer.nextCollectionElement()) {
+                if (length == values.length) {
+                    values = (boolean[])grow(values, length, sizeHint);
+                }
+                values[length++] = deserializer.readBoolean(elementNode);
+            }
+            release(deserializer, sizeHint, capacity);
+            return trim(values, length);
+        }
+    }
+
+    private static class ShortArrayHandler extends PrimitiveArrayHandler {
+        public void write(Utf8XmlWriter xw, Node elementNode, Object array) throws Exception {
+            byte[] startTag = elementNode.getStartTagBytes();
+            byte[] endTag = elementNode.getEndTagBytes();
+            for (short value : (short[])array) {
+                xw.startTag(startTag);
+                xw.text(value);
+                xw.endTag(endTag);
+            }
+        }
+        public Object read(XmlFooDeserializer deserializer, Node elementNode, int sizeHint) throws Exception {
+            int capacity = initialCapacity(deserializer, sizeHint);
+            short[] values = new short[capacity];
+            int length = 0;
+            while (deserializer.nextCollectionElement()) {
+                if (length == values.length) {
+                    values = (short[])grow(values, length, sizeHint);
+                }
+                values[length++] = (short)deserializer.readLong(elementNode, Short.MIN_VALUE, Short.MAX_VALUE);
+            }
+            release(deserializer, sizeHint, capacity);
+            return trim(values, length);
+        }
+    }
+
+    private static class CharArrayHandler extends PrimitiveArrayHandler {
+        public void write(Utf8XmlWriter xw, Node elementNode, Object array) throws Exception {
+            byte[] startTag = elementNode.getStartTagBytes();
+            byte[] endTag = elementNode.getEndTagBytes();
+            for (char value : (char[])array) {
+                xw.startTag(startTag);
+                xw.text(String.valueOf(value));
+                xw.endTag(endTag);
+            }
+        }
+        public Object read(XmlFooDeserializer deserializer, Node elementNode, int sizeHint) throws Exception {
+            int capacity = initialCapacity(deserializer, sizeHint);
+            char[] values = new char[capacity];
+            int length = 0;
+            while (deserializer.nextCollectionElement()) {
+                if (length == values.length) {
+                    values = (char[])grow(values, length, sizeHint);
+                }
+                values[length++] = deserializer.readChar(elementNode);
+            }
+            release(deserializer, sizeHint, capacity);
+            return trim(values, length);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.xmlfoo;
+
+import java.lang.reflect.Field;
+
+/**
+ * Converts the text of a scalar node into its value.  A converter is
+ * resolved once per Node from its type, so the deserializer does not
+ * have to work out the type of every value it reads.
+ *
+ * Numeric, boolean and char values are parsed directly from the
+ * parser's character buffer (floating point through
+ * FloatingPointCodec), and primitive fields are set through the
+ * typed Field setters, so no String or boxed value is created for
+ * them.  The parsing rules are those of Integer.parseInt(), etc.;
+ * malformed or out-of-range numbers throw NumberFormatException.
+ */
+abstract class ScalarConverter {
+
+    public static ScalarConverter create(Class<?> type) {
+        if (type.equals(int.class) || type.equals(Integer.class)) {
+            return new IntConverter();
+        } else if (type.equals(long.class) || type.equals(Long.class)) {
+            return new LongConverter();
+        } else if (type.equals(double.class) || type.equals(Double.class)) {
+            return new DoubleConverter();
+        } else if (type.equals(float.class) || type.equals(Float.class)) {
+            return new FloatConverter();
+        } else if (type.equals(boolean.class) || type.equals(Boolean.class)) {
+            return new BooleanConverter();
+        } else if (type.equals(short.class) || type.equals(Short.class)) {
+            return new ShortConverter();
+        } else if (type.equals(byte.class) || type.equals(Byte.class)) {
+            return new ByteConverter();
+        } else if (type.equals(char.class) || type.equals(Character.class)) {
+            return new CharConverter();
+        } else if (type.isEnum()) {
+            return new EnumConverter(type);
+        } else {
+            return new StringConverter();
+        }
+    }
+
+    /**
+     * Convert text, such as an attribute value.
+     */
+    public abstract Object fromText(String text) throws XmlFooException;
+
+    /**
+     * Convert text held in a character buffer.
+     */
+    public Object fromChars(char[] chars, int start, int length) throws XmlFooException {
+        return fromText(new String(chars, start, length));
+    }
+
+    /**
+     * Parse text held in a character buffer into a primitive field.
+     */
+    public void setPrimitive(Field field, Object object, char[] chars, int start, int length) throws IllegalAccessException, XmlFooException {
+        field.set(object, fromChars(chars, start, length));
+    }
+
+    //// parsing
+
+    static long parseLong(char[] chars, int start, int length, long min, long max) {
+        if (length == 0) {
+            throw numberFormatException(chars, start, length);
+        }
+        int i = start;
+        int end = start + length;
+        boolean negative = false;
+        char first = chars[i];
+        if ((first == '-') || (first == '+')) {
+            negative = (first == '-');
+            if (++i == end) {
+                throw numberFormatException(chars, start, length);
+            }
+        }
+        // accumulate negatively, since the negative range is larger.
+        long limit = negative ? min : -max;
+        long multiplyLimit = limit / 10;
+        long result = 0;
+        for (; i<end; i++) {
+            int digit = chars[i] - '0';
+            if ((digit < 0) || (digit > 9)) {
+                // like parseInt(), accept digits from other scripts.
+                digit = Character.digit(chars[i], 10);
+            }
+            if ((digit < 0) || (result < multiplyLimit)) {
+                throw numberFormatException(chars, start, length);
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw numberFormatException(chars, start, length);
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    private static NumberFormatException numberFormatException(char[] chars, int start, int length) {
+        return new NumberFormatException("For input string: \""+new String(chars, start, length)+"\"");
+    }
+
+    // the same rule as XmlFooDeserializer.parseBoolean(): "true" in
+    // any case, or "1".
+    static boolean parseBoolean(char[] chars, int start, int length) {
+        if (length == 1) {
+            return chars[start] == '1';
+        }
+        return (length == 4)
+            && ((chars[start] | 0x20) == 't')
+            && ((chars[start+1] | 0x20) == 'r')
+            && ((chars[start+2] | 0x20) == 'u')
+            && ((chars[start+3] | 0x20) == 'e');
+    }
+
+    //// implementations
+
+    private static class IntConverter extends ScalarConverter {
+        public Object fromText(String text) {
+            return Integer.parseInt(text);
+        }
+        public Object fromChars(char[] chars, int start, int length) {
+            return (int) parseLong(chars, start, length, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+        public void setPrimitive(Field field, Object object, char[] chars, int start, int length) throws IllegalAccessException {
+            field.setInt(object, (int) parseLong(chars, start, length, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        }
+    }
+
+    private static class LongConverter extends ScalarConverter {
+        public Object fromText(String text) {
+            return Long.parseLong(text);
+        }
+        public Object fromChars(char[] chars, int start, int length) {
+            return parseLong(chars, start, length, Long.MIN_VALUE, Long.MAX_VALUE);
+        }
+        public void setPrimitive(Field field, Object object, char[] chars, int start, int length) throws IllegalAccessException {
+            field.setLong(object, parseLong(chars, start, length, Long.MIN_VALUE, Long.MAX_VALUE));
+        }
+    }
+
+    private static class ShortConverter extends ScalarConverter {
+        public Object fromText(String text) {
+            return Short.parseShort(text);
+        }
+        public Object fromChars(char[] chars, int start, int length) {
+            return (short) parseLong(chars, start, length, Short.MIN_VALUE, Short.MAX_VALUE);
+        }
+        public void setPrimitive(Field field, Object object, char[] chars, int start, int length) throws IllegalAccessException {
+            field.setShort(object, (short) parseLong(chars, start, length, Short.MIN_VALUE, Short.MAX_VALUE));
+        }
+    }
+
+    private static class ByteConverter extends ScalarConverter {
+        public Object fromText(String text) {
+            return Byte.parseByte(text);
+        }
+        public Object fromChars(char[] chars, int start, int length) {
+            return (byte) parseLong(chars, start, length, Byte.MIN_VALUE, Byte.MAX_VALUE);
+        }
+        public void setPrimitive(Field field, Object object, char[] chars, int start, int length) throws IllegalAccessException {
+            field.setByte(object, (byte) parseLong(chars, start, length, Byte.MIN_VALUE, Byte.MAX_VALUE));
+        }
+    }
+
+    private static class DoubleConverter extends ScalarConverter {
+        public Object fromText(String text) {
+            return Double.parseDouble(text);
+        }
+        public Object fromChars(char[] chars, int start, int length) {
+            return FloatingPointCodec.parseDouble(chars, start, length);
+        }
+        public void setPrimitive(Field field, Object object, char[] chars, int start, int length) throws IllegalAccessException {
+            field.setDouble(object, FloatingPointCodec.parseDouble(chars, start, length));
+        }
+    }
+
+    private static class FloatConverter extends ScalarConverter {
+        public Object fromText(String text) {
+            return Float.parseFloat(text);
+        }
+        public Object fromChars(char[] chars, int start, int length) {
+            return FloatingPointCodec.parseFloat(chars, start, length);
+        }
+        public void setPrimitive(Field field, Object object, char[] chars, int start, int length) throws IllegalAccessException {
+            field.setFloat(object, FloatingPointCodec.parseFloat(chars, start, length));
+        }
+    }
+
+    private static class BooleanConverter extends ScalarConverter {
+        public Object fromText(String text) {
+            return XmlFooDeserializer.parseBoolean(text);
+        }
+        public Object fromChars(char[] chars, int start, int length) {
+            return parseBoolean(chars, start, length);
+        }
+        public void setPrimitive(Field field, Object object, char[] chars, int start, int length) throws IllegalAccessException {
+            field.setBoolean(object, parseBoolean(chars, start, length));
+        }
+    }
+
+    private static class CharConverter extends ScalarConverter {
+        public Object fromText(String text) {
+            if (text.length() == 0) {
+                // this will result in an NPE for a char field, but
+                // there's no other reasonable way to handle this
+                // oddball case.
+                return null;
+            }
+            return text.charAt(0);
+        }
+        public Object fromChars(char[] chars, int start, int length) {
+            return (length == 0) ? null : chars[start];
+        }
+        public void setPrimitive(Field field, Object object, char[] chars, int start, int length) throws IllegalAccessException, XmlFooException {
+            if (length == 0) {
+                throw new XmlFooException("Attempt to assign null to a primitive field.");
+            }
+            field.setChar(object, chars[start]);
+        }
+    }
+
+    private static class StringConverter extends ScalarConverter {
+        public Object fromText(String text) {
+            return text;
+        }
+    }
+
+    private static class EnumConverter extends ScalarConverter {
+        @SuppressWarnings("rawtypes")
+        private final Class<Enum> type;
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        EnumConverter(Class<?> type) {
+            this.type = (Class<Enum>) type;
+        }
+        @SuppressWarnings("unchecked")
+        public Object fromText(String text) {
+            return Enum.valueOf(type, text);
+        }
+    }
+}
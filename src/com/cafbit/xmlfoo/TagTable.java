@@ -0,0 +1,117 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.xmlfoo;
+
+/**
+ * Maps the tags of a class's attributes or elements to their slot
+ * indexes, matching names case-insensitively.
+ *
+ * The table is built once per class.  Each tag is hashed with its
+ * characters case-folded, and the table size is grown (within a
+ * bound) until no two tags share a bucket, so a lookup is usually a
+ * single hash of the name and a single case-insensitive comparison.
+ * If no such size is found, colliding tags are probed linearly.  A
+ * lookup allocates nothing: unlike String.toLowerCase() followed by
+ * a map lookup, it never builds a new String or boxes the slot.
+ */
+final class TagTable {
+
+    // grow the table up to this many buckets per tag while looking
+    // for a collision-free size.
+    private static final int MAX_LOAD_FACTOR = 16;
+
+    private final String[] keys;
+    private final int[] slots;
+    private final int mask;
+
+    public TagTable(String[] tags) {
+        int size = 2;
+        while (size < tags.length * 2) {
+            size <<= 1;
+        }
+        int maxSize = Math.max(size, Integer.highestOneBit(Math.max(1, tags.length)) * MAX_LOAD_FACTOR);
+        while ((size < maxSize) && (! isCollisionFree(tags, size - 1))) {
+            size <<= 1;
+        }
+        this.keys = new String[size];
+        this.slots = new int[size];
+        this.mask = size - 1;
+        for (int i=0; i<tags.length; i++) {
+            // a tag that repeats (ignoring case) keeps its first slot.
+            if (get(tags[i]) >= 0) {
+                continue;
+            }
+            int bucket = hash(tags[i]) & mask;
+            while (keys[bucket] != null) {
+                bucket = (bucket + 1) & mask;
+            }
+            keys[bucket] = tags[i];
+            slots[bucket] = i;
+        }
+    }
+
+    private static boolean isCollisionFree(String[] tags, int mask) {
+        boolean[] used = new boolean[mask + 1];
+        for (String tag : tags) {
+            int bucket = hash(tag) & mask;
+            if (used[bucket]) {
+                return false;
+            }
+            used[bucket] = true;
+        }
+        return true;
+    }
+
+    /**
+     * Return the slot of the tag matching the supplied name, ignoring
+     * case, or -1.
+     */
+    public int get(String name) {
+        int length = name.length();
+        int bucket = hash(name) & mask;
+        while (true) {
+            String key = keys[bucket];
+            if (key == null) {
+                return -1;
+            }
+            if ((key == name) || ((key.length() == length) && key.regionMatches(true, 0, name, 0, length))) {
+                return slots[bucket];
+            }
+            bucket = (bucket + 1) & mask;
+        }
+    }
+
+    // hash with each character folded the same way that
+    // String.regionMatches() folds them when ignoring case.
+    private static int hash(String s) {
+        int h = 0;
+        for (int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if ((c >= 'A') && (c <= 'Z')) {
+                    c += 'a' - 'A';
+                }
+            } else {
+                c = Character.toLowerCase(Character.toUpperCase(c));
+            }
+            h = 31*h + c;
+        }
+        // spread the high bits into the low ones used for the bucket.
+        return h ^ (h >>> 7) ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cafbit.xmlfoo;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+/**
+ * The default backend.  Byte streams in UTF-8, US-ASCII or
+ * ISO-8859-1 (which covers every document xmlfoo writes to an
+ * OutputStream) are read by a parser that works directly on the
+ * bytes; see Utf8PullParser.  Character streams, and byte streams in
+ * any other encoding, are handed to the XmlPullParserFactory as in
+ * XmlPullBackend.
+ */
+public class Utf8Backend extends XmlPullBackend {
+
+    public Utf8Backend() {
+        super();
+    }
+
+    /**
+     * Use the supplied factory for input the UTF-8 parser can't read.
+     */
+    public Utf8Backend(XmlPullParserFactory factory) {
+        super(factory);
+    }
+
+    @Override
+    public XmlPullParser newPullParser(InputStream in, String encoding) throws XmlPullParserException, IOException {
+        Utf8PullParser parser = new Utf8PullParser();
+        if (parser.open(in, encoding)) {
+            return parser;
+        }
+        return super.newPullParser(parser.unreadInput(), encoding);
+    }
+
+}
@@ -0,0 +1,1131 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cafbit.xmlfoo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * A small pull parser that works directly on UTF-8 (or US-ASCII or
+ * ISO-8859-1) bytes, covering just what xmlfoo documents use:
+ * elements, attributes, text, CDATA sections and the predefined and
+ * numeric entity references.  Comments, processing instructions and
+ * the document type declaration are skipped.
+ *
+ * Compared to a general XmlPull parser:
+ *
+ *   - Element and attribute names are looked up in a table keyed by
+ *     their bytes, so each distinct name is decoded only once per
+ *     parser, and the same (interned) String is returned every time.
+ *     Lookups in maps keyed by tag therefore usually succeed on the
+ *     identity check.
+ *   - Text consisting only of whitespace is dropped by the lexer
+ *     instead of being reported as a TEXT event, since xmlfoo never
+ *     binds it.  Text split by comments or CDATA sections is reported
+ *     as one TEXT event, as XmlPullParser.next() specifies.
+ *   - Namespace declarations are dropped and prefixes are stripped,
+ *     so names are reported as local names, but namespace URIs are
+ *     not tracked.
+ *
+ * Only next() is supported (nextToken() behaves like next()), and
+ * input can only be supplied as bytes.  See Utf8Backend, which falls
+ * back to a general parser for other encodings.
+ */
+class Utf8PullParser implements XmlPullParser {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // the XML declaration must fit in this much input to be examined
+    // for an encoding.
+    private static final int MAX_DECLARATION = 512;
+
+    // bytes that end a name.
+    private static final boolean[] NAME_END = new boolean[128];
+    static {
+        for (int i=0; i<=' '; i++) {
+            NAME_END[i] = true;
+        }
+        NAME_END['/'] = NAME_END['>'] = NAME_END['='] = NAME_END['<'] = true;
+        NAME_END['"'] = NAME_END['\''] = NAME_END['&'] = true;
+    }
+
+    // an element or attribute name, as read from the input.
+    private static final class Name {
+        final byte[] bytes;
+        final int hash;
+        final String localName;
+        final boolean namespaceDeclaration;
+        Name(byte[] bytes, int hash, String localName, boolean namespaceDeclaration) {
+            this.bytes = bytes;
+            this.hash = hash;
+            this.localName = localName;
+            this.namespaceDeclaration = namespaceDeclaration;
+        }
+    }
+
+    //// input
+
+    private InputStream in;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private boolean eof;
+    private String encoding;
+    private boolean latin1;
+    private int line;
+
+    //// names
+
+    private Name[] names = new Name[64];
+    private int nameCount = 0;
+    private byte[] scratch = new byte[64];
+
+    //// current event
+
+    private int eventType;
+    private int depth;
+    private Name[] elementStack = new Name[16];
+    private boolean rootSeen;
+    private String name;
+    private boolean emptyElementTag;
+    private boolean pendingEndTag;
+
+    private int attributeCount = -1;
+    private String[] attributeNames = new String[8];
+    private String[] attributeValues = new String[8];
+
+    private char[] text = new char[128];
+    private int textLength;
+    private boolean whitespace;
+    // the number of "]" bytes (up to two) that ended the last run of
+    // plain text, so that "]]>" is caught across buffer refills.
+    private int brackets;
+
+    //// input
+
+    public void setInput(Reader in) throws XmlPullParserException {
+        throw new XmlPullParserException("This parser only reads bytes; use setInput(InputStream, String).");
+    }
+
+    public void setInput(InputStream in, String inputEncoding) throws XmlPullParserException {
+        try {
+            if (! open(in, inputEncoding)) {
+                throw new XmlPullParserException("Unsupported encoding: "+encoding);
+            }
+        } catch (IOException e) {
+            throw new XmlPullParserException(e.getMessage(), this, e);
+        }
+    }
+
+    /**
+     * Start reading a document, and return true; or return false
+     * without consuming any input if the document is in an encoding
+     * this parser doesn't read.  In that case, unreadInput() returns
+     * the complete input for another parser.  If encoding is null, it
+     * is detected from a byte order mark or the XML declaration.
+     */
+    boolean open(InputStream in, String inputEncoding) throws IOException {
+        this.in = in;
+        this.position = 0;
+        this.limit = 0;
+        this.eof = false;
+        this.line = 1;
+        this.eventType = START_DOCUMENT;
+        this.depth = 0;
+        this.rootSeen = false;
+        this.name = null;
+        this.emptyElementTag = false;
+        this.pendingEndTag = false;
+        this.attributeCount = -1;
+        this.textLength = 0;
+
+        ensure(4);
+        if (startsWithBytes(0xFE, 0xFF) || startsWithBytes(0xFF, 0xFE)
+                || startsWithBytes(0x00, 0x00) || startsWithBytes(0x00, 0x3C)
+                || startsWithBytes(0x3C, 0x00) || startsWithBytes(0x4C, 0x6F, 0xA7, 0x94)) {
+            // UTF-16, UTF-32 or EBCDIC.
+            encoding = (inputEncoding == null) ? "UTF-16" : inputEncoding;
+            return false;
+        }
+        int start = 0;
+        String detected = null;
+        if (startsWithBytes(0xEF, 0xBB, 0xBF)) {
+            start = 3;
+            detected = "UTF-8";
+        }
+        String declared = readDeclaredEncoding(start);
+        if (declared != null) {
+            detected = declared;
+        }
+        if (inputEncoding != null) {
+            encoding = inputEncoding;
+        } else if (detected != null) {
+            encoding = detected;
+        } else {
+            encoding = "UTF-8";
+        }
+
+        String canonical;
+        try {
+            canonical = Charset.forName(encoding).name();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        boolean isLatin1 = canonical.equals("ISO-8859-1");
+        if (! (isLatin1 || canonical.equals("UTF-8") || canonical.equals("US-ASCII"))) {
+            return false;
+        }
+        if (isLatin1 != latin1) {
+            // names are decoded when they enter the table.
+            names = new Name[64];
+            nameCount = 0;
+            latin1 = isLatin1;
+        }
+        position = start;
+        return true;
+    }
+
+    /**
+     * After open() has returned false, return the whole input.
+     */
+    InputStream unreadInput() {
+        byte[] read = new byte[limit];
+        System.arraycopy(buffer, 0, read, 0, limit);
+        return new SequenceInputStream(new ByteArrayInputStream(read), in);
+    }
+
+    // return the encoding named by an XML declaration at the start of
+    // the input, if any.
+    private String readDeclaredEncoding(int start) throws IOException {
+        ensure(start + 6);
+        if ((limit < start + 6) || !matches(start, "<?xml") || (buffer[start+5] > ' ')) {
+            return null;
+        }
+        int end = start + 5;
+        while (true) {
+            if ((end + 1 >= limit) && !ensure(end + 2)) {
+                return null;
+            }
+            if ((buffer[end] == '?') && (buffer[end+1] == '>')) {
+                break;
+            }
+            if (++end >= MAX_DECLARATION) {
+                return null;
+            }
+        }
+        char[] chars = new char[end - start];
+        for (int i=0; i<chars.length; i++) {
+            chars[i] = (char)(buffer[start + i] & 0xFF);
+        }
+        String declaration = new String(chars);
+        int i = declaration.indexOf("encoding");
+        if (i < 0) {
+            return null;
+        }
+        i += "encoding".length();
+        while ((i < declaration.length()) && (declaration.charAt(i) <= ' ')) {
+            i++;
+        }
+        if ((i == declaration.length()) || (declaration.charAt(i) != '=')) {
+            return null;
+        }
+        i++;
+        while ((i < declaration.length()) && (declaration.charAt(i) <= ' ')) {
+            i++;
+        }
+        if (i == declaration.length()) {
+            return null;
+        }
+        char quote = declaration.charAt(i);
+        int close = declaration.indexOf(quote, i + 1);
+        if (((quote != '"') && (quote != '\'')) || (close < 0)) {
+            return null;
+        }
+        return declaration.substring(i + 1, close);
+    }
+
+    private boolean startsWithBytes(int... bytes) {
+        if (limit < bytes.length) {
+            return false;
+        }
+        for (int i=0; i<bytes.length; i++) {
+            if ((buffer[i] & 0xFF) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // make at least n bytes available from the current position, and
+    // return false if the input ends first.
+    private boolean ensure(int n) throws IOException {
+        if (limit - position >= n) {
+            return true;
+        }
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        while (limit < n) {
+            if (eof) {
+                return false;
+            }
+            int count = in.read(buffer, limit, buffer.length - limit);
+            if (count < 0) {
+                eof = true;
+                return false;
+            }
+            limit += count;
+        }
+        return true;
+    }
+
+    // true if the bytes at the position match an ASCII string.
+    private boolean matches(int at, String s) {
+        for (int i=0; i<s.length(); i++) {
+            if (buffer[at + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean lookingAt(String s) throws IOException {
+        return ensure(s.length()) && matches(position, s);
+    }
+
+    public String getInputEncoding() {
+        return encoding;
+    }
+
+    //// features and properties
+
+    public void setFeature(String name, boolean state) throws XmlPullParserException {
+        if (state != getFeature(name)) {
+            throw new XmlPullParserException("Unsupported feature: "+name);
+        }
+    }
+
+    public boolean getFeature(String name) {
+        return FEATURE_PROCESS_NAMESPACES.equals(name);
+    }
+
+    public void setProperty(String name, Object value) throws XmlPullParserException {
+        throw new XmlPullParserException("Unsupported property: "+name);
+    }
+
+    public Object getProperty(String name) {
+        return null;
+    }
+
+    public void defineEntityReplacementText(String entityName, String replacementText) throws XmlPullParserException {
+        throw new XmlPullParserException("Entity replacement text is not supported.");
+    }
+
+    //// parsing
+
+    public int getEventType() {
+        return eventType;
+    }
+
+    public int next() throws XmlPullParserException, IOException {
+        if (in == null) {
+            throw new XmlPullParserException("No input specified.");
+        }
+        if (pendingEndTag) {
+            // the second half of <tag/>
+            pendingEndTag = false;
+            attributeCount = -1;
+            return eventType = END_TAG;
+        }
+        if (eventType == END_DOCUMENT) {
+            return END_DOCUMENT;
+        }
+        if (eventType == END_TAG) {
+            elementStack[--depth] = null;
+        }
+        attributeCount = -1;
+        emptyElementTag = false;
+        name = null;
+
+        boolean more = readText();
+        if (textLength > 0) {
+            if (depth == 0) {
+                throw error("Text is not allowed outside of the root element");
+            }
+            return eventType = TEXT;
+        }
+        if (! more) {
+            // like the XmlPull parsers, an empty document is allowed.
+            if (depth > 0) {
+                throw error("Unexpected end of document");
+            }
+            return eventType = END_DOCUMENT;
+        }
+        // positioned at "</" or "<" and a name.
+        if (buffer[position + 1] == '/') {
+            position += 2;
+            readEndTag();
+            return eventType = END_TAG;
+        }
+        if ((depth == 0) && rootSeen) {
+            throw error("Only one root element is allowed");
+        }
+        position++;
+        readStartTag();
+        rootSeen = true;
+        return eventType = START_TAG;
+    }
+
+    public int nextToken() throws XmlPullParserException, IOException {
+        return next();
+    }
+
+    //// lexer
+
+    // read character data up to the next tag or the end of input,
+    // merging CDATA sections, skipping comments and processing
+    // instructions, and discarding it if it is all whitespace.
+    // return true if positioned at a tag, or false at the end of
+    // input.
+    private boolean readText() throws XmlPullParserException, IOException {
+        textLength = 0;
+        whitespace = true;
+        brackets = 0;
+        while (true) {
+            if ((position == limit) && !ensure(1)) {
+                break;
+            }
+            byte b = buffer[position];
+            if ((b >= 0) && (b != '<') && (b != '&') && (b != '\r')) {
+                readAsciiRun();
+                continue;
+            }
+            // anything but plain text separates "]]" from ">".
+            brackets = 0;
+            if (b == '<') {
+                if (! ensure(2)) {
+                    throw error("Unexpected end of document");
+                }
+                byte c = buffer[position + 1];
+                if (c == '!') {
+                    if (lookingAt("<!--")) {
+                        skipPast("-->", 4);
+                    } else if (lookingAt("<![CDATA[")) {
+                        readCData();
+                    } else if (lookingAt("<!DOCTYPE")) {
+                        skipDoctype();
+                    } else {
+                        throw error("Unexpected markup");
+                    }
+                } else if (c == '?') {
+                    skipPast("?>", 2);
+                } else {
+                    break;
+                }
+            } else if (b == '&') {
+                readReference();
+            } else if (b == '\r') {
+                position++;
+                if (ensure(1) && (buffer[position] == '\n')) {
+                    position++;
+                }
+                line++;
+                append('\n');
+            } else {
+                appendCodePoint(decode());
+                whitespace = false;
+            }
+        }
+        if (whitespace) {
+            textLength = 0;
+        }
+        return position < limit;
+    }
+
+    // copy plain ASCII text straight from the buffer.
+    private void readAsciiRun() throws XmlPullParserException {
+        int start = position;
+        int p = position;
+        int end = limit;
+        if (textLength + (end - p) > text.length) {
+            growText(textLength + (end - p));
+        }
+        char[] text = this.text;
+        int length = textLength;
+        boolean whitespace = this.whitespace;
+        while (p < end) {
+            byte b = buffer[p];
+            if ((b < 0) || (b == '<') || (b == '&') || (b == '\r')) {
+                break;
+            }
+            if (b == '\n') {
+                line++;
+            } else if ((b != ' ') && (b != '\t')) {
+                whitespace = false;
+                if ((b == '>') && (bracketsBefore(start, p) == 2)) {
+                    position = p;
+                    throw error("\"]]>\" is not allowed in text");
+                }
+            }
+            text[length++] = (char)b;
+            p++;
+        }
+        brackets = bracketsBefore(start, p);
+        position = p;
+        textLength = length;
+        this.whitespace = whitespace;
+    }
+
+    // the number of "]" bytes, up to two, immediately before p in the
+    // run of text starting at start (and the run before it).
+    private int bracketsBefore(int start, int p) {
+        int n = 0;
+        while (n < 2) {
+            if (p - n == start) {
+                return Math.min(2, n + brackets);
+            }
+            if (buffer[p - n - 1] != ']') {
+                break;
+            }
+            n++;
+        }
+        return n;
+    }
+
+    private void readCData() throws XmlPullParserException, IOException {
+        position += 9;
+        // a CDATA section is kept even if it is all whitespace.
+        whitespace = false;
+        while (true) {
+            if (! ensure(3)) {
+                throw error("Unterminated CDATA section");
+            }
+            byte b = buffer[position];
+            if ((b == ']') && (buffer[position+1] == ']') && (buffer[position+2] == '>')) {
+                position += 3;
+                return;
+            }
+            if (b == '\r') {
+                position++;
+                if (ensure(1) && (buffer[position] == '\n')) {
+                    position++;
+                }
+                line++;
+                append('\n');
+            } else if (b < 0) {
+                appendCodePoint(decode());
+                whitespace = false;
+            } else {
+                position++;
+                if (b == '\n') {
+                    line++;
+                } else if ((b != ' ') && (b != '\t')) {
+                    whitespace = false;
+                }
+                append((char)b);
+            }
+        }
+    }
+
+    // skip the start of a construct and everything up to and
+    // including its terminator.
+    private void skipPast(String terminator, int startLength) throws XmlPullParserException, IOException {
+        position += startLength;
+        while (! lookingAt(terminator)) {
+            if (! ensure(1)) {
+                throw error("Unexpected end of document");
+            }
+            if (buffer[position++] == '\n') {
+                line++;
+            }
+        }
+        position += terminator.length();
+    }
+
+    // skip a document type declaration, including any internal subset.
+    private void skipDoctype() throws XmlPullParserException, IOException {
+        if (rootSeen) {
+            throw error("Unexpected document type declaration");
+        }
+        int nesting = 0;
+        while (true) {
+            if (! ensure(1)) {
+                throw error("Unexpected end of document");
+            }
+            byte b = buffer[position++];
+            if (b == '[') {
+                nesting++;
+            } else if (b == ']') {
+                nesting--;
+            } else if ((b == '>') && (nesting == 0)) {
+                return;
+            } else if (b == '\n') {
+                line++;
+            }
+        }
+    }
+
+    // read an entity or character reference, appending its text.
+    private void readReference() throws XmlPullParserException, IOException {
+        position++;
+        int length = 0;
+        while (true) {
+            if (! ensure(1)) {
+                throw error("Unexpected end of document");
+            }
+            byte b = buffer[position++];
+            if (b == ';') {
+                break;
+            }
+            if ((length == 12) || (b <= ' ') || (b == '<') || (b == '&')) {
+                throw error("Unterminated entity reference");
+            }
+            scratch[length++] = b;
+        }
+        int c;
+        if ((length > 1) && (scratch[0] == '#')) {
+            c = 0;
+            int radix = 10;
+            int i = 1;
+            if ((scratch[1] == 'x') && (length > 2)) {
+                radix = 16;
+                i = 2;
+            }
+            for (; i<length; i++) {
+                int digit = Character.digit((char)scratch[i], radix);
+                if ((digit < 0) || (c > 0x10FFFF)) {
+                    throw error("Invalid character reference");
+                }
+                c = c * radix + digit;
+            }
+            // control characters, U+0000 included, are accepted:
+            // Utf8XmlWriter writes them as references, and so did the
+            // platform serializers before it.
+            if ((c > 0x10FFFF) || ((c >= 0xD800) && (c <= 0xDFFF))) {
+                throw error("Invalid character reference");
+            }
+        } else if (isEntity("lt", length)) {
+            c = '<';
+        } else if (isEntity("gt", length)) {
+            c = '>';
+        } else if (isEntity("amp", length)) {
+            c = '&';
+        } else if (isEntity("quot", length)) {
+            c = '"';
+        } else if (isEntity("apos", length)) {
+            c = '\'';
+        } else {
+            throw error("Unresolved entity reference");
+        }
+        if ((c != ' ') && (c != '\t') && (c != '\n') && (c != '\r')) {
+            whitespace = false;
+        }
+        appendCodePoint(c);
+    }
+
+    private boolean isEntity(String entity, int length) {
+        if (length != entity.length()) {
+            return false;
+        }
+        for (int i=0; i<length; i++) {
+            if (scratch[i] != entity.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // decode the non-ASCII character at the position.  malformed input
+    // decodes to U+FFFD, like the platform decoders.
+    private int decode() throws IOException {
+        int b = buffer[position] & 0xFF;
+        if (latin1) {
+            position++;
+            return b;
+        }
+        int length;
+        int c;
+        int min;
+        if ((b & 0xE0) == 0xC0) {
+            length = 2;
+            c = b & 0x1F;
+            min = 0x80;
+        } else if ((b & 0xF0) == 0xE0) {
+            length = 3;
+            c = b & 0x0F;
+            min = 0x800;
+        } else if ((b & 0xF8) == 0xF0) {
+            length = 4;
+            c = b & 0x07;
+            min = 0x10000;
+        } else {
+            position++;
+            return 0xFFFD;
+        }
+        ensure(length);
+        int i = 1;
+        for (; i<length; i++) {
+            if ((position + i >= limit) || ((buffer[position + i] & 0xC0) != 0x80)) {
+                break;
+            }
+            c = (c << 6) | (buffer[position + i] & 0x3F);
+        }
+        position += i;
+        if ((i < length) || (c < min) || (c > 0x10FFFF) || ((c >= 0xD800) && (c <= 0xDFFF))) {
+            return 0xFFFD;
+        }
+        return c;
+    }
+
+    private void append(char c) {
+        if (textLength == text.length) {
+            growText(textLength + 1);
+        }
+        text[textLength++] = c;
+    }
+
+    private void appendCodePoint(int c) {
+        if (c < 0x10000) {
+            append((char)c);
+        } else {
+            c -= 0x10000;
+            append((char)(0xD800 + (c >> 10)));
+            append((char)(0xDC00 + (c & 0x3FF)));
+        }
+    }
+
+    private void growText(int capacity) {
+        char[] grown = new char[Math.max(capacity, text.length * 2)];
+        System.arraycopy(text, 0, grown, 0, textLength);
+        text = grown;
+    }
+
+    //// tags
+
+    // read a start tag, after its "<".
+    private void readStartTag() throws XmlPullParserException, IOException {
+        Name element = readName();
+        if (depth == elementStack.length) {
+            Name[] grown = new Name[depth * 2];
+            System.arraycopy(elementStack, 0, grown, 0, depth);
+            elementStack = grown;
+        }
+        elementStack[depth++] = element;
+        name = element.localName;
+        attributeCount = 0;
+        while (true) {
+            skipWhitespace();
+            if (! ensure(1)) {
+                throw error("Unexpected end of document");
+            }
+            byte b = buffer[position];
+            if (b == '>') {
+                position++;
+                return;
+            } else if (b == '/') {
+                position++;
+                expect('>');
+                emptyElementTag = true;
+                pendingEndTag = true;
+                return;
+            }
+            Name attribute = readName();
+            skipWhitespace();
+            expect('=');
+            skipWhitespace();
+            if (! ensure(1)) {
+                throw error("Unexpected end of document");
+            }
+            byte quote = buffer[position++];
+            if ((quote != '"') && (quote != '\'')) {
+                throw error("Expected a quoted attribute value");
+            }
+            String value = readAttributeValue(quote);
+            if (attribute.namespaceDeclaration) {
+                continue;
+            }
+            for (int i=0; i<attributeCount; i++) {
+                if (attributeNames[i] == attribute.localName) {
+                    throw error("Duplicate attribute \""+attribute.localName+"\"");
+                }
+            }
+            if (attributeCount == attributeNames.length) {
+                String[] grownNames = new String[attributeCount * 2];
+                String[] grownValues = new String[attributeCount * 2];
+                System.arraycopy(attributeNames, 0, grownNames, 0, attributeCount);
+                System.arraycopy(attributeValues, 0, grownValues, 0, attributeCount);
+                attributeNames = grownNames;
+                attributeValues = grownValues;
+            }
+            attributeNames[attributeCount] = attribute.localName;
+            attributeValues[attributeCount] = value;
+            attributeCount++;
+        }
+    }
+
+    // read an attribute value, after its opening quote.  whitespace
+    // characters are normalized to spaces, as the XML specification
+    // requires.
+    private String readAttributeValue(byte quote) throws XmlPullParserException, IOException {
+        textLength = 0;
+        while (true) {
+            if (! ensure(1)) {
+                throw error("Unexpected end of document");
+            }
+            byte b = buffer[position];
+            if (b == quote) {
+                position++;
+                break;
+            } else if (b == '&') {
+                readReference();
+            } else if (b == '<') {
+                throw error("'<' is not allowed in attribute values");
+            } else if (b < 0) {
+                appendCodePoint(decode());
+            } else {
+                position++;
+                if (b == '\r') {
+                    if (ensure(1) && (buffer[position] == '\n')) {
+                        position++;
+                    }
+                    line++;
+                    b = ' ';
+                } else if (b == '\n') {
+                    line++;
+                    b = ' ';
+                } else if (b == '\t') {
+                    b = ' ';
+                }
+                append((char)b);
+            }
+        }
+        String value = new String(text, 0, textLength);
+        textLength = 0;
+        return value;
+    }
+
+    // read an end tag, after its "</".
+    private void readEndTag() throws XmlPullParserException, IOException {
+        Name element = readName();
+        skipWhitespace();
+        expect('>');
+        if ((depth == 0) || (elementStack[depth-1] != element)) {
+            throw error("Unexpected end tag </"+element.localName+">");
+        }
+        name = element.localName;
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (ensure(1)) {
+            byte b = buffer[position];
+            if (b == '\n') {
+                line++;
+            } else if ((b != ' ') && (b != '\t') && (b != '\r')) {
+                return;
+            }
+            position++;
+        }
+    }
+
+    private void expect(char c) throws XmlPullParserException, IOException {
+        if (! ensure(1)) {
+            throw error("Unexpected end of document");
+        }
+        if (buffer[position] != c) {
+            throw error("Expected '"+c+"'");
+        }
+        position++;
+    }
+
+    //// names
+
+    // read a name and return its entry in the name table.
+    private Name readName() throws XmlPullParserException, IOException {
+        int length = 0;
+        int hash = 0;
+        while (ensure(1)) {
+            byte b = buffer[position];
+            if ((b >= 0) && NAME_END[b]) {
+                break;
+            }
+            if (length == scratch.length) {
+                byte[] grown = new byte[length * 2];
+                System.arraycopy(scratch, 0, grown, 0, length);
+                scratch = grown;
+            }
+            scratch[length++] = b;
+            hash = 31 * hash + b;
+            position++;
+        }
+        if (length == 0) {
+            throw error("Expected a name");
+        }
+
+        int mask = names.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (true) {
+            Name entry = names[slot];
+            if (entry == null) {
+                break;
+            }
+            if ((entry.hash == hash) && sameBytes(entry.bytes, length)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        byte[] bytes = new byte[length];
+        System.arraycopy(scratch, 0, bytes, 0, length);
+        String qualifiedName = decodeName(bytes);
+        int colon = qualifiedName.indexOf(':');
+        String localName = (colon < 0) ? qualifiedName : qualifiedName.substring(colon + 1);
+        boolean namespaceDeclaration = qualifiedName.equals("xmlns") || qualifiedName.startsWith("xmlns:");
+        Name entry = new Name(bytes, hash, localName.intern(), namespaceDeclaration);
+        names[slot] = entry;
+        if (++nameCount * 2 > names.length) {
+            rehashNames();
+        }
+        return entry;
+    }
+
+    private boolean sameBytes(byte[] bytes, int length) {
+        if (bytes.length != length) {
+            return false;
+        }
+        for (int i=0; i<length; i++) {
+            if (bytes[i] != scratch[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehashNames() {
+        Name[] grown = new Name[names.length * 2];
+        int mask = grown.length - 1;
+        for (Name entry : names) {
+            if (entry != null) {
+                int slot = (entry.hash ^ (entry.hash >>> 16)) & mask;
+                while (grown[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                grown[slot] = entry;
+            }
+        }
+        names = grown;
+    }
+
+    private String decodeName(byte[] bytes) {
+        try {
+            return new String(bytes, latin1 ? "ISO-8859-1" : "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // both are required of every platform.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void require(int type, String namespace, String name) throws XmlPullParserException, IOException {
+        if ((type != eventType)
+                || ((namespace != null) && !namespace.equals(getNamespace()))
+                || ((name != null) && !name.equals(getName()))) {
+            throw error("expected "+TYPES[type]);
+        }
+    }
+
+    public String nextText() throws XmlPullParserException, IOException {
+        if (eventType != START_TAG) {
+            throw error("parser must be on START_TAG to read next text");
+        }
+        int event = next();
+        if (event == TEXT) {
+            String result = getText();
+            if (next() != END_TAG) {
+                throw error("TEXT must be immediately followed by END_TAG");
+            }
+            return result;
+        } else if (event == END_TAG) {
+            return "";
+        } else {
+            throw error("parser must be on START_TAG or TEXT to read text");
+        }
+    }
+
+    public int nextTag() throws XmlPullParserException, IOException {
+        int event = next();
+        if ((event != START_TAG) && (event != END_TAG)) {
+            throw error("expected START_TAG or END_TAG");
+        }
+        return event;
+    }
+
+    private XmlPullParserException error(String message) {
+        return new XmlPullParserException(message, this, null);
+    }
+
+    //// position
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public String getPositionDescription() {
+        StringBuilder sb = new StringBuilder(TYPES[eventType]);
+        if (name != null) {
+            sb.append(' ').append(name);
+        }
+        sb.append(" @").append(line);
+        return sb.toString();
+    }
+
+    public int getLineNumber() {
+        return line;
+    }
+
+    public int getColumnNumber() {
+        return -1;
+    }
+
+    //// text
+
+    public boolean isWhitespace() throws XmlPullParserException {
+        if (eventType != TEXT) {
+            throw new XmlPullParserException("no content available to check for whitespaces");
+        }
+        return whitespace;
+    }
+
+    public String getText() {
+        return (eventType == TEXT) ? new String(text, 0, textLength) : null;
+    }
+
+    public char[] getTextCharacters(int[] holderForStartAndLength) {
+        if (eventType == TEXT) {
+            holderForStartAndLength[0] = 0;
+            holderForStartAndLength[1] = textLength;
+            return text;
+        }
+        holderForStartAndLength[0] = -1;
+        holderForStartAndLength[1] = -1;
+        return null;
+    }
+
+    //// elements
+
+    public String getName() {
+        return name;
+    }
+
+    public String getNamespace() {
+        return ((eventType == START_TAG) || (eventType == END_TAG)) ? NO_NAMESPACE : null;
+    }
+
+    public String getPrefix() {
+        return null;
+    }
+
+    public boolean isEmptyElementTag() throws XmlPullParserException {
+        if (eventType != START_TAG) {
+            throw new XmlPullParserException("parser must be on START_TAG to check for empty element", this, null);
+        }
+        return emptyElementTag;
+    }
+
+    //// namespaces (not tracked)
+
+    public String getNamespace(String prefix) {
+        return null;
+    }
+
+    public int getNamespaceCount(int depth) {
+        return 0;
+    }
+
+    public String getNamespacePrefix(int pos) throws XmlPullParserException {
+        throw new XmlPullParserException("Namespaces are not tracked by this parser.");
+    }
+
+    public String getNamespaceUri(int pos) throws XmlPullParserException {
+        throw new XmlPullParserException("Namespaces are not tracked by this parser.");
+    }
+
+    //// attributes
+
+    public int getAttributeCount() {
+        return attributeCount;
+    }
+
+    public String getAttributeName(int index) {
+        checkAttributeIndex(index);
+        return attributeNames[index];
+    }
+
+    public String getAttributeNamespace(int index) {
+        checkAttributeIndex(index);
+        return NO_NAMESPACE;
+    }
+
+    public String getAttributePrefix(int index) {
+        checkAttributeIndex(index);
+        return null;
+    }
+
+    public String getAttributeType(int index) {
+        checkAttributeIndex(index);
+        return "CDATA";
+    }
+
+    public boolean isAttributeDefault(int index) {
+        checkAttributeIndex(index);
+        return false;
+    }
+
+    public String getAttributeValue(int index) {
+        checkAttributeIndex(index);
+        return attributeValues[index];
+    }
+
+    public String getAttributeValue(String namespace, String name) {
+        if (eventType != START_TAG) {
+            throw new IndexOutOfBoundsException("only START_TAG can have attributes");
+        }
+        for (int i=0; i<attributeCount; i++) {
+            if (name.equals(attributeNames[i])) {
+                return attributeValues[i];
+            }
+        }
+        return null;
+    }
+
+    private void checkAttributeIndex(int index) {
+        if ((index < 0) || (index >= attributeCount)) {
+            throw new IndexOutOfBoundsException("attribute index out of range: "+index);
+        }
+    }
+
+}
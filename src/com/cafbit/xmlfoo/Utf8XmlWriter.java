@@ -0,0 +1,605 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.xmlfoo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A writer for the small subset of XML that xmlfoo produces:
+ * elements, attributes, and text.  Output is encoded as UTF-8
+ * straight into a fixed byte buffer, which is handed to the sink
+ * whenever it fills.  For a character sink, the byte buffer only
+ * holds markup and ASCII, and is widened into a char buffer; text
+ * outside ASCII is copied into the char buffer as it is, so it is
+ * never encoded only to be decoded again.
+ *
+ * Escaping is table-driven.  Each ASCII character maps to either
+ * null (copy as-is) or its escape sequence, and runs of characters
+ * that need no escaping are copied without any further checks.
+ * Element and attribute names are normally supplied as pre-encoded
+ * byte sequences cached on their Node.
+ *
+ * In pretty mode, the layout is the same as the earlier
+ * pretty-printing wrapper around the platform XmlSerializer: each
+ * element starts on a new line indented four spaces per level,
+ * except within an element that contains text.  Indentation is
+ * written as a slice of a single precomputed newline-and-spaces
+ * sequence.  In compact mode no whitespace is written at all.
+ */
+class Utf8XmlWriter {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_DEPTH = 80;
+
+    // the longest sequence written without a capacity check: a
+    // surrogate pair as a character reference, "&#1114111;".
+    private static final int MAX_SEQUENCE = 10;
+
+    // "\n" followed by enough indentation for MAX_DEPTH levels.
+    private static final byte[] INDENTATION = new byte[1 + 4*MAX_DEPTH];
+    static {
+        INDENTATION[0] = '\n';
+        for (int i=1; i<INDENTATION.length; i++) {
+            INDENTATION[i] = ' ';
+        }
+    }
+
+    private static final byte[] EMPTY_TAG_END = ascii(" />");
+    private static final byte[] COMPACT_EMPTY_TAG_END = ascii("/>");
+    private static final byte[] NULL_ATTRIBUTE = ascii(" null=\"true\"");
+    private static final byte[] SIZE_ATTRIBUTE = ascii(" size=\"");
+
+    // escape sequences for ASCII characters, or null for none.  XML
+    // 1.0 does not allow C0 controls other than tab, line feed and
+    // carriage return at all; they are written as character
+    // references, which XmlPull parsers accept but StAX parsers do not
+    // (see StaxBackend).
+    private static final byte[][] TEXT_ESCAPES = new byte[128][];
+    private static final byte[][] ATTRIBUTE_ESCAPES = new byte[128][];
+    static {
+        for (int c=0; c<0x20; c++) {
+            TEXT_ESCAPES[c] = ascii("&#"+c+";");
+            ATTRIBUTE_ESCAPES[c] = ascii("&#"+c+";");
+        }
+        // line feeds and tabs survive in text, but would be
+        // normalized to spaces in an attribute value.  A carriage
+        // return is always escaped, since a parser turns a raw one
+        // into a line feed.
+        TEXT_ESCAPES['\n'] = null;
+        TEXT_ESCAPES['\t'] = null;
+        TEXT_ESCAPES['&'] = ATTRIBUTE_ESCAPES['&'] = ascii("&amp;");
+        TEXT_ESCAPES['<'] = ATTRIBUTE_ESCAPES['<'] = ascii("&lt;");
+        TEXT_ESCAPES['>'] = ATTRIBUTE_ESCAPES['>'] = ascii("&gt;");
+        ATTRIBUTE_ESCAPES['"'] = ascii("&quot;");
+    }
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+
+    // exactly one of these is the sink.
+    private final OutputStream out;
+    private final Writer writer;
+
+    // the output for a character sink, behind the byte buffer.
+    private final char[] chars;
+    private int charCount = 0;
+
+    // write non-ASCII characters as character references, for
+    // documents in an encoding other than UTF-8.
+    private final boolean asciiOnly;
+
+    private final boolean pretty;
+    private final byte[] emptyTagEnd;
+
+    // flush the sink whenever the buffer is written to it.
+    private boolean flushEachBuffer = false;
+
+    // element state
+    private int depth = 0;
+    private boolean pending = false;
+    private int depthOfFlatness = MAX_DEPTH;
+    private int lastDepth = 0;
+
+    /**
+     * Write UTF-8 to the supplied stream.
+     */
+    public Utf8XmlWriter(OutputStream out, boolean pretty) {
+        this.out = out;
+        this.writer = null;
+        this.chars = null;
+        this.asciiOnly = false;
+        this.pretty = pretty;
+        this.emptyTagEnd = pretty ? EMPTY_TAG_END : COMPACT_EMPTY_TAG_END;
+    }
+
+    /**
+     * Write characters to the supplied writer.  If asciiOnly is set,
+     * non-ASCII characters are written as character references, so
+     * the writer may encode to any charset.
+     */
+    public Utf8XmlWriter(Writer writer, boolean asciiOnly, boolean pretty) {
+        this.out = null;
+        this.writer = writer;
+        this.chars = new char[BUFFER_SIZE];
+        this.asciiOnly = asciiOnly;
+        this.pretty = pretty;
+        this.emptyTagEnd = pretty ? EMPTY_TAG_END : COMPACT_EMPTY_TAG_END;
+    }
+
+    /**
+     * Flush the sink every time the buffer is written to it, rather
+     * than only when flush() is called.
+     */
+    public void setFlushEachBuffer(boolean flushEachBuffer) {
+        this.flushEachBuffer = flushEachBuffer;
+    }
+
+    //// pre-encoded names
+
+    public static byte[] encodeStartTag(String tag) {
+        return encode("<", tag, "");
+    }
+
+    public static byte[] encodeEndTag(String tag) {
+        return encode("</", tag, ">");
+    }
+
+    public static byte[] encodeAttributeName(String name) {
+        return encode(" ", name, "=\"");
+    }
+
+    private static byte[] encode(String prefix, String name, String suffix) {
+        try {
+            return (prefix+name+suffix).getBytes("UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            // UTF-8 is always supported.
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i=0; i<bytes.length; i++) {
+            bytes[i] = (byte)s.charAt(i);
+        }
+        return bytes;
+    }
+
+    //// document structure
+
+    public void startDocument(String encoding) throws IOException {
+        writeRaw("<?xml version='1.0' encoding='");
+        writeRaw(encoding);
+        writeRaw("' ?>");
+    }
+
+    public void endDocument() throws IOException {
+        flush();
+    }
+
+    public void startTag(byte[] startTagBytes) throws IOException {
+        beginStartTag();
+        writeBytes(startTagBytes);
+    }
+
+    // names supplied as strings (from codecs) are encoded in place.
+    public void startTag(String tag) throws IOException {
+        beginStartTag();
+        writeByte('<');
+        writeRaw(tag);
+    }
+
+    private void beginStartTag() throws IOException {
+        if (pretty && (depth < depthOfFlatness)) {
+            indent(depth);
+        } else {
+            closeStartTag();
+        }
+        pending = true;
+        depth++;
+    }
+
+    public void attribute(byte[] attributeNameBytes, String value) throws IOException {
+        writeBytes(attributeNameBytes);
+        writeEscaped(value, ATTRIBUTE_ESCAPES);
+        writeByte('"');
+    }
+
+    public void attribute(String name, String value) throws IOException {
+        writeByte(' ');
+        writeRaw(name);
+        writeByte('=');
+        writeByte('"');
+        writeEscaped(value, ATTRIBUTE_ESCAPES);
+        writeByte('"');
+    }
+
+    public void nullAttribute() throws IOException {
+        writeBytes(NULL_ATTRIBUTE);
+    }
+
+    /**
+     * Write the element count of a collection or array, as a hint for
+     * sizing it when it is read back.
+     */
+    public void sizeAttribute(int size) throws IOException {
+        writeBytes(SIZE_ATTRIBUTE);
+        writeDecimal(size);
+        writeByte('"');
+    }
+
+    public void text(String text) throws IOException {
+        depthOfFlatness = depth;
+        closeStartTag();
+        writeEscaped(text, TEXT_ESCAPES);
+    }
+
+    /**
+     * Write an integer as text, with its digits generated straight
+     * into the buffer.
+     */
+    public void text(long value) throws IOException {
+        depthOfFlatness = depth;
+        closeStartTag();
+        writeDecimal(value);
+    }
+
+    private void writeDecimal(long value) throws IOException {
+        ensure(20);
+        // work with the negative magnitude, which covers
+        // Long.MIN_VALUE.
+        long negative = value;
+        if (value < 0) {
+            buffer[position++] = '-';
+        } else {
+            negative = -value;
+        }
+        int start = position;
+        do {
+            buffer[position++] = (byte)('0' - (negative % 10));
+            negative /= 10;
+        } while (negative != 0);
+        // the digits were generated in reverse.
+        for (int i=start, j=position-1; i<j; i++, j--) {
+            byte b = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = b;
+        }
+    }
+
+    /**
+     * Write a double as text, in the shortest form that parses back to
+     * the same value (see FloatingPointCodec).
+     */
+    public void text(double value) throws IOException {
+        depthOfFlatness = depth;
+        closeStartTag();
+        ensure(FloatingPointCodec.MAX_LENGTH);
+        position = FloatingPointCodec.formatDouble(value, buffer, position);
+    }
+
+    public void text(float value) throws IOException {
+        depthOfFlatness = depth;
+        closeStartTag();
+        ensure(FloatingPointCodec.MAX_LENGTH);
+        position = FloatingPointCodec.formatFloat(value, buffer, position);
+    }
+
+    /**
+     * Write bytes as base64 text, encoding them straight into the
+     * buffer a chunk at a time.  As with Base64.encode(), a call that
+     * is followed by more data for the same text must supply a
+     * multiple of three bytes.
+     */
+    public void base64(byte[] data, int offset, int length) throws IOException {
+        depthOfFlatness = depth;
+        closeStartTag();
+        int end = offset + length;
+        while (offset < end) {
+            int room = buffer.length - position;
+            if (room < 4) {
+                flushBuffer();
+                room = buffer.length;
+            }
+            int chunk = Math.min(end - offset, (room / 4) * 3);
+            position = Base64.encode(data, offset, offset + chunk, buffer, position);
+            offset += chunk;
+        }
+    }
+
+    /**
+     * Write 64-bit words as hex, for encrypted values, with their
+     * digits generated straight into the buffer.  Element text is
+     * begun with beginText(), and an attribute value with
+     * beginAttribute() and ended with endAttribute(); in between,
+     * hexWord() writes each word as 16 digits.
+     */
+    public void beginText() throws IOException {
+        depthOfFlatness = depth;
+        closeStartTag();
+    }
+
+    public void beginAttribute(byte[] attributeNameBytes) throws IOException {
+        writeBytes(attributeNameBytes);
+    }
+
+    public void endAttribute() throws IOException {
+        writeByte('"');
+    }
+
+    public void hexWord(long word) throws IOException {
+        ensure(16);
+        position = Hex.encode(word, buffer, position);
+    }
+
+    public void endTag(byte[] endTagBytes) throws IOException {
+        if (beginEndTag()) {
+            writeBytes(endTagBytes);
+        }
+        finishEndTag();
+    }
+
+    public void endTag(String tag) throws IOException {
+        if (beginEndTag()) {
+            writeByte('<');
+            writeByte('/');
+            writeRaw(tag);
+            writeByte('>');
+        }
+        finishEndTag();
+    }
+
+    // returns false if the element was empty and has been closed
+    // with " />", so no end tag is needed.
+    private boolean beginEndTag() throws IOException {
+        if (pretty && (depth < depthOfFlatness) && (lastDepth != depth)) {
+            indent(depth - 1);
+        }
+        if (pending) {
+            writeBytes(emptyTagEnd);
+            pending = false;
+            return false;
+        }
+        return true;
+    }
+
+    private void finishEndTag() {
+        lastDepth = depth;
+        depth--;
+        if (depth < depthOfFlatness) {
+            depthOfFlatness = MAX_DEPTH;
+        }
+    }
+
+    private void closeStartTag() throws IOException {
+        if (pending) {
+            writeByte('>');
+            pending = false;
+        }
+    }
+
+    // level is always below MAX_DEPTH, so the slice always fits.
+    private void indent(int level) throws IOException {
+        closeStartTag();
+        int length = 1 + 4*level;
+        ensure(length);
+        System.arraycopy(INDENTATION, 0, buffer, position, length);
+        position += length;
+    }
+
+    //// encoding
+
+    private void writeEscaped(String s, byte[][] escapes) throws IOException {
+        int length = s.length();
+        int i = 0;
+        while (i < length) {
+            // fast path: copy a run of ASCII that needs no escaping,
+            // bounded by the space left in the buffer.
+            int room = buffer.length - position;
+            if (room <= MAX_SEQUENCE) {
+                flushBuffer();
+                room = buffer.length;
+            }
+            int limit = Math.min(length, i + room - MAX_SEQUENCE);
+            while (i < limit) {
+                char c = s.charAt(i);
+                if ((c >= 0x80) || (escapes[c] != null)) {
+                    break;
+                }
+                buffer[position++] = (byte)c;
+                i++;
+            }
+            if (i >= limit) {
+                continue;
+            }
+
+            // slow path: one character needing an escape or a
+            // multi-byte encoding.  The room check above leaves space
+            // for the longest sequence.
+            char c = s.charAt(i++);
+            if (c < 0x80) {
+                byte[] escape = escapes[c];
+                System.arraycopy(escape, 0, buffer, position, escape.length);
+                position += escape.length;
+            } else if (Character.isHighSurrogate(c) && (i < length) && Character.isLowSurrogate(s.charAt(i))) {
+                encodeCodePoint(Character.toCodePoint(c, s.charAt(i++)));
+            } else if ((c >= 0xD800) && (c <= 0xDFFF)) {
+                // an unpaired surrogate cannot be encoded.
+                buffer[position++] = '?';
+            } else {
+                encodeCodePoint(c);
+            }
+        }
+    }
+
+    // write names and the XML declaration, which need no escaping.
+    private void writeRaw(String s) throws IOException {
+        int length = s.length();
+        for (int i=0; i<length; i++) {
+            ensure(MAX_SEQUENCE);
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte)c;
+            } else if (Character.isHighSurrogate(c) && (i+1 < length)) {
+                encodeCodePoint(Character.toCodePoint(c, s.charAt(++i)));
+            } else {
+                encodeCodePoint(c);
+            }
+        }
+    }
+
+    // the caller guarantees MAX_SEQUENCE bytes of room.
+    private void encodeCodePoint(int cp) throws IOException {
+        if (asciiOnly) {
+            buffer[position++] = '&';
+            buffer[position++] = '#';
+            int divisor = 1;
+            while (divisor <= cp / 10) {
+                divisor *= 10;
+            }
+            for (; divisor > 0; divisor /= 10) {
+                buffer[position++] = (byte)('0' + (cp / divisor) % 10);
+            }
+            buffer[position++] = ';';
+        } else if (writer != null) {
+            if (cp < 0x10000) {
+                writeChar((char)cp);
+            } else {
+                cp -= 0x10000;
+                writeChar((char)(0xD800 | (cp >> 10)));
+                writeChar((char)(0xDC00 | (cp & 0x3FF)));
+            }
+        } else if (cp < 0x800) {
+            buffer[position++] = (byte)(0xC0 | (cp >> 6));
+            buffer[position++] = (byte)(0x80 | (cp & 0x3F));
+        } else if (cp < 0x10000) {
+            buffer[position++] = (byte)(0xE0 | (cp >> 12));
+            buffer[position++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+            buffer[position++] = (byte)(0x80 | (cp & 0x3F));
+        } else {
+            buffer[position++] = (byte)(0xF0 | (cp >> 18));
+            buffer[position++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+            buffer[position++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+            buffer[position++] = (byte)(0x80 | (cp & 0x3F));
+        }
+    }
+
+    private void writeByte(char c) throws IOException {
+        if (position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = (byte)c;
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length - position) {
+            flushBuffer();
+            if (bytes.length > buffer.length) {
+                writeToSink(bytes, bytes.length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void ensure(int n) throws IOException {
+        if (buffer.length - position < n) {
+            flushBuffer();
+        }
+    }
+
+    //// sink
+
+    public void flush() throws IOException {
+        flushBuffer();
+        if (writer != null) {
+            writeChars();
+        }
+        flushSink();
+    }
+
+    private void flushSink() throws IOException {
+        if (out != null) {
+            out.flush();
+        } else {
+            writer.flush();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            writeToSink(buffer, position);
+            position = 0;
+        }
+    }
+
+    private void writeToSink(byte[] bytes, int length) throws IOException {
+        if (out != null) {
+            out.write(bytes, 0, length);
+            if (flushEachBuffer) {
+                out.flush();
+            }
+            return;
+        }
+
+        // widen into the char buffer.  Only pre-encoded names can hold
+        // multi-byte sequences, and flushes never split one.
+        int i = 0;
+        while (i < length) {
+            if (charCount > chars.length - 2) {
+                writeChars();
+            }
+            int b = bytes[i++];
+            if (b >= 0) {
+                chars[charCount++] = (char)b;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[charCount++] = (char)(((b & 0x1F) << 6) | (bytes[i++] & 0x3F));
+            } else if ((b & 0xF0) == 0xE0) {
+                chars[charCount++] = (char)(((b & 0x0F) << 12) | ((bytes[i++] & 0x3F) << 6) | (bytes[i++] & 0x3F));
+            } else {
+                int cp = ((b & 0x07) << 18) | ((bytes[i++] & 0x3F) << 12) | ((bytes[i++] & 0x3F) << 6) | (bytes[i++] & 0x3F);
+                cp -= 0x10000;
+                chars[charCount++] = (char)(0xD800 | (cp >> 10));
+                chars[charCount++] = (char)(0xDC00 | (cp & 0x3FF));
+            }
+        }
+    }
+
+    // add a char of text for a character sink, after whatever the
+    // byte buffer holds.
+    private void writeChar(char c) throws IOException {
+        flushBuffer();
+        if (charCount == chars.length) {
+            writeChars();
+        }
+        chars[charCount++] = c;
+    }
+
+    private void writeChars() throws IOException {
+        if (charCount > 0) {
+            writer.write(chars, 0, charCount);
+            charCount = 0;
+            if (flushEachBuffer) {
+                writer.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.xmlfoo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Supplies the XML parsers that XmlFoo deserializes from, so the
+ * library is not tied to one platform's parser.  XmlPullBackend works
+ * wherever an XmlPull implementation is available: the platform
+ * parser on Android, or kXML, XPP3, etc. on a JVM.  The default,
+ * Utf8Backend, reads byte streams with xmlfoo's own parser and uses
+ * XmlPullBackend for everything else.  Other parsers can be plugged
+ * in by returning an adapter that implements XmlPullParser (for
+ * example, the StAX backend in the jvm module).
+ *
+ * Serialization does not go through the backend; documents are always
+ * written by xmlfoo's own UTF-8 writer, which has no platform
+ * dependencies.
+ *
+ * A backend is shared by every deserializer of an XmlFoo, so its
+ * methods must be safe to call from multiple threads.
+ */
+public abstract class XmlBackend {
+
+    /**
+     * Return a new parser, configured to report namespace-qualified
+     * names as local names (as android.util.Xml.newPullParser() does).
+     * The deserializer supplies its input with setInput().
+     */
+    public abstract XmlPullParser newPullParser() throws XmlPullParserException;
+
+    /**
+     * Return a parser reading from a character stream.  Backends may
+     * override this and the InputStream variant to choose a parser
+     * according to the input.
+     */
+    public XmlPullParser newPullParser(Reader in) throws XmlPullParserException, IOException {
+        XmlPullParser xpp = newPullParser();
+        xpp.setInput(in);
+        return xpp;
+    }
+
+    /**
+     * Return a parser reading from a byte stream.  If encoding is
+     * null, the parser determines it from the document.
+     */
+    public XmlPullParser newPullParser(InputStream in, String encoding) throws XmlPullParserException, IOException {
+        XmlPullParser xpp = newPullParser();
+        xpp.setInput(in, encoding);
+        return xpp;
+    }
+
+}
@@ -17,40 +17,454 @@
 
 package com.cafbit.xmlfoo;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
 import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.cafbit.xmlfoo.annotations.SingletonCode;
 
+/**
+ * The entry point for serializing and deserializing objects.
+ *
+ * An XmlFoo built with XmlFoo.Builder is frozen: its discriminator
+ * classes, singletons, and options are fixed at construction, so a
+ * single instance may be shared by any number of threads without
+ * locking.  The legacy mutators (addDiscriminatorClass(), etc.) are
+ * still available on instances created with "new XmlFoo()"; they
+ * replace the lookup tables copy-on-write, so concurrent readers
+ * always see a consistent table, but they fail on frozen instances.
+ */
 public class XmlFoo {
     
+    static final String GENERATED_CODEC_SUFFIX = "_XmlFooCodec";
+    
+    /**
+     * The layout of serialized documents.  PRETTY (the default) puts
+     * each element on its own line, indented four spaces per level.
+     * COMPACT writes no whitespace between elements at all, for
+     * documents that are only ever read by machines.
+     */
+    public enum OutputProfile {
+        PRETTY,
+        COMPACT
+    };
+    
+    /**
+     * When a document streamed to a Writer or OutputStream is flushed
+     * through to the sink.  DOCUMENT (the default) flushes once, when
+     * the document is complete.  ELEMENT also flushes after each child
+     * element of the root, so each record of a long export reaches
+     * the sink as soon as it has been written.  BUFFER flushes every
+     * time the serializer's buffer is handed to the sink, so no more
+     * than one buffer of output is ever held back.  Serializing to a
+     * String is unaffected.
+     */
+    public enum FlushPolicy {
+        DOCUMENT,
+        ELEMENT,
+        BUFFER
+    };
+    
     // this map holds a set of candidate classes for
     // each specified non-concrete class.  these will
     // be resolved via a discriminator string.
-    Map<Class<?>, Map<String,Class<?>>> discriminatorClassMap =
-        new HashMap<Class<?>, Map<String,Class<?>>>();
+    // (read-only; replaced as a whole on modification.)
+    volatile Map<Class<?>, Map<String,Class<?>>> discriminatorClassMap =
+        Collections.emptyMap();
     
     // this map holds a set of candidate singleton objects with
     // their corresponding string codes.
-    Map<String, Object> singletonMap =
-        new HashMap<String, Object>();
+    // (read-only; replaced as a whole on modification.)
+    volatile Map<String, Object> singletonMap =
+        Collections.emptyMap();
+    
+    // set for instances produced by a Builder.
+    private final boolean frozen;
+    
+    // binding metadata for each class seen so far.  this is
+    // populated lazily and shared by all serializers and
+    // deserializers created by this instance.
+    private final ConcurrentMap<Class<?>, ClassDescriptor> classDescriptorMap =
+        new ConcurrentHashMap<Class<?>, ClassDescriptor>();
+    
+    // codecs registered with addCodecs(), by bound class.
+    // (read-only; replaced as a whole on modification.)
+    volatile Map<Class<?>, XmlFooCodec> registeredCodecMap =
+        Collections.emptyMap();
+    
+    // codecs generated by the annotation processor are always used
+    // when present; unregistered ones are found by name on first use.
+    private final ConcurrentMap<Class<?>, XmlFooCodec> generatedCodecMap =
+        new ConcurrentHashMap<Class<?>, XmlFooCodec>();
+    private final ConcurrentMap<Class<?>, Boolean> generatedCodecMisses =
+        new ConcurrentHashMap<Class<?>, Boolean>();
+    
+    private volatile OutputProfile outputProfile = OutputProfile.PRETTY;
+    private volatile FlushPolicy flushPolicy = FlushPolicy.DOCUMENT;
+    
+    // see setSizeHints().
+    private volatile boolean sizeHints = false;
+    
+    // shared, so the platform's parser factory is only looked up once.
+    private static final XmlBackend DEFAULT_BACKEND = new Utf8Backend();
+    private volatile XmlBackend backend = DEFAULT_BACKEND;
+    
+    // the built-in DES key, as every earlier version used.
+    private static final FieldCipher DEFAULT_FIELD_CIPHER = new DESFieldCipher();
+    private volatile FieldCipher fieldCipher = DEFAULT_FIELD_CIPHER;
+    
+    // the deepest nesting of objects and collections that will be
+    // serialized or deserialized.  see setMaxDepth().
+    static final int DEFAULT_MAX_DEPTH = 10000;
+    private volatile int maxDepth = DEFAULT_MAX_DEPTH;
+    
+    public XmlFoo() {
+        this.frozen = false;
+    }
     
-    public void addDiscriminatorClass(Class<?> baseClass, String discriminator, Class<?> concreteClass) {
+    private XmlFoo(Builder builder) {
+        this.frozen = true;
+        this.discriminatorClassMap = freeze(builder.discriminatorClassMap);
+        this.singletonMap = Collections.unmodifiableMap(new HashMap<String, Object>(builder.singletonMap));
+        this.registeredCodecMap = Collections.unmodifiableMap(new HashMap<Class<?>, XmlFooCodec>(builder.registeredCodecMap));
+        this.outputProfile = builder.outputProfile;
+        this.flushPolicy = builder.flushPolicy;
+        this.sizeHints = builder.sizeHints;
+        this.backend = builder.backend;
+        this.fieldCipher = builder.fieldCipher;
+        this.maxDepth = builder.maxDepth;
+    }
+    
+    /**
+     * Collects configuration for a frozen, thread-safe XmlFoo.
+     */
+    public static class Builder {
+        
+        private final Map<Class<?>, Map<String,Class<?>>> discriminatorClassMap =
+            new HashMap<Class<?>, Map<String,Class<?>>>();
+        private final Map<String, Object> singletonMap =
+            new HashMap<String, Object>();
+        private final Map<Class<?>, XmlFooCodec> registeredCodecMap =
+            new HashMap<Class<?>, XmlFooCodec>();
+        private OutputProfile outputProfile = OutputProfile.PRETTY;
+        private FlushPolicy flushPolicy = FlushPolicy.DOCUMENT;
+        private boolean sizeHints = false;
+        private XmlBackend backend = DEFAULT_BACKEND;
+        private FieldCipher fieldCipher = DEFAULT_FIELD_CIPHER;
+        private int maxDepth = DEFAULT_MAX_DEPTH;
+        
+        public Builder addDiscriminatorClass(Class<?> baseClass, String discriminator, Class<?> concreteClass) {
+            putDiscriminatorClass(discriminatorClassMap, baseClass, discriminator, concreteClass);
+            return this;
+        }
+        
+        public Builder addSingleton(Object object) {
+            putSingleton(singletonMap, object);
+            return this;
+        }
+        
+        public Builder addCodecs(XmlFooCodec... codecs) {
+            putCodecs(registeredCodecMap, codecs);
+            return this;
+        }
+        
+        public Builder setOutputProfile(OutputProfile outputProfile) {
+            this.outputProfile = checkOutputProfile(outputProfile);
+            return this;
+        }
+        
+        public Builder setFlushPolicy(FlushPolicy flushPolicy) {
+            this.flushPolicy = checkFlushPolicy(flushPolicy);
+            return this;
+        }
+        
+        public Builder setSizeHints(boolean sizeHints) {
+            this.sizeHints = sizeHints;
+            return this;
+        }
+        
+        public Builder setBackend(XmlBackend backend) {
+            this.backend = checkBackend(backend);
+            return this;
+        }
+        
+        public Builder setFieldCipher(FieldCipher fieldCipher) {
+            this.fieldCipher = checkFieldCipher(fieldCipher);
+            return this;
+        }
+        
+        public Builder setMaxDepth(int maxDepth) {
+            this.maxDepth = checkMaxDepth(maxDepth);
+            return this;
+        }
+        
+        public XmlFoo build() {
+            return new XmlFoo(this);
+        }
+    }
+    
+    private static void putDiscriminatorClass(Map<Class<?>, Map<String,Class<?>>> map, Class<?> baseClass, String discriminator, Class<?> concreteClass) {
         // look up the candidate map for this base class
-        Map<String,Class<?>> classMap = discriminatorClassMap.get(baseClass);
+        Map<String,Class<?>> classMap = map.get(baseClass);
         if (classMap == null) {
             classMap = new HashMap<String, Class<?>>();
-            discriminatorClassMap.put(baseClass, classMap);
+            map.put(baseClass, classMap);
         }
         classMap.put(discriminator, concreteClass);
     }
     
-    public void addSingleton(Object object) {
+    private static void putSingleton(Map<String, Object> map, Object object) {
         SingletonCode singletonCode = object.getClass().getAnnotation(SingletonCode.class);
         if (singletonCode != null) {
-            singletonMap.put(singletonCode.value(), object);
+            map.put(singletonCode.value(), object);
+        }
+    }
+    
+    private static void putCodecs(Map<Class<?>, XmlFooCodec> map, XmlFooCodec[] codecs) {
+        for (XmlFooCodec codec : codecs) {
+            if (codec == null) {
+                throw new IllegalArgumentException("codec cannot be null");
+            }
+            map.put(codec.getType(), codec);
+        }
+    }
+    
+    // deep-copy a discriminator map into read-only form.
+    private static Map<Class<?>, Map<String,Class<?>>> freeze(Map<Class<?>, Map<String,Class<?>>> map) {
+        Map<Class<?>, Map<String,Class<?>>> copy = new HashMap<Class<?>, Map<String,Class<?>>>();
+        for (Map.Entry<Class<?>, Map<String,Class<?>>> entry : map.entrySet()) {
+            copy.put(entry.getKey(), Collections.unmodifiableMap(new HashMap<String,Class<?>>(entry.getValue())));
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+    
+    private static OutputProfile checkOutputProfile(OutputProfile outputProfile) {
+        if (outputProfile == null) {
+            throw new IllegalArgumentException("outputProfile cannot be null");
+        }
+        return outputProfile;
+    }
+    
+    private static FlushPolicy checkFlushPolicy(FlushPolicy flushPolicy) {
+        if (flushPolicy == null) {
+            throw new IllegalArgumentException("flushPolicy cannot be null");
+        }
+        return flushPolicy;
+    }
+    
+    private static XmlBackend checkBackend(XmlBackend backend) {
+        if (backend == null) {
+            throw new IllegalArgumentException("backend cannot be null");
+        }
+        return backend;
+    }
+    
+    private static FieldCipher checkFieldCipher(FieldCipher fieldCipher) {
+        if (fieldCipher == null) {
+            throw new IllegalArgumentException("fieldCipher cannot be null");
+        }
+        return fieldCipher;
+    }
+    
+    private static int checkMaxDepth(int maxDepth) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("maxDepth must be at least 1");
+        }
+        return maxDepth;
+    }
+    
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("This XmlFoo was built by XmlFoo.Builder and cannot be modified.");
+        }
+    }
+    
+    public synchronized void addDiscriminatorClass(Class<?> baseClass, String discriminator, Class<?> concreteClass) {
+        checkNotFrozen();
+        Map<Class<?>, Map<String,Class<?>>> map = new HashMap<Class<?>, Map<String,Class<?>>>();
+        for (Map.Entry<Class<?>, Map<String,Class<?>>> entry : discriminatorClassMap.entrySet()) {
+            map.put(entry.getKey(), new HashMap<String,Class<?>>(entry.getValue()));
+        }
+        putDiscriminatorClass(map, baseClass, discriminator, concreteClass);
+        discriminatorClassMap = freeze(map);
+    }
+    
+    public synchronized void addSingleton(Object object) {
+        checkNotFrozen();
+        Map<String, Object> map = new HashMap<String, Object>(singletonMap);
+        putSingleton(map, object);
+        singletonMap = Collections.unmodifiableMap(map);
+    }
+    
+    /**
+     * Register codecs for their bound classes, typically the array
+     * returned by the XmlFooCodecs index that the annotation
+     * processor generates in each package.  A registered codec is
+     * used without looking its class up by name, so an application
+     * that registers all of its generated codecs loads no classes
+     * reflectively to find them.  A registered codec replaces any
+     * earlier one for the same class.
+     */
+    public synchronized void addCodecs(XmlFooCodec... codecs) {
+        checkNotFrozen();
+        Map<Class<?>, XmlFooCodec> map = new HashMap<Class<?>, XmlFooCodec>(registeredCodecMap);
+        putCodecs(map, codecs);
+        registeredCodecMap = Collections.unmodifiableMap(map);
+    }
+    
+    /**
+     * Select the layout of serialized documents.  See OutputProfile.
+     */
+    public void setOutputProfile(OutputProfile outputProfile) {
+        checkNotFrozen();
+        this.outputProfile = checkOutputProfile(outputProfile);
+    }
+    
+    public OutputProfile getOutputProfile() {
+        return outputProfile;
+    }
+    
+    /**
+     * Select when streamed output is flushed to its sink.  See
+     * FlushPolicy.
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        checkNotFrozen();
+        this.flushPolicy = checkFlushPolicy(flushPolicy);
+    }
+    
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+    
+    /**
+     * Enable or disable size hints.  When enabled, every collection
+     * and array is written with a size attribute holding its element
+     * count, e.g. <names size="2">, so the deserializer can allocate
+     * the list or array at its final size instead of growing it.
+     * Hints are always used when present in a document being read,
+     * whatever this setting, but since a document could claim any
+     * size, a large hint is only followed as far as the elements
+     * actually read bear it out.  Disabled by default.
+     */
+    public void setSizeHints(boolean sizeHints) {
+        checkNotFrozen();
+        this.sizeHints = sizeHints;
+    }
+    
+    public boolean getSizeHints() {
+        return sizeHints;
+    }
+    
+    /**
+     * Select the source of XML parsers for deserialization.  See
+     * XmlBackend.  The default is a Utf8Backend.
+     */
+    public void setBackend(XmlBackend backend) {
+        checkNotFrozen();
+        this.backend = checkBackend(backend);
+    }
+    
+    public XmlBackend getBackend() {
+        return backend;
+    }
+    
+    /**
+     * Select the cipher for @LameCrypt fields.  See FieldCipher.  The
+     * default is a DESFieldCipher with the built-in key, which is
+     * compatible with documents written by earlier versions.
+     */
+    public void setFieldCipher(FieldCipher fieldCipher) {
+        checkNotFrozen();
+        this.fieldCipher = checkFieldCipher(fieldCipher);
+    }
+    
+    public FieldCipher getFieldCipher() {
+        return fieldCipher;
+    }
+    
+    /**
+     * Limit how deeply objects and collections may be nested.  The
+     * root element is depth 1, and each object or collection element
+     * inside it adds one level; scalars do not count.  Serializing or
+     * deserializing anything deeper fails with an XmlFooException,
+     * which also stops a cyclic object graph from being written
+     * forever.  Nesting is tracked on an explicit stack rather than
+     * the thread's call stack, so the limit can be raised well beyond
+     * what recursion would allow.  The default is 10000.
+     */
+    public void setMaxDepth(int maxDepth) {
+        checkNotFrozen();
+        this.maxDepth = checkMaxDepth(maxDepth);
+    }
+    
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+    
+    // return the codec for the specified class, or null if the
+    // generic reflective path should be used.
+    XmlFooCodec getCodec(Class<?> cls) throws XmlFooException {
+        XmlFooCodec codec = registeredCodecMap.get(cls);
+        if (codec != null) {
+            return codec;
+        }
+        codec = generatedCodecMap.get(cls);
+        if (codec != null) {
+            return codec;
         }
+        if (! generatedCodecMisses.containsKey(cls)) {
+            codec = loadGeneratedCodec(cls);
+            if (codec != null) {
+                return putCodec(generatedCodecMap, cls, codec);
+            }
+            generatedCodecMisses.put(cls, Boolean.TRUE);
+        }
+        return null;
+    }
+    
+    // two threads may race to build the same codec; they are
+    // equivalent, so whichever gets stored first wins.
+    private static XmlFooCodec putCodec(ConcurrentMap<Class<?>, XmlFooCodec> map, Class<?> cls, XmlFooCodec codec) {
+        XmlFooCodec existing = map.putIfAbsent(cls, codec);
+        return (existing != null) ? existing : codec;
+    }
+    
+    // look for a codec emitted by the annotation processor.
+    private static XmlFooCodec loadGeneratedCodec(Class<?> cls) throws XmlFooException {
+        Class<?> codecClass;
+        try {
+            codecClass = Class.forName(cls.getName()+GENERATED_CODEC_SUFFIX, true, cls.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+        try {
+            return (XmlFooCodec) codecClass.getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw new XmlFooException("cannot instantiate generated codec "+codecClass.getName(), e);
+        }
+    }
+    
+    ClassDescriptor getClassDescriptor(Class<?> cls) throws XmlFooException {
+        ClassDescriptor descriptor = classDescriptorMap.get(cls);
+        if (descriptor == null) {
+            // two threads may race to build the same descriptor; they
+            // are equivalent, so whichever gets stored first wins.
+            descriptor = new ClassDescriptor(cls);
+            ClassDescriptor existing = classDescriptorMap.putIfAbsent(cls, descriptor);
+            if (existing != null) {
+                descriptor = existing;
+            }
+        }
+        return descriptor;
     }
     
     //// deserialize
@@ -65,6 +479,56 @@ public class XmlFoo {
         return deserializer.deserialize(xml, cls, parameterType);
     }
     
+    /**
+     * Deserialize from a Reader, parsing incrementally as the text
+     * arrives.  The reader is not closed.
+     */
+    public Object deserialize(Reader reader, Class<?> cls) throws XmlFooException {
+        XmlFooDeserializer deserializer = new XmlFooDeserializer(this);
+        return deserializer.deserialize(reader, cls);
+    }
+    
+    public Object deserialize(Reader reader, Class<?> cls, Type parameterType) throws XmlFooException {
+        XmlFooDeserializer deserializer = new XmlFooDeserializer(this);
+        return deserializer.deserialize(reader, cls, parameterType);
+    }
+    
+    /**
+     * Deserialize from an InputStream, parsing incrementally as the
+     * bytes arrive.  A null charset means the encoding is taken from
+     * the XML declaration.  The stream is not closed.
+     */
+    public Object deserialize(InputStream in, Charset charset, Class<?> cls) throws XmlFooException {
+        XmlFooDeserializer deserializer = new XmlFooDeserializer(this);
+        return deserializer.deserialize(in, charset, cls);
+    }
+    
+    public Object deserialize(InputStream in, Charset charset, Class<?> cls, Type parameterType) throws XmlFooException {
+        XmlFooDeserializer deserializer = new XmlFooDeserializer(this);
+        return deserializer.deserialize(in, charset, cls, parameterType);
+    }
+    
+    /**
+     * Iterate over the elements of a document whose root element is a
+     * collection of elementType, binding one element per call to
+     * next().  Memory use stays constant regardless of the number of
+     * elements.  The encoding is taken from the XML declaration.
+     * Closing the iterator closes the stream.
+     */
+    public <T> XmlFooIterator<T> iterate(InputStream in, Class<T> elementType) throws XmlFooException {
+        return iterate(in, null, elementType);
+    }
+    
+    public <T> XmlFooIterator<T> iterate(InputStream in, Charset charset, Class<T> elementType) throws XmlFooException {
+        XmlFooDeserializer deserializer = new XmlFooDeserializer(this);
+        return deserializer.iterate(in, charset, elementType);
+    }
+    
+    public <T> XmlFooIterator<T> iterate(Reader reader, Class<T> elementType) throws XmlFooException {
+        XmlFooDeserializer deserializer = new XmlFooDeserializer(this);
+        return deserializer.iterate(reader, elementType);
+    }
+    
     //// serialize
     
     public String serialize(String baseTag, Object object) throws XmlFooException {
@@ -77,13 +541,32 @@ public class XmlFoo {
         return serializer.serialize(baseTag, elementTag, object, parameterType);
     }
     
-    //// LameCrypt
+    /**
+     * Serialize to a Writer without building the document in memory.
+     * The writer is flushed but not closed.
+     */
+    public void serialize(String baseTag, Object object, Writer writer) throws XmlFooException {
+        XmlFooSerializer serializer = new XmlFooSerializer(this);
+        serializer.serialize(baseTag, object, writer);
+    }
     
-    String lameEncrypt(String plaintext) {
-        return DES.lameEncrypt(plaintext, null);
+    public void serialize(String baseTag, String elementTag, Object object, Type parameterType, Writer writer) throws XmlFooException {
+        XmlFooSerializer serializer = new XmlFooSerializer(this);
+        serializer.serialize(baseTag, elementTag, object, parameterType, writer);
     }
     
-    String lameDecrypt(String ciphertext) {
-        return DES.lameDecrypt(ciphertext, null);
+    /**
+     * Serialize to an OutputStream in the specified charset without
+     * building the document in memory.  The stream is flushed but not
+     * closed.
+     */
+    public void serialize(String baseTag, Object object, OutputStream out, Charset charset) throws XmlFooException {
+        XmlFooSerializer serializer = new XmlFooSerializer(this);
+        serializer.serialize(baseTag, object, out, charset);
+    }
+    
+    public void serialize(String baseTag, String elementTag, Object object, Type parameterType, OutputStream out, Charset charset) throws XmlFooException {
+        XmlFooSerializer serializer = new XmlFooSerializer(this);
+        serializer.serialize(baseTag, elementTag, object, parameterType, out, charset);
     }
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.xmlfoo;
+
+/**
+ * A dedicated serializer/deserializer for one bound class.
+ *
+ * A codec declares the tags of the class's attributes and elements,
+ * in the same order (sorted by tag) that the reflective path uses.
+ * The position of a tag in these arrays is its "slot".  For each
+ * slot, the serializer and deserializer first offer the work to the
+ * codec; if the codec returns false, the slot is handled by the
+ * generic reflective path instead.  A codec therefore only needs to
+ * implement the fields it can handle efficiently, typically the
+ * scalars.
+ *
+ * Codecs are generated at build time by the xmlfoo annotation
+ * processor.  A generated codec for class com.example.Foo is named
+ * com.example.Foo_XmlFooCodec, and XmlFoo prefers it whenever it is
+ * present.  The processor also writes a com.example.XmlFooCodecs
+ * class whose codecs() method returns every codec generated for the
+ * package; passing that to XmlFoo.addCodecs() binds those classes
+ * without looking anything up by name.  Codecs that are not
+ * registered are still found with Class.forName() on first use.
+ *
+ * A generated codec only covers the slots it accepts.  The first time
+ * a declined slot (a LameCrypt, singleton, object or collection
+ * field) is met, the class's reflective descriptor is built as usual.
+ */
+public abstract class XmlFooCodec {
+
+    private final Class<?> type;
+    private final String[] attributeTags;
+    private final String[] elementTags;
+    private final TagTable attributeTable;
+    private final TagTable elementTable;
+
+    protected XmlFooCodec(Class<?> type, String[] attributeTags, String[] elementTags) {
+        this.type = type;
+        this.attributeTags = attributeTags;
+        this.elementTags = elementTags;
+        this.attributeTable = new TagTable(attributeTags);
+        this.elementTable = new TagTable(elementTags);
+    }
+
+    public final Class<?> getType() {
+        return type;
+    }
+
+    public final int getAttributeCount() {
+        return attributeTags.length;
+    }
+
+    public final int getElementCount() {
+        return elementTags.length;
+    }
+
+    public final String getAttributeTag(int slot) {
+        return attributeTags[slot];
+    }
+
+    public final String getElementTag(int slot) {
+        return elementTags[slot];
+    }
+
+    // return the slot for the supplied XML name, ignoring case, or -1.
+    final int getAttributeSlot(String name) {
+        return attributeTable.get(name);
+    }
+
+    final int getElementSlot(String name) {
+        return elementTable.get(name);
+    }
+
+    /**
+     * Create an empty instance of the bound class.
+     */
+    public abstract Object newInstance() throws Exception;
+
+    /**
+     * Write the attribute at the specified slot with
+     * XmlFooSerializer.writeAttribute(), or return false to use the
+     * generic path.
+     */
+    public abstract boolean writeAttribute(XmlFooSerializer serializer, Object object, int slot) throws Exception;
+
+    /**
+     * Write the element at the specified slot with
+     * XmlFooSerializer.writeElement(), or return false to use the
+     * generic path.
+     */
+    public abstract boolean writeElement(XmlFooSerializer serializer, Object object, int slot) throws Exception;
+
+    /**
+     * Bind an attribute value to the specified slot, or return false
+     * to use the generic path.
+     */
+    public abstract boolean readAttribute(XmlFooDeserializer deserializer, Object object, int slot, String value) throws Exception;
+
+    /**
+     * Bind the element at the specified slot, typically with
+     * XmlFooDeserializer.readText(), or return false to use the
+     * generic path.  If the codec returns false, it must not have
+     * consumed anything from the parser.
+     */
+    public abstract boolean readElement(XmlFooDeserializer deserializer, Object object, int slot) throws Exception;
+
+    //// helpers for generated codecs
+
+    /**
+     * Return the supplied element text, or fail if the element was
+     * empty and the target field is a primitive.
+     */
+    protected static String requireText(String text) throws XmlFooException {
+        if (text == null) {
+            throw new XmlFooException("Attempt to assign null to a primitive field.");
+        }
+        return text;
+    }
+
+    protected static boolean parseBoolean(String text) {
+        return XmlFooDeserializer.parseBoolean(text);
+    }
+
+    protected static char parseChar(String text) throws XmlFooException {
+        if (text.length() == 0) {
+            throw new XmlFooException("Attempt to assign null to a primitive field.");
+        }
+        return text.charAt(0);
+    }
+
+    /**
+     * Format a floating point attribute value the way the generic path
+     * does: the shortest text that parses back to the same value.
+     */
+    protected static String formatDouble(double value) {
+        return FloatingPointCodec.toString(value);
+    }
+
+    protected static String formatFloat(float value) {
+        return FloatingPointCodec.toString(value);
+    }
+
+    protected static <E extends Enum<E>> E parseEnum(Class<E> type, String text) {
+        if (text == null) {
+            return null;
+        }
+        return Enum.valueOf(type, text);
+    }
+}
@@ -17,59 +17,133 @@
 
 package com.cafbit.xmlfoo;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.io.StringReader;
 import java.lang.reflect.Array;
-import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
-import android.util.Xml;
-
 public class XmlFooDeserializer {
     
     private XmlFoo xmlFoo;
+    private XmlPullParser xpp;
+    private FieldCipher fieldCipher;
+    
+    // start and length of the parser's current text, for
+    // getTextCharacters().
+    private final int[] textHolder = new int[2];
     
     public XmlFooDeserializer(XmlFoo xmlFoo) {
         this.xmlFoo = xmlFoo;
     }
     
     public Object deserialize(String xml, Class<?> cls) throws XmlFooException {
+        return deserialize(new StringReader(xml), cls, null);
+    }
+
+    public Object deserialize(String xml, Class<?> cls, Type parameterType) throws XmlFooException {
+        return deserialize(new StringReader(xml), cls, parameterType);
+    }
+
+    /**
+     * Deserialize from a Reader.  The document is parsed incrementally
+     * as it is read, and is never held in memory as a whole.  The
+     * reader is not closed.
+     */
+    public Object deserialize(Reader reader, Class<?> cls) throws XmlFooException {
+        return deserialize(reader, cls, null);
+    }
+
+    public Object deserialize(Reader reader, Class<?> cls, Type parameterType) throws XmlFooException {
         try {
-            return deserializeFromXmlDocument(xml, cls, null);
+            XmlPullParser xpp = xmlFoo.getBackend().newPullParser(reader);
+            return deserializeFromXmlDocument(xpp, cls, parameterType);
         } catch (Exception e) {
-            if (e instanceof XmlFooException) {
-                throw (XmlFooException)e;
-            } else {
-                throw new XmlFooException(e);
-            }
+            throw toXmlFooException(e);
         }
     }
 
-    public Object deserialize(String xml, Class<?> cls, Type parameterType) throws XmlFooException {
+    /**
+     * Deserialize from an InputStream, decoding it with the supplied
+     * charset.  If charset is null, the parser determines the encoding
+     * from the XML declaration.  The stream is not closed.
+     */
+    public Object deserialize(InputStream in, Charset charset, Class<?> cls) throws XmlFooException {
+        return deserialize(in, charset, cls, null);
+    }
+
+    public Object deserialize(InputStream in, Charset charset, Class<?> cls, Type parameterType) throws XmlFooException {
         try {
-            return deserializeFromXmlDocument(xml, cls, parameterType);
+            XmlPullParser xpp = xmlFoo.getBackend().newPullParser(in, (charset == null) ? null : charset.name());
+            return deserializeFromXmlDocument(xpp, cls, parameterType);
         } catch (Exception e) {
-            if (e instanceof XmlFooException) {
-                throw (XmlFooException)e;
-            } else {
-                throw new XmlFooException(e);
-            }
+            throw toXmlFooException(e);
         }
     }
 
-    private Object deserializeFromXmlDocument(String xml, Class<?> cls, Type parameterType) throws Exception {
-        XmlPullParser xpp = Xml.newPullParser();
+    /**
+     * Return an iterator over the elements of a document whose root
+     * element is a collection.  Each call to next() parses and binds
+     * one element, so memory use does not grow with the number of
+     * elements.  Closing the iterator closes the reader.  If the
+     * iterator cannot be created, the reader is closed before the
+     * exception is thrown.
+     */
+    public <T> XmlFooIterator<T> iterate(Reader reader, Class<T> elementType) throws XmlFooException {
+        try {
+            XmlPullParser xpp = xmlFoo.getBackend().newPullParser(reader);
+            startIteration(xpp, elementType);
+            return new XmlFooIterator<T>(this, reader);
+        } catch (Exception e) {
+            closeQuietly(reader);
+            throw toXmlFooException(e);
+        }
+    }
+
+    public <T> XmlFooIterator<T> iterate(InputStream in, Charset charset, Class<T> elementType) throws XmlFooException {
+        try {
+            XmlPullParser xpp = xmlFoo.getBackend().newPullParser(in, (charset == null) ? null : charset.name());
+            startIteration(xpp, elementType);
+            return new XmlFooIterator<T>(this, in);
+        } catch (Exception e) {
+            closeQuietly(in);
+            throw toXmlFooException(e);
+        }
+    }
+    
+    // close a source that will never be handed to an iterator.  the
+    // failure that got us here is the one worth reporting.
+    private static void closeQuietly(Closeable source) {
+        try {
+            source.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
 
-        xpp.setInput(new StringReader(xml));
+    private static XmlFooException toXmlFooException(Exception e) {
+        if (e instanceof XmlFooException) {
+            return (XmlFooException)e;
+        } else {
+            return new XmlFooException(e);
+        }
+    }
+
+    private Object deserializeFromXmlDocument(XmlPullParser xpp, Class<?> cls, Type parameterType) throws Exception {
+        this.xpp = xpp;
+        this.maxDepth = xmlFoo.getMaxDepth();
+        this.fieldCipher = xmlFoo.getFieldCipher();
         int eventType = xpp.getEventType();
         
         Object object = null;
@@ -79,10 +153,8 @@ public class XmlFooDeserializer {
                     throw new XmlFooException("More than one root element not supported!");
                 }
                 Node node = new Node(xpp.getName(), null, cls, parameterType);
-                if (node.category == Node.Category.OBJECT) {
-                    object = deserializeObject(xpp, node);
-                } else if (node.category == Node.Category.COLLECTION) {
-                    object = deserializeCollection(xpp, node);
+                if (node.category != Node.Category.SCALAR) {
+                    object = deserializeItem(node);
                 }
             }
             eventType = xpp.next();
@@ -91,7 +163,7 @@ public class XmlFooDeserializer {
         return object;
     }
     
-    private void skipToEndTag(XmlPullParser xpp) throws XmlPullParserException, IOException {
+    private void skipToEndTag() throws XmlPullParserException, IOException {
         int level = 0;
         while (true) {
             int eventType = xpp.next();
@@ -109,29 +181,105 @@ public class XmlFooDeserializer {
         }
     }
     
-    private Object deserializeObject(XmlPullParser xpp, Node node) throws Exception {
-        //Class<?> cls = node.type;
-        
-        // process attributes
+    // read an element and everything nested in it, with the parser
+    // positioned on its start tag.  objects and collections are not
+    // read recursively: beginItem() pushes a frame for them, and this
+    // loop binds each frame's children until the stack is back where
+    // it started.  a finished frame's value is handed to the frame
+    // below it, or returned.
+    private Object deserializeItem(Node node) throws Exception {
+        int base = depth;
+        Object value = beginItem(node);
+        while (depth > base) {
+            Frame frame = frames[depth-1];
+            if (frame.isCollection) {
+                if (nextCollectionElement()) {
+                    Object element = beginItem(frame.node.childNode);
+                    if (element != PENDING) {
+                        addElement(frame, element);
+                    }
+                    continue;
+                }
+                value = collectionValue(frame);
+            } else {
+                int eventType = xpp.next();
+                if (eventType == XmlPullParser.START_TAG) {
+                    readElementSlot(frame);
+                    continue;
+                } else if (eventType == XmlPullParser.END_DOCUMENT) {
+                    throw new XmlFooException("Unexpected end of document inside an object.");
+                } else if (eventType != XmlPullParser.END_TAG) {
+                    continue;
+                }
+                value = frame.object;
+            }
+            popFrame(frame);
+            if (depth > base) {
+                Frame parent = frames[depth-1];
+                if (parent.isCollection) {
+                    addElement(parent, value);
+                } else {
+                    parent.pendingNode.setField(parent.object, value);
+                }
+            }
+        }
+        return value;
+    }
+    
+    // read a scalar element completely, or begin an object or
+    // collection and return PENDING.
+    private Object beginItem(Node node) throws Exception {
+        switch (node.category) {
+        case SCALAR:
+            return deserializeScalarElement(node);
+        case COLLECTION:
+            int sizeHint = readSizeHint();
+            if (node.primitiveArrayHandler != null) {
+                return node.primitiveArrayHandler.read(this, node.childNode, sizeHint);
+            }
+            Frame frame = pushFrame(node);
+            frame.isCollection = true;
+            // arrays are filled in place rather than copied from a
+            // list, and grow no further than an accurate hint.
+            frame.sizeHint = sizeHint;
+            if (sizeHint >= 0) {
+                frame.reservedCapacity = reserveCapacity(sizeHint);
+            }
+            if (node.type.isArray()) {
+                int capacity = (sizeHint >= 0) ? frame.reservedCapacity : INITIAL_ARRAY_CAPACITY;
+                frame.array = (Object[]) Array.newInstance(node.type.getComponentType(), capacity);
+            } else if (sizeHint >= 0) {
+                frame.list = new ArrayList<Object>(frame.reservedCapacity);
+            } else {
+                frame.list = new ArrayList<Object>();
+            }
+            return PENDING;
+        default:
+            return beginObject(node);
+        }
+    }
+    
+    private Object beginObject(Node node) throws Exception {
+        // pick out the attributes that decide what to build.  the
+        // others are bound from the parser's list once the class is
+        // known, so nothing is copied out of the parser.
         boolean isNull = false;
         String discriminator = null;
-        Map<String,String> attributes = new HashMap<String,String>();
-        for (int i=0; i<xpp.getAttributeCount(); i++) {
+        int attributeCount = xpp.getAttributeCount();
+        for (int i=0; i<attributeCount; i++) {
             String name = xpp.getAttributeName(i);
-            String value = xpp.getAttributeValue(i);
-            attributes.put(name, value);
-            
             if (name.equals("null")) {
+                String value = xpp.getAttributeValue(i);
                 if ((! value.equals("false")) && (! value.equals("0"))) {
                     isNull = true;
                 }
             } else if (name.equals("class")) {
-                discriminator = value;
+                discriminator = xpp.getAttributeValue(i);
             }
         }
         if (isNull) {
             // easy peasy!
-            skipToEndTag(xpp);
+            skipToEndTag();
             return null;
         }
 
@@ -160,158 +308,554 @@ public class XmlFooDeserializer {
             throw new XmlFooException("cannot instantiate class "+node.type.getName());
         }
         
-        Object object = cls.newInstance();
-
-        // build the node map
-        Map<String,Node> nodeMap = new HashMap<String,Node>();
-        for (Field field : cls.getFields()) {
-            Node n = new Node(field);
-            nodeMap.put(n.tag, n);
-        }
-        
-        // consume attributes...
-        for (Entry<String,String> entry : attributes.entrySet()) {
-            Node n = nodeMap.get(entry.getKey().toLowerCase());
-            if ((n != null) && n.isAttribute) {
-                if (n.isSingleton) {
-                    n.setField(object, xmlFoo.singletonMap.get(entry.getValue()));
-                } else if (n.category == Node.Category.SCALAR) {
-                    Object scalar = deserializeScalarValue(n, entry.getValue());
-                    n.setField(object, scalar);
-                } else {
-                    throw new XmlFooException("attributes must be of scalar value.");
+        XmlFooCodec codec = xmlFoo.getCodec(cls);
+        Object object;
+        // the descriptor is only needed for slots the codec declines.
+        ClassDescriptor descriptor = null;
+        if (codec != null) {
+            object = codec.newInstance();
+            
+            // consume attributes...
+            for (int i=0; i<attributeCount; i++) {
+                int slot = codec.getAttributeSlot(xpp.getAttributeName(i));
+                if (slot < 0) {
+                    continue;
+                }
+                String value = xpp.getAttributeValue(i);
+                if (! codec.readAttribute(this, object, slot, value)) {
+                    if (descriptor == null) {
+                        descriptor = xmlFoo.getClassDescriptor(cls);
+                    }
+                    bindAttribute(descriptor.attributeNodes[slot], object, value);
+                }
+            }
+        } else {
+            object = cls.newInstance();
+            descriptor = xmlFoo.getClassDescriptor(cls);
+            
+            // consume attributes...
+            for (int i=0; i<attributeCount; i++) {
+                int slot = descriptor.getAttributeSlot(xpp.getAttributeName(i));
+                if (slot >= 0) {
+                    bindAttribute(descriptor.attributeNodes[slot], object, xpp.getAttributeValue(i));
                 }
             }
         }
         
-        // consume tags
+        // the elements are consumed by deserializeItem().
+        Frame frame = pushFrame(node);
+        frame.object = object;
+        frame.codec = codec;
+        frame.descriptor = descriptor;
+        return PENDING;
+    }
+    
+    // bind the child element the parser is positioned on to the
+    // frame's object.
+    private void readElementSlot(Frame frame) throws Exception {
+        XmlFooCodec codec = frame.codec;
+        int slot;
+        if (codec != null) {
+            slot = codec.getElementSlot(xpp.getName());
+        } else {
+            slot = frame.descriptor.getElementSlot(xpp.getName());
+        }
+        if (slot < 0) {
+            skipToEndTag();
+            return;
+        }
+        if ((codec != null) && codec.readElement(this, frame.object, slot)) {
+            return;
+        }
+        if (frame.descriptor == null) {
+            frame.descriptor = xmlFoo.getClassDescriptor(codec.getType());
+        }
+        Node n = frame.descriptor.elementNodes[slot];
+        if (n.isPrimitive && !n.isSingleton) {
+            readPrimitiveElement(n, frame.object);
+        } else {
+            Object value = beginItem(n);
+            if (value == PENDING) {
+                frame.pendingNode = n;
+            } else {
+                n.setField(frame.object, value);
+            }
+        }
+    }
+    
+    // parse a primitive element straight from the parser's buffer
+    // into its field, and leave the parser at its end tag.
+    private void readPrimitiveElement(Node n, Object object) throws Exception {
+        if (! nextScalarText(n)) {
+            throw new XmlFooException("Attempt to assign null to a primitive field.");
+        }
+        char[] chars = xpp.getTextCharacters(textHolder);
+        if (n.isLameCrypt) {
+            n.accessor.setText(object, fieldCipher.decrypt(chars, textHolder[0], textHolder[1]));
+        } else {
+            n.converter.setPrimitive(n.accessor.field, object, chars, textHolder[0], textHolder[1]);
+        }
+        skipToEndTag();
+    }
+    
+    private void bindAttribute(Node n, Object object, String value) throws Exception {
+        if (n.isSingleton) {
+            n.setField(object, xmlFoo.singletonMap.get(value));
+        } else if (n.isPrimitive && n.isLameCrypt) {
+            n.accessor.setText(object, fieldCipher.decrypt(value));
+        } else if (n.isPrimitive) {
+            n.accessor.setText(object, value);
+        } else if (n.category == Node.Category.SCALAR) {
+            Object scalar = deserializeScalarValue(n, value);
+            n.setField(object, scalar);
+        } else {
+            throw new XmlFooException("attributes must be of scalar value.");
+        }
+    }
+    
+    // return the element count from a collection's size attribute,
+    // or -1 if it has none.  the hint only sizes allocations, so a
+    // wrong one costs a resize and is otherwise harmless, and a
+    // malformed one is ignored.  see reserveCapacity() for how far a
+    // hint is trusted.
+    private int readSizeHint() {
+        String value = xpp.getAttributeValue(null, "size");
+        if ((value == null) || (value.length() == 0) || (value.length() > 10)) {
+            return -1;
+        }
+        long size = 0;
+        for (int i=0; i<value.length(); i++) {
+            int digit = value.charAt(i) - '0';
+            if ((digit < 0) || (digit > 9)) {
+                return -1;
+            }
+            size = size*10 + digit;
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+    
+    // return the initial capacity for a collection with a size hint.
+    // a hint is only a claim, so it is trusted up to
+    // MAX_HINTED_CAPACITY elements, and beyond that the collection
+    // grows as its elements actually arrive (see grownCapacity()).
+    // the capacity of the collections still open is also drawn from a
+    // per-document budget, so deeply nested collections with false
+    // hints cannot each claim the maximum; once it is spent, hinted
+    // collections start out like unhinted ones.
+    int reserveCapacity(int sizeHint) {
+        int capacity = Math.min(sizeHint, MAX_HINTED_CAPACITY);
+        if (capacity > INITIAL_ARRAY_CAPACITY) {
+            capacity = Math.max(Math.min(capacity, hintBudget), INITIAL_ARRAY_CAPACITY);
+            if (capacity > INITIAL_ARRAY_CAPACITY) {
+                hintBudget -= capacity;
+            }
+        }
+        return capacity;
+    }
+    
+    // return the capacity reserved by reserveCapacity() once its
+    // collection is complete.
+    void releaseCapacity(int capacity) {
+        if (capacity > INITIAL_ARRAY_CAPACITY) {
+            hintBudget += capacity;
+        }
+    }
+    
+    // return the new capacity for a full collection of the given
+    // length: double the length, but no more than the hint if the
+    // elements read so far are consistent with it.  a collection is
+    // therefore never more than twice the size the document bears
+    // out, and an accurate hint needs no trimming.
+    static int grownCapacity(int length, int sizeHint) {
+        int capacity = Math.max(length*2, INITIAL_ARRAY_CAPACITY);
+        if ((sizeHint > length) && (sizeHint < capacity)) {
+            capacity = sizeHint;
+        }
+        return capacity;
+    }
+    
+    private static void addElement(Frame frame, Object element) {
+        if (frame.list != null) {
+            frame.list.add(element);
+            return;
+        }
+        Object[] array = frame.array;
+        if (frame.length == array.length) {
+            Object[] grown = (Object[]) Array.newInstance(array.getClass().getComponentType(), grownCapacity(array.length, frame.sizeHint));
+            System.arraycopy(array, 0, grown, 0, array.length);
+            array = frame.array = grown;
+        }
+        array[frame.length++] = element;
+    }
+    
+    // return the populated collection or array
+    private static Object collectionValue(Frame frame) {
+        if (frame.list != null) {
+            return frame.list;
+        }
+        Object[] array = frame.array;
+        if (frame.length == array.length) {
+            return array;
+        }
+        Object[] trimmed = (Object[]) Array.newInstance(array.getClass().getComponentType(), frame.length);
+        System.arraycopy(array, 0, trimmed, 0, frame.length);
+        return trimmed;
+    }
+    
+    //// frame stack
+    
+    private static final int INITIAL_ARRAY_CAPACITY = 16;
+    private static final int MAX_HINTED_CAPACITY = 1024;
+    private static final int HINT_BUDGET = 1 << 16;
+    
+    // collection capacity that open collections may still take on
+    // trust from their size hints.
+    private int hintBudget = HINT_BUDGET;
+    
+    // returned by beginItem() when the item's value is not complete
+    // until its frame is popped.
+    private static final Object PENDING = new Object();
+    
+    // the objects and collections currently open, innermost last.
+    // frames are reused from one element to the next, so only the
+    // deepest point of a document costs an allocation.
+    private Frame[] frames = new Frame[16];
+    private int depth = 0;
+    private int maxDepth;
+    
+    private static final class Frame {
+        Node node;
+        // an object being bound, with its codec and/or descriptor,
+        // and the field node of the child currently being read.
+        Object object;
+        XmlFooCodec codec;
+        ClassDescriptor descriptor;
+        Node pendingNode;
+        // the elements of a collection read so far, in a list or,
+        // for an array, straight into an array of the component type.
+        boolean isCollection;
+        List<Object> list;
+        Object[] array;
+        int length;
+        int sizeHint;
+        int reservedCapacity;
+    }
+    
+    private Frame pushFrame(Node node) throws XmlFooException {
+        if (depth == maxDepth) {
+            throw new XmlFooException("Maximum nesting depth of "+maxDepth+" exceeded at "+node+".");
+        }
+        if (depth == frames.length) {
+            Frame[] newFrames = new Frame[frames.length * 2];
+            System.arraycopy(frames, 0, newFrames, 0, depth);
+            frames = newFrames;
+        }
+        Frame frame = frames[depth];
+        if (frame == null) {
+            frame = frames[depth] = new Frame();
+        }
+        depth++;
+        frame.node = node;
+        return frame;
+    }
+    
+    // drop the frame's references, so the reused frame does not keep
+    // the object graph reachable.
+    private void popFrame(Frame frame) {
+        frame.node = null;
+        frame.object = null;
+        frame.codec = null;
+        frame.descriptor = null;
+        frame.pendingNode = null;
+        frame.isCollection = false;
+        frame.list = null;
+        frame.array = null;
+        frame.length = 0;
+        frame.sizeHint = -1;
+        releaseCapacity(frame.reservedCapacity);
+        frame.reservedCapacity = 0;
+        depth--;
+    }
+    
+    // advance to the start tag of the next collection element, or
+    // return false at the collection's end tag.
+    boolean nextCollectionElement() throws XmlPullParserException, IOException, XmlFooException {
         while (true) {
             int eventType = xpp.next();
-            if (eventType == XmlPullParser.START_TAG) {
-                Node n = nodeMap.get(xpp.getName().toLowerCase());
-                if (n != null && (! n.isAttribute)) {
-                    n.setField(object, deserializeItem(xpp,n));
-                } else {
-                    skipToEndTag(xpp);
+            if (eventType == XmlPullParser.TEXT) {
+                if (! xpp.isWhitespace()) {
+                    throw new XmlFooException("Non-whitespace text found at the collection level.  Expected elements.");
                 }
+            } else if (eventType == XmlPullParser.START_TAG) {
+                return true;
             } else if (eventType == XmlPullParser.END_TAG) {
-                break;
+                return false;
+            } else if (eventType == XmlPullParser.END_DOCUMENT) {
+                throw new XmlFooException("Unexpected end of document inside a collection.");
             }
         }
-        
-        return object;
     }
     
-    private Object deserializeItem(XmlPullParser xpp, Node node) throws Exception {
-        Object childObject = null;
-        
-        switch (node.category) {
-        case SCALAR:
-            childObject = deserializeScalarElement(xpp, node);
-            break;
-        case COLLECTION:
-            childObject = deserializeCollection(xpp, node);
-            break;
-        case OBJECT:
-            childObject = deserializeObject(xpp, node);
-            break;
+    private Object deserializeScalarElement(Node node) throws XmlPullParserException, IOException, XmlFooException {
+        if (node.isBinary) {
+            return deserializeBinaryElement(node);
         }
-        return childObject;
+        if (! nextScalarText(node)) {
+            return null;
+        }
+        Object value;
+        char[] chars = xpp.getTextCharacters(textHolder);
+        if (node.isLameCrypt && node.type.isAssignableFrom(String.class)) {
+            value = fieldCipher.decrypt(chars, textHolder[0], textHolder[1]);
+        } else if (node.isLameCrypt) {
+            value = node.converter.fromText(fieldCipher.decrypt(chars, textHolder[0], textHolder[1]));
+        } else {
+            value = node.converter.fromChars(chars, textHolder[0], textHolder[1]);
+        }
+        skipToEndTag();
+        return value;
     }
     
-    private Object deserializeCollection(XmlPullParser xpp, Node node) throws Exception {
-        List<Object> list = new ArrayList<Object>();
-        
+    // decode base64 text as the parser delivers it, without
+    // materializing it as a String.  unlike other scalars, an empty
+    // element is an empty array; only null="true" means null.
+    private Object deserializeBinaryElement(Node node) throws XmlPullParserException, IOException, XmlFooException {
+        String isNull = xpp.getAttributeValue(null, "null");
+        if ((isNull != null) && (! isNull.equals("false")) && (! isNull.equals("0"))) {
+            skipToEndTag();
+            return null;
+        }
+        Base64.Decoder decoder = new Base64.Decoder();
         while (true) {
             int eventType = xpp.next();
             if (eventType == XmlPullParser.TEXT) {
-                if (! xpp.isWhitespace()) {
-                    throw new XmlFooException("Non-whitespace text found at the collection level.  Expected elements.");
-                }
+                char[] chars = xpp.getTextCharacters(textHolder);
+                decoder.decode(chars, textHolder[0], textHolder[1]);
             } else if (eventType == XmlPullParser.START_TAG) {
-                Object object = deserializeItem(xpp, node.childNode);
-                list.add(object);
+                throw new XmlFooException("Trying to assign a non-scalar value to a binary node \""+node+"\".");
             } else if (eventType == XmlPullParser.END_TAG) {
-                // return the populated collection or array
-                if (node.type.isArray()) {
-                    Object array = Array.newInstance(node.type.getComponentType(), list.size());
-                    for (int i=0; i<list.size(); i++) {
-                        Array.set(array, i, list.get(i));
-                    }
-                    return array;
-                } else {
-                    return list;
-                }
+                break;
             }
         }
-        
+        return toBinaryValue(node, decoder.finish());
+    }
+    
+    private static Object toBinaryValue(Node node, byte[] bytes) {
+        if (node.type.equals(ByteBuffer.class)) {
+            return ByteBuffer.wrap(bytes);
+        } else {
+            return bytes;
+        }
+    }
+    
+    // return the text content of a scalar element and leave the parser
+    // at its end tag, or return null if the element is empty.  the
+    // target is only used for error messages.
+    String readScalarText(Object target) throws XmlPullParserException, IOException, XmlFooException {
+        if (nextScalarText(target)) {
+            String text = xpp.getText();
+            skipToEndTag();
+            return text;
+        } else {
+            return null;
+        }
+    }
+    
+    //// primitive array elements (see PrimitiveArrayHandler)
+    
+    // these parse the text of a primitive array element straight from
+    // the parser's buffer and leave the parser at its end tag.
+    
+    long readLong(Object target, long min, long max) throws XmlPullParserException, IOException, XmlFooException {
+        char[] chars = primitiveChars(target);
+        long value = ScalarConverter.parseLong(chars, textHolder[0], textHolder[1], min, max);
+        skipToEndTag();
+        return value;
+    }
+    
+    double readDouble(Object target) throws XmlPullParserException, IOException, XmlFooException {
+        char[] chars = primitiveChars(target);
+        double value = FloatingPointCodec.parseDouble(chars, textHolder[0], textHolder[1]);
+        skipToEndTag();
+        return value;
+    }
+    
+    float readFloat(Object target) throws XmlPullParserException, IOException, XmlFooException {
+        char[] chars = primitiveChars(target);
+        float value = FloatingPointCodec.parseFloat(chars, textHolder[0], textHolder[1]);
+        skipToEndTag();
+        return value;
+    }
+    
+    boolean readBoolean(Object target) throws XmlPullParserException, IOException, XmlFooException {
+        char[] chars = primitiveChars(target);
+        boolean value = ScalarConverter.parseBoolean(chars, textHolder[0], textHolder[1]);
+        skipToEndTag();
+        return value;
+    }
+    
+    char readChar(Object target) throws XmlPullParserException, IOException, XmlFooException {
+        char[] chars = primitiveChars(target);
+        char value = chars[textHolder[0]];
+        skipToEndTag();
+        return value;
+    }
+    
+    private char[] primitiveChars(Object target) throws XmlPullParserException, IOException, XmlFooException {
+        if (! nextScalarText(target)) {
+            throw new XmlFooException("Attempt to assign null to a primitive array element.");
+        }
+        return xpp.getTextCharacters(textHolder);
     }
     
-    private Object deserializeScalarElement(XmlPullParser xpp, Node node) throws XmlPullParserException, IOException, XmlFooException {
+    // advance to the text content of a scalar element and return
+    // true, or return false at the end tag if the element is empty.
+    // the caller must consume the text before moving the parser on.
+    private boolean nextScalarText(Object target) throws XmlPullParserException, IOException, XmlFooException {
         while (true) {
             int eventType = xpp.next();
             if (eventType == XmlPullParser.TEXT) {
                 if (! xpp.isWhitespace()) {
-                    if (node.category == Node.Category.SCALAR) {
-                        Object object = deserializeScalarValue(node, xpp.getText());
-                        skipToEndTag(xpp);
-                        return object;
-                    } else {
-                        throw new XmlFooException("Trying to assign a scalar value \""+xpp.getText()+"\" to a non-scalar node \""+node+"\".");
-                    }
+                    return true;
                 }
             } else if (eventType == XmlPullParser.START_TAG) {
-                throw new XmlFooException("Trying to assign a non-scalar value \""+xpp.getText()+"\" to a scalar node \""+node+"\".");
+                throw new XmlFooException("Trying to assign a non-scalar value \""+xpp.getText()+"\" to a scalar node \""+target+"\".");
             } else if (eventType == XmlPullParser.END_TAG) {
                 // my (premature!) end tag
-                return null;
+                return false;
             }
         }
     }
     
     private Object deserializeScalarValue(Node node, String text) throws XmlFooException {
-        if (node.type.isEnum()) {
-            return Enum.valueOf(((Class<Enum>)(node.type)), text);
-        } if (node.type.isAssignableFrom(String.class)) {
-            if (node.isLameCrypt) {
-                return xmlFoo.lameDecrypt(text);
-            } else {
-                return text;
-            }
-        } else if (node.isPrimitiveOrBoxed) {
-            if (node.type.equals(Byte.class) || (node.type.equals(byte.class))) {
-                return Byte.parseByte(text);
-            } else if (node.type.equals(Short.class) || (node.type.equals(short.class))) {
-                return Short.parseShort(text);
-            } else if (node.type.equals(Integer.class) || (node.type.equals(int.class))) {
-                return Integer.parseInt(text);
-            } else if (node.type.equals(Long.class) || (node.type.equals(long.class))) {
-                return Long.parseLong(text);
-            } else if (node.type.equals(Float.class) || (node.type.equals(float.class))) {
-                return Float.parseFloat(text);
-            } else if (node.type.equals(Double.class) || (node.type.equals(double.class))) {
-                return Double.parseDouble(text);
-            } else if (node.type.equals(Boolean.class) || (node.type.equals(boolean.class))) {
-                if (text.equalsIgnoreCase("true") || text.equals("1")) {
-                    return true;
-                } else {
-                    return false;
-                }
-            } else if (node.type.equals(Character.class) || (node.type.equals(char.class))) {
-                if (text.length() == 0) {
-                    // this will result in an NPE, but I don't think
-                    // there's any other reasonable way to handle this
-                    // oddball case.
-                    return null;
-                } else {
-                    return text.charAt(0);
-                }
-            } else {
-                // this never happens.
-                return null;
+        if (node.isBinary) {
+            return toBinaryValue(node, Base64.decode(text));
+        } else if (node.converter == null) {
+            throw new XmlFooException("Trying to assign a non-scalar node \""+node+"\" a scalar value \""+text+"\".");
+        } else if (node.isLameCrypt && node.type.isAssignableFrom(String.class)) {
+            return fieldCipher.decrypt(text);
+        } else if (node.isLameCrypt) {
+            // primitives and boxed values are encrypted as their text.
+            return node.converter.fromText(fieldCipher.decrypt(text));
+        } else {
+            return node.converter.fromText(text);
+        }
+    }
+    
+    //// iteration support (see XmlFooIterator)
+    
+    private Node iterationNode;
+    
+    // position the parser on the root element, and prepare to read
+    // its children as collection elements.
+    private void startIteration(XmlPullParser xpp, Class<?> elementType) throws Exception {
+        this.xpp = xpp;
+        this.maxDepth = xmlFoo.getMaxDepth();
+        this.fieldCipher = xmlFoo.getFieldCipher();
+        int eventType = xpp.getEventType();
+        while (eventType != XmlPullParser.START_TAG) {
+            if (eventType == XmlPullParser.END_DOCUMENT) {
+                throw new XmlFooException("No root element found.");
             }
+            eventType = xpp.next();
+        }
+        Node rootNode = new Node(xpp.getName(), null, List.class, elementType);
+        iterationNode = rootNode.childNode;
+    }
+    
+    boolean hasNextIterationElement() throws Exception {
+        return nextCollectionElement();
+    }
+    
+    Object nextIterationElement() throws Exception {
+        return deserializeItem(iterationNode);
+    }
+    
+    //// codec support
+    
+    /**
+     * Read the text content of the scalar element the parser is
+     * positioned on, leaving the parser at its end tag.  Returns null
+     * for an empty element.
+     */
+    public String readText() throws XmlPullParserException, IOException, XmlFooException {
+        return readScalarText(xpp.getName());
+    }
+    
+    /**
+     * Read the scalar element the parser is positioned on as a
+     * primitive, parsing it straight from the parser's buffer as the
+     * generic path does, and leave the parser at its end tag.  An
+     * empty element is an error.
+     */
+    public int readInt() throws XmlPullParserException, IOException, XmlFooException {
+        char[] chars = fieldChars();
+        int value = (int) ScalarConverter.parseLong(chars, textHolder[0], textHolder[1], Integer.MIN_VALUE, Integer.MAX_VALUE);
+        skipToEndTag();
+        return value;
+    }
+    
+    public long readLong() throws XmlPullParserException, IOException, XmlFooException {
+        char[] chars = fieldChars();
+        long value = ScalarConverter.parseLong(chars, textHolder[0], textHolder[1], Long.MIN_VALUE, Long.MAX_VALUE);
+        skipToEndTag();
+        return value;
+    }
+    
+    public short readShort() throws XmlPullParserException, IOException, XmlFooException {
+        char[] chars = fieldChars();
+        short value = (short) ScalarConverter.parseLong(chars, textHolder[0], textHolder[1], Short.MIN_VALUE, Short.MAX_VALUE);
+        skipToEndTag();
+        return value;
+    }
+    
+    public byte readByte() throws XmlPullParserException, IOException, XmlFooException {
+        char[] chars = fieldChars();
+        byte value = (byte) ScalarConverter.parseLong(chars, textHolder[0], textHolder[1], Byte.MIN_VALUE, Byte.MAX_VALUE);
+        skipToEndTag();
+        return value;
+    }
+    
+    public double readDouble() throws XmlPullParserException, IOException, XmlFooException {
+        char[] chars = fieldChars();
+        double value = FloatingPointCodec.parseDouble(chars, textHolder[0], textHolder[1]);
+        skipToEndTag();
+        return value;
+    }
+    
+    public float readFloat() throws XmlPullParserException, IOException, XmlFooException {
+        char[] chars = fieldChars();
+        float value = FloatingPointCodec.parseFloat(chars, textHolder[0], textHolder[1]);
+        skipToEndTag();
+        return value;
+    }
+    
+    public boolean readBoolean() throws XmlPullParserException, IOException, XmlFooException {
+        char[] chars = fieldChars();
+        boolean value = ScalarConverter.parseBoolean(chars, textHolder[0], textHolder[1]);
+        skipToEndTag();
+        return value;
+    }
+    
+    public char readChar() throws XmlPullParserException, IOException, XmlFooException {
+        char[] chars = fieldChars();
+        char value = chars[textHolder[0]];
+        skipToEndTag();
+        return value;
+    }
+    
+    private char[] fieldChars() throws XmlPullParserException, IOException, XmlFooException {
+        if (! nextScalarText(xpp.getName())) {
+            throw new XmlFooException("Attempt to assign null to a primitive field.");
+        }
+        return xpp.getTextCharacters(textHolder);
+    }
+    
+    static boolean parseBoolean(String text) {
+        if (text.equalsIgnoreCase("true") || text.equals("1")) {
+            return true;
         } else {
-            throw new XmlFooException("Trying to assign a non-scalar node \""+node+"\" a scalar value \""+text+"\".");
+            return false;
         }
     }
 }
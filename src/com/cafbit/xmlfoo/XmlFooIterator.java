@@ -0,0 +1,111 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.xmlfoo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the elements of a document whose root element is a
+ * collection, binding one element at a time as the parser advances.
+ * Obtained from XmlFoo.iterate().
+ *
+ * Because Iterator methods cannot throw checked exceptions, parse and
+ * binding failures are reported as an XmlFooIterator.IterationException
+ * wrapping the underlying XmlFooException.
+ */
+public class XmlFooIterator<T> implements Iterator<T>, Closeable {
+
+    /**
+     * An unchecked wrapper for an XmlFooException raised while
+     * iterating.
+     */
+    public static class IterationException extends RuntimeException {
+        private static final long serialVersionUID = 4164853412917339658L;
+        public IterationException(XmlFooException e) {
+            super(e.getMessage(), e);
+        }
+    }
+
+    private final XmlFooDeserializer deserializer;
+    private final Closeable source;
+
+    private boolean fetched = false;
+    private boolean finished = false;
+    private T next = null;
+
+    XmlFooIterator(XmlFooDeserializer deserializer, Closeable source) {
+        this.deserializer = deserializer;
+        this.source = source;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (! fetched && ! finished) {
+            fetch();
+        }
+        return ! finished;
+    }
+
+    @Override
+    public T next() {
+        if (! hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T object = next;
+        next = null;
+        fetched = false;
+        return object;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void fetch() {
+        try {
+            if (deserializer.hasNextIterationElement()) {
+                next = (T) deserializer.nextIterationElement();
+                fetched = true;
+            } else {
+                finished = true;
+            }
+        } catch (Exception e) {
+            finished = true;
+            if (e instanceof XmlFooException) {
+                throw new IterationException((XmlFooException)e);
+            } else {
+                throw new IterationException(new XmlFooException(e));
+            }
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stop iterating and close the underlying source.
+     */
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        next = null;
+        source.close();
+    }
+}
@@ -17,23 +17,30 @@
 
 package com.cafbit.xmlfoo;
 
-import java.io.StringWriter;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Collection;
-import java.util.Map;
-import java.util.TreeMap;
-
-import org.xmlpull.v1.XmlSerializer;
+import java.util.Iterator;
 
 import com.cafbit.xmlfoo.annotations.SingletonCode;
 
-import android.util.Xml;
-
 public class XmlFooSerializer {
     
+    // bytes copied at a time from a ByteBuffer without a backing array.
+    private static final int BINARY_CHUNK_SIZE = 3*1024;
+    
     private XmlFoo xmlFoo;
+    private Utf8XmlWriter xw;
+    private boolean sizeHints;
+    private FieldCipher fieldCipher;
+    // see XmlFoo.FlushPolicy.ELEMENT.
+    private boolean flushEachElement;
     
     public XmlFooSerializer(XmlFoo xmlFoo) {
         this.xmlFoo = xmlFoo;
@@ -42,75 +49,203 @@ public class XmlFooSerializer {
     //// serialize
     
     public String serialize(String baseTag, Object object) throws XmlFooException {
+        return serialize(baseTag, null, object, null);
+    }
+    
+    public String serialize(String baseTag, String elementTag, Object object, Type parameter) throws XmlFooException {
         try {
-            return serializeToXmlDocument(baseTag, null, object, null);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            // flushing a ByteArrayOutputStream is pointless.
+            flushEachElement = false;
+            serializeToXmlDocument(baseTag, elementTag, object, parameter, new Utf8XmlWriter(out, isPretty()), "UTF-8");
+            return out.toString("UTF-8");
         } catch (Exception e) {
-            if (e instanceof XmlFooException) {
-                throw (XmlFooException)e;
-            } else {
-                throw new XmlFooException(e);
-            }
+            throw toXmlFooException(e);
         }
     }
     
-    public String serialize(String baseTag, String elementTag, Object object, Type parameter) throws XmlFooException {
+    /**
+     * Serialize directly to the supplied writer.  Output is staged in a
+     * fixed-size buffer and written out as it fills, so the document
+     * is never held in memory as a whole.  The writer is flushed, but
+     * not closed, when the document is complete, and also as often as
+     * XmlFoo.setFlushPolicy() asks.
+     */
+    public void serialize(String baseTag, Object object, Writer writer) throws XmlFooException {
+        serialize(baseTag, null, object, null, writer);
+    }
+    
+    public void serialize(String baseTag, String elementTag, Object object, Type parameter, Writer writer) throws XmlFooException {
         try {
-            return serializeToXmlDocument(baseTag, elementTag, object, parameter);
+            serializeToXmlDocument(baseTag, elementTag, object, parameter, streamingWriter(new Utf8XmlWriter(writer, false, isPretty())), "UTF-8");
         } catch (Exception e) {
-            if (e instanceof XmlFooException) {
-                throw (XmlFooException)e;
+            throw toXmlFooException(e);
+        }
+    }
+    
+    /**
+     * Serialize directly to the supplied stream in the specified
+     * charset.  As with the Writer variant, output is written as the
+     * buffer fills, and the stream is flushed but not closed.  UTF-8
+     * is written directly; other charsets go through an encoder, with
+     * non-ASCII characters written as character references.
+     */
+    public void serialize(String baseTag, Object object, OutputStream out, Charset charset) throws XmlFooException {
+        serialize(baseTag, null, object, null, out, charset);
+    }
+    
+    public void serialize(String baseTag, String elementTag, Object object, Type parameter, OutputStream out, Charset charset) throws XmlFooException {
+        try {
+            Utf8XmlWriter xmlWriter;
+            if ("UTF-8".equals(charset.name())) {
+                xmlWriter = new Utf8XmlWriter(out, isPretty());
             } else {
-                throw new XmlFooException(e);
+                xmlWriter = new Utf8XmlWriter(new OutputStreamWriter(out, charset), true, isPretty());
             }
+            serializeToXmlDocument(baseTag, elementTag, object, parameter, streamingWriter(xmlWriter), charset.name());
+        } catch (Exception e) {
+            throw toXmlFooException(e);
         }
     }
     
-    private String serializeToXmlDocument(String baseTag, String elementTag, Object object, Type parameter) throws Exception {
-        XmlSerializer xs = new PrettyPrintXmlSerializer(Xml.newSerializer());
-        StringWriter writer = new StringWriter();
-
-        xs.setOutput(writer);
-        xs.startDocument("UTF-8", null);
-        serializeValueAsElement(xs, new Node(baseTag, elementTag, object.getClass(), parameter), object);
-        xs.endDocument();
-
-        return writer.toString();
+    // apply the flush policy to a writer with a caller's sink.
+    private Utf8XmlWriter streamingWriter(Utf8XmlWriter xmlWriter) {
+        XmlFoo.FlushPolicy flushPolicy = xmlFoo.getFlushPolicy();
+        flushEachElement = (flushPolicy == XmlFoo.FlushPolicy.ELEMENT);
+        xmlWriter.setFlushEachBuffer(flushPolicy == XmlFoo.FlushPolicy.BUFFER);
+        return xmlWriter;
+    }
+    
+    private boolean isPretty() {
+        return xmlFoo.getOutputProfile() == XmlFoo.OutputProfile.PRETTY;
+    }
+    
+    private static XmlFooException toXmlFooException(Exception e) {
+        if (e instanceof XmlFooException) {
+            return (XmlFooException)e;
+        } else {
+            return new XmlFooException(e);
+        }
     }
     
-    private void serializeValueAsElement(XmlSerializer xs, Node node, Object value) throws Exception {
-        xs.startTag("", node.tag);
+    private void serializeToXmlDocument(String baseTag, String elementTag, Object object, Type parameter, Utf8XmlWriter xmlWriter, String encoding) throws Exception {
+        xw = xmlWriter;
+        maxDepth = xmlFoo.getMaxDepth();
+        sizeHints = xmlFoo.getSizeHints();
+        fieldCipher = xmlFoo.getFieldCipher();
+        xw.startDocument(encoding);
+        serializeValueAsElement(new Node(baseTag, elementTag, object.getClass(), parameter), object);
+        xw.endDocument();
+    }
+    
+    // write an element and everything nested in it.  objects and
+    // collections are not written recursively: beginElement() pushes
+    // a frame for them, and this loop writes each frame's children
+    // until the stack is back where it started.
+    private void serializeValueAsElement(Node node, Object value) throws Exception {
+        int base = depth;
+        beginElement(node, value, null);
+        while (depth > base) {
+            Frame frame = frames[depth-1];
+            switch (frame.kind) {
+            case Frame.OBJECT:
+                if (frame.index == frame.count) {
+                    endFrame(frame);
+                } else {
+                    serializeElementSlot(frame, frame.index++);
+                }
+                break;
+            case Frame.COLLECTION:
+            case Frame.ARRAY:
+                // with a batch, the elements come through it.
+                if (frame.batch != null) {
+                    if (frame.batch.hasNext()) {
+                        beginElement(frame.node.childNode, frame.batch.nextElement(), frame.batch);
+                    } else {
+                        endFrame(frame);
+                    }
+                } else if (frame.kind == Frame.COLLECTION) {
+                    if (frame.iterator.hasNext()) {
+                        beginElement(frame.node.childNode, frame.iterator.next(), null);
+                    } else {
+                        endFrame(frame);
+                    }
+                } else {
+                    if (frame.index == frame.count) {
+                        endFrame(frame);
+                    } else {
+                        beginElement(frame.node.childNode, frame.array[frame.index++], null);
+                    }
+                }
+                break;
+            }
+            // back in the root element: a child has just been finished.
+            if (flushEachElement && (depth == base+1)) {
+                xw.flush();
+            }
+        }
+    }
+    
+    // write the start of an element.  scalars are written completely;
+    // objects and collections push a frame to be finished by
+    // serializeValueAsElement().  batch is the @LameCrypt batch of the
+    // collection the element sits directly in, if any.
+    private void beginElement(Node node, Object value, LameCryptBatch batch) throws Exception {
+        xw.startTag(node.getStartTagBytes());
         if (value == null) {
-            xs.attribute("", "null", "true");
+            xw.nullAttribute();
         } else if (node.isSingleton) {
             SingletonCode singletonCode = value.getClass().getAnnotation(SingletonCode.class);
             if (singletonCode == null) {
                 throw new XmlFooException("@Singleton on field, but no @SingletonCode on the referenced class!");
             }
-            xs.text(singletonCode.value());
-        } else if (node.isPrimitive || (value instanceof String)) {
+            xw.text(singletonCode.value());
+        } else if (node.isBinary) {
+            writeBinary(value);
+        } else if (node.isPrimitiveOrBoxed || (value instanceof String)) {
             if (node.isLameCrypt) {
-                xs.text(xmlFoo.lameEncrypt(value.toString()));
+                fieldCipher.writeText(xw, scalarText(value));
             } else {
-                xs.text(value.toString());
+                writeScalarText(value);
             }
         } else if (value instanceof Collection<?>) {
-            for (Object o : ((Collection<?>)value)) {
-                serializeValueAsElement(xs, node.childNode, o);
+            Collection<?> collection = (Collection<?>)value;
+            if (sizeHints) {
+                xw.sizeAttribute(collection.size());
+            }
+            Frame frame = pushFrame(Frame.COLLECTION, node);
+            frame.iterator = collection.iterator();
+            if ((node.childNode.category == Node.Category.OBJECT) && fieldCipher.isBatched()) {
+                frame.batch = new LameCryptBatch(frame.iterator, null);
             }
+            return;
+        } else if (node.primitiveArrayHandler != null) {
+            if (sizeHints) {
+                xw.sizeAttribute(Array.getLength(value));
+            }
+            node.primitiveArrayHandler.write(xw, node.childNode, value);
         } else if (node.type.isArray()) {
-            for (Object o : ((Object[])value)) {
-                //serializeValueAsElement(xs, new Node(node.collectionParameterTag, o), o);
-                serializeValueAsElement(xs, node.childNode, o);
+            Object[] array = (Object[])value;
+            if (sizeHints) {
+                xw.sizeAttribute(array.length);
+            }
+            Frame frame = pushFrame(Frame.ARRAY, node);
+            frame.array = array;
+            frame.count = array.length;
+            if ((node.childNode.category == Node.Category.OBJECT) && fieldCipher.isBatched()) {
+                frame.batch = new LameCryptBatch(null, array);
             }
+            return;
         } else if (node.type.isEnum()) {
-            xs.text(((Enum<?>)value).name());
+            xw.text(((Enum<?>)value).name());
         } else {
-            serializeObject(xs, value);
+            beginObject(node, value, batch);
+            return;
         }
-        xs.endTag("", node.tag);
+        xw.endTag(node.getEndTagBytes());
     }
     
-    private void serializeValueAsAttribute(XmlSerializer xs, Node node, Object value) throws Exception {
+    private void serializeValueAsAttribute(Node node, Object value) throws Exception {
         if (value == null) {
             // a null attribute means it is completely omitted.
             return;
@@ -123,12 +258,15 @@ public class XmlFooSerializer {
                 throw new XmlFooException("@Singleton on field, but no @SingletonCode on the referenced class!");
             }
             text = singletonCode.value();
-        } else if (node.isPrimitive || (value instanceof String)) {
+        } else if (node.isBinary) {
+            ByteBuffer buffer = toHeapBuffer(value);
+            text = Base64.encodeToString(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else if (node.isPrimitiveOrBoxed || (value instanceof String)) {
             if (node.isLameCrypt) {
-                text = xmlFoo.lameEncrypt(value.toString());
-            } else {
-                text = value.toString();
+                fieldCipher.writeAttribute(xw, node.getAttributeNameBytes(), scalarText(value));
+                return;
             }
+            text = scalarText(value);
         } else if (node.type.isEnum()) {
             text = ((Enum<?>)value).name();
         } else if (value instanceof Collection<?>) {
@@ -138,35 +276,434 @@ public class XmlFooSerializer {
         } else {
             throw new XmlFooException("An object cannot be used as an attribute value.");
         }
-        xs.attribute("", node.tag, text);
+        xw.attribute(node.getAttributeNameBytes(), text);
     }
     
-    private void serializeObject(XmlSerializer xs, Object object) throws Exception {
-        Field[] fields = object.getClass().getFields();
-
-        // maybe instead use LinkedHashMap, and use the Field[] ordering?
-        Map<Node, Object> attributeNodes = new TreeMap<Node,Object>();
-        Map<Node, Object> elementNodes = new TreeMap<Node,Object>();
-        for (Field field : fields) {
-            int modifiers = field.getModifiers();
-            if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
-                continue;
+    // encode a byte[] or ByteBuffer as base64 text.  the buffer's
+    // position is left untouched.
+    private void writeBinary(Object value) throws Exception {
+        if (value instanceof byte[]) {
+            byte[] bytes = (byte[])value;
+            xw.base64(bytes, 0, bytes.length);
+            return;
+        }
+        ByteBuffer buffer = (ByteBuffer)value;
+        if (buffer.hasArray()) {
+            xw.base64(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            // direct or read-only buffers are copied out in chunks,
+            // each a multiple of three bytes so only the last is padded.
+            ByteBuffer source = buffer.duplicate();
+            byte[] chunk = new byte[Math.min(source.remaining(), BINARY_CHUNK_SIZE)];
+            while (source.hasRemaining()) {
+                int length = Math.min(source.remaining(), chunk.length);
+                source.get(chunk, 0, length);
+                xw.base64(chunk, 0, length);
             }
-
-            Object value = field.get(object);
-            Node node = new Node(field);
-            if (node.isAttribute) {
-                attributeNodes.put(node, value);
+        }
+    }
+    
+    private static ByteBuffer toHeapBuffer(Object value) {
+        if (value instanceof byte[]) {
+            return ByteBuffer.wrap((byte[])value);
+        }
+        ByteBuffer buffer = (ByteBuffer)value;
+        if (buffer.hasArray()) {
+            return buffer;
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+    
+    // write the attributes of an object and push a frame for its
+    // elements.  the object's @LameCrypt fields are taken from batch
+    // when it is not null.
+    private void beginObject(Node node, Object object, LameCryptBatch batch) throws Exception {
+        Class<?> cls = object.getClass();
+        XmlFooCodec codec = xmlFoo.getCodec(cls);
+        // the descriptor is only needed for slots the codec declines.
+        ClassDescriptor descriptor = null;
+        int elementCount;
+        if (codec != null) {
+            for (int i=0; i<codec.getAttributeCount(); i++) {
+                if (! codec.writeAttribute(this, object, i)) {
+                    if (descriptor == null) {
+                        descriptor = xmlFoo.getClassDescriptor(cls);
+                    }
+                    serializeAttributeNode(descriptor.attributeNodes[i], object, batch);
+                }
+            }
+            elementCount = codec.getElementCount();
+        } else {
+            descriptor = xmlFoo.getClassDescriptor(cls);
+            for (Node attributeNode : descriptor.attributeNodes) {
+                serializeAttributeNode(attributeNode, object, batch);
+            }
+            elementCount = descriptor.elementNodes.length;
+        }
+        Frame frame = pushFrame(Frame.OBJECT, node);
+        frame.object = object;
+        frame.codec = codec;
+        frame.descriptor = descriptor;
+        frame.count = elementCount;
+        frame.batch = batch;
+    }
+    
+    private void serializeElementSlot(Frame frame, int slot) throws Exception {
+        if ((frame.codec != null) && frame.codec.writeElement(this, frame.object, slot)) {
+            return;
+        }
+        if (frame.descriptor == null) {
+            frame.descriptor = xmlFoo.getClassDescriptor(frame.codec.getType());
+        }
+        Node node = frame.descriptor.elementNodes[slot];
+        Object object = frame.object;
+        if (node.isLameCrypt && (frame.batch != null)) {
+            int index = frame.batch.next(object, node);
+            if (index >= 0) {
+                xw.startTag(node.getStartTagBytes());
+                frame.batch.ciphertexts.writeText(xw, index);
+                xw.endTag(node.getEndTagBytes());
+                return;
+            }
+        }
+        if (node.isPrimitive && !node.isSingleton) {
+            if (node.isLameCrypt) {
+                xw.startTag(node.getStartTagBytes());
+                fieldCipher.writeText(xw, node.accessor.getText(object));
+                xw.endTag(node.getEndTagBytes());
+            } else {
+                writePrimitiveElement(node, object);
+            }
+        } else {
+            beginElement(node, node.getField(object), null);
+        }
+    }
+    
+    //// frame stack
+    
+    // the objects and collections currently open, innermost last.
+    // frames are reused from one element to the next, so only the
+    // deepest point of a document costs an allocation.
+    private Frame[] frames = new Frame[16];
+    private int depth = 0;
+    private int maxDepth;
+    
+    private static final class Frame {
+        static final int OBJECT = 0;
+        static final int COLLECTION = 1;
+        static final int ARRAY = 2;
+        
+        int kind;
+        Node node;
+        // the next element slot or array index, and their count.
+        int index;
+        int count;
+        Object object;
+        XmlFooCodec codec;
+        ClassDescriptor descriptor;
+        Iterator<?> iterator;
+        Object[] array;
+        // for a collection or array, the batch that pre-encrypts its
+        // elements' @LameCrypt values; for an object, the batch its
+        // own values come from, if it is such an element.
+        LameCryptBatch batch;
+    }
+    
+    private Frame pushFrame(int kind, Node node) throws XmlFooException {
+        if (depth == maxDepth) {
+            throw new XmlFooException("Maximum nesting depth of "+maxDepth+" exceeded at "+node+".");
+        }
+        if (depth == frames.length) {
+            Frame[] newFrames = new Frame[frames.length * 2];
+            System.arraycopy(frames, 0, newFrames, 0, depth);
+            frames = newFrames;
+        }
+        Frame frame = frames[depth];
+        if (frame == null) {
+            frame = frames[depth] = new Frame();
+        }
+        depth++;
+        frame.kind = kind;
+        frame.node = node;
+        frame.index = 0;
+        frame.count = 0;
+        return frame;
+    }
+    
+    // close the innermost element and drop its references, so the
+    // reused frame does not keep the object graph reachable.
+    private void endFrame(Frame frame) throws Exception {
+        xw.endTag(frame.node.getEndTagBytes());
+        frame.node = null;
+        frame.object = null;
+        frame.codec = null;
+        frame.descriptor = null;
+        frame.iterator = null;
+        frame.array = null;
+        frame.batch = null;
+        depth--;
+    }
+    
+    // write a primitive field with the node's cached tag bytes.
+    
+    private void writePrimitiveAttribute(Node node, Object object) throws Exception {
+        xw.attribute(node.getAttributeNameBytes(), node.accessor.getText(object));
+    }
+    
+    private void writePrimitiveElement(Node node, Object object) throws Exception {
+        xw.startTag(node.getStartTagBytes());
+        node.accessor.writeText(xw, object);
+        xw.endTag(node.getEndTagBytes());
+    }
+    
+    private void serializeAttributeNode(Node node, Object object, LameCryptBatch batch) throws Exception {
+        if (node.isLameCrypt && (batch != null)) {
+            int index = batch.next(object, node);
+            if (index >= 0) {
+                batch.ciphertexts.writeAttribute(xw, node.getAttributeNameBytes(), index);
+                return;
+            }
+        }
+        if (node.isPrimitive && !node.isSingleton) {
+            if (node.isLameCrypt) {
+                fieldCipher.writeAttribute(xw, node.getAttributeNameBytes(), node.accessor.getText(object));
             } else {
-                elementNodes.put(node, value);
+                writePrimitiveAttribute(node, object);
             }
+        } else {
+            serializeValueAsAttribute(node, node.getField(object));
         }
+    }
+    
+    // write a String or boxed value as element text.  boxed numbers
+    // have their digits written straight into the buffer, as
+    // primitive fields do.
+    private void writeScalarText(Object value) throws Exception {
+        if (value instanceof String) {
+            xw.text((String)value);
+        } else if (value instanceof Double) {
+            xw.text(((Double)value).doubleValue());
+        } else if (value instanceof Float) {
+            xw.text(((Float)value).floatValue());
+        } else if ((value instanceof Integer) || (value instanceof Long) || (value instanceof Short) || (value instanceof Byte)) {
+            xw.text(((Number)value).longValue());
+        } else {
+            xw.text(value.toString());
+        }
+    }
+    
+    // boxed floating point values are formatted the same way as
+    // primitive fields.
+    private static String scalarText(Object value) {
+        if (value instanceof Double) {
+            return FloatingPointCodec.toString(((Double)value).doubleValue());
+        } else if (value instanceof Float) {
+            return FloatingPointCodec.toString(((Float)value).floatValue());
+        } else {
+            return value.toString();
+        }
+    }
+    
+    //// LameCrypt
+    
+    /**
+     * Encrypts the @LameCrypt values of a collection's elements ahead
+     * of the serializer, in chunks, for ciphers that encrypt batches
+     * faster than single values (see FieldCipher.isBatched()).
+     *
+     * The batch takes the elements from the collection itself and
+     * hands them to the serializer, so the collection is walked once
+     * and each value is read once.  Each ciphertext is recorded with
+     * the element and node it came from, in the order the serializer
+     * writes them; the serializer asks for a field's ciphertext by
+     * element and node, and encrypts the value itself if the batch
+     * has none.  Only the elements' own fields are batched, not those
+     * of objects nested in them.
+     */
+    private final class LameCryptBatch {
+        // collect values until they fill roughly this many 8-byte
+        // blocks, or until this many elements are waiting.
+        private static final int CHUNK_BLOCKS = 4 * BitslicedDES.LANES;
+        
+        private final Iterator<?> iterator;
+        private final Object[] array;
+        private int arrayIndex = 0;
+        
+        // the elements taken from the collection and not yet written.
+        private Object[] elements = new Object[16];
+        private int elementCount = 0;
+        private int nextElement = 0;
+        
+        // the values gathered from those elements, with the element
+        // and node each came from.
+        private String[] plaintexts = new String[16];
+        private Object[] owners = new Object[16];
+        private Node[] nodes = new Node[16];
+        FieldCipher.Ciphertexts ciphertexts;
+        private int count = 0;
+        private int next = 0;
+        
+        // the class of the last element scanned, and its nodes.
+        private Class<?> lastClass = null;
+        private Node[] lastNodes = null;
         
-        for (Map.Entry<Node, Object> entry : attributeNodes.entrySet()) {
-            serializeValueAsAttribute(xs, entry.getKey(), entry.getValue());
+        LameCryptBatch(Iterator<?> iterator, Object[] array) {
+            this.iterator = iterator;
+            this.array = array;
         }
-        for (Map.Entry<Node, Object> entry : elementNodes.entrySet()) {
-            serializeValueAsElement(xs, entry.getKey(), entry.getValue());
+        
+        boolean hasNext() throws Exception {
+            if (nextElement == elementCount) {
+                fill();
+            }
+            return nextElement < elementCount;
+        }
+        
+        Object nextElement() {
+            Object element = elements[nextElement];
+            elements[nextElement++] = null;
+            return element;
+        }
+        
+        // return the index in ciphertexts of the supplied field's
+        // value, or -1 if the caller must encrypt it itself.
+        int next(Object element, Node node) {
+            if ((next < count) && (owners[next] == element) && (nodes[next] == node)) {
+                return next++;
+            }
+            return -1;
+        }
+        
+        private void fill() throws Exception {
+            for (int i=0; i<count; i++) {
+                owners[i] = null;
+            }
+            elementCount = 0;
+            nextElement = 0;
+            count = 0;
+            next = 0;
+            ciphertexts = null;
+            int blocks = 0;
+            while ((blocks < CHUNK_BLOCKS) && (elementCount < CHUNK_BLOCKS)) {
+                Object element;
+                if (iterator != null) {
+                    if (! iterator.hasNext()) {
+                        break;
+                    }
+                    element = iterator.next();
+                } else {
+                    if (arrayIndex == array.length) {
+                        break;
+                    }
+                    element = array[arrayIndex++];
+                }
+                if (elementCount == elements.length) {
+                    Object[] grown = new Object[elementCount*2];
+                    System.arraycopy(elements, 0, grown, 0, elementCount);
+                    elements = grown;
+                }
+                elements[elementCount++] = element;
+                if (element == null) {
+                    continue;
+                }
+                if (element.getClass() != lastClass) {
+                    lastClass = element.getClass();
+                    lastNodes = xmlFoo.getClassDescriptor(lastClass).lameCryptNodes;
+                }
+                for (Node node : lastNodes) {
+                    // the same rules the serializer applies before
+                    // encrypting a value.
+                    String text;
+                    if (node.isPrimitive) {
+                        text = node.accessor.getText(element);
+                    } else {
+                        Object value = node.getField(element);
+                        if (value instanceof String) {
+                            text = (String)value;
+                        } else if (node.isPrimitiveOrBoxed && (value != null)) {
+                            text = scalarText(value);
+                        } else {
+                            continue;
+                        }
+                    }
+                    if (count == plaintexts.length) {
+                        grow();
+                    }
+                    plaintexts[count] = text;
+                    owners[count] = element;
+                    nodes[count] = node;
+                    count++;
+                    // a rough count: one block per 8 chars.
+                    blocks += (text.length() + 7) / 8;
+                }
+            }
+            if (count > 0) {
+                ciphertexts = fieldCipher.encryptBatch(plaintexts, count);
+            }
         }
+        
+        private void grow() {
+            int length = count*2;
+            String[] newPlaintexts = new String[length];
+            Object[] newOwners = new Object[length];
+            Node[] newNodes = new Node[length];
+            System.arraycopy(plaintexts, 0, newPlaintexts, 0, count);
+            System.arraycopy(owners, 0, newOwners, 0, count);
+            System.arraycopy(nodes, 0, newNodes, 0, count);
+            plaintexts = newPlaintexts;
+            owners = newOwners;
+            nodes = newNodes;
+        }
+    }
+    
+    //// codec support
+    
+    /**
+     * Write an attribute of the object currently being serialized.
+     * A null value omits the attribute.
+     */
+    public void writeAttribute(String name, String text) throws Exception {
+        if (text != null) {
+            xw.attribute(name, text);
+        }
+    }
+    
+    /**
+     * Write a scalar element.  A null value is written as an empty
+     * element with a null="true" attribute.
+     */
+    public void writeElement(String tag, String text) throws Exception {
+        xw.startTag(tag);
+        if (text == null) {
+            xw.nullAttribute();
+        } else {
+            xw.text(text);
+        }
+        xw.endTag(tag);
+    }
+    
+    /**
+     * Write a numeric element, with its digits generated straight into
+     * the output as the generic path does for primitive fields.  Int,
+     * short and byte values use the long form.
+     */
+    public void writeElement(String tag, long value) throws Exception {
+        xw.startTag(tag);
+        xw.text(value);
+        xw.endTag(tag);
+    }
+    
+    public void writeElement(String tag, double value) throws Exception {
+        xw.startTag(tag);
+        xw.text(value);
+        xw.endTag(tag);
+    }
+    
+    public void writeElement(String tag, float value) throws Exception {
+        xw.startTag(tag);
+        xw.text(value);
+        xw.endTag(tag);
     }
 }
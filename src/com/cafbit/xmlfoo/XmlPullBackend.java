@@ -0,0 +1,63 @@
+/*
+ * Copyright 2011 David Simmons
+ * http://cafbit.com/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cafbit.xmlfoo;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+/**
+ * A backend that creates parsers with an XmlPullParserFactory.  The
+ * no-argument constructor uses XmlPullParserFactory.newInstance(),
+ * which finds the platform parser on Android and whichever XmlPull
+ * implementation is on the classpath elsewhere.  To choose a specific
+ * implementation, pass in a factory configured for it.
+ */
+public class XmlPullBackend extends XmlBackend {
+
+    // resolved on first use when not supplied.  the race to create it
+    // is harmless; every thread ends up with an equivalent factory.
+    private volatile XmlPullParserFactory factory;
+
+    public XmlPullBackend() {
+        this.factory = null;
+    }
+
+    /**
+     * Use the supplied factory, which should be namespace aware.  It
+     * must not be reconfigured once the backend is in use.
+     */
+    public XmlPullBackend(XmlPullParserFactory factory) {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory cannot be null");
+        }
+        this.factory = factory;
+    }
+
+    @Override
+    public XmlPullParser newPullParser() throws XmlPullParserException {
+        XmlPullParserFactory factory = this.factory;
+        if (factory == null) {
+            factory = XmlPullParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            this.factory = factory;
+        }
+        return factory.newPullParser();
+    }
+
+}